@@ -0,0 +1,73 @@
+package tv.lid.cinema.api2;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import tv.lid.cinema.api2.models.CommonModel;
+import tv.lid.cinema.api2.models.Migrations;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.ScheduleModel;
+import tv.lid.cinema.api2.storages.ConnectionPool;
+import tv.lid.cinema.api2.storages.H2Storage;
+
+// база данных для измерений: хранилище H2 в заданном режиме с заполненными таблицами моделей
+public final class BenchmarkDatabase {
+    public static final int MOVIES              = 1000, // фильмов в таблице
+                            SCHEDULES_PER_MOVIE = 20;   // сеансов каждого фильма
+
+    private static final int PORT = 7797; // порт TCP-сервера
+
+    private static final String HOME = "build/jmh/h2",
+                                FILE = "bench";
+
+    // начало первого сеанса
+    public static final LocalDateTime START = LocalDateTime.of(2020, 9, 1, 10, 0);
+
+    // хранилище данных
+    private final H2Storage storage;
+
+    // идентификаторы фильмов в порядке вставки
+    public final int[] movieIds;
+
+    // конструктор: подключение к БД, пересоздание таблиц и их заполнение
+    public BenchmarkDatabase(final String mode) throws SQLException {
+        this.storage = new H2Storage(
+            H2Storage.Mode.of(mode),
+            false,
+            BenchmarkDatabase.PORT,
+            BenchmarkDatabase.HOME + "/" + mode.toLowerCase(),
+            BenchmarkDatabase.FILE,
+            "sa",
+            "sa",
+            new ConnectionPool.Settings()
+        );
+        this.storage.connect();
+
+        CommonModel.initialize(this.storage.dataSource());
+        Migrations.reset();
+        Migrations.migrate();
+
+        // фильмы
+        final List<MovieModel> movies = new ArrayList<>(BenchmarkDatabase.MOVIES);
+        for (int i = 0; i < BenchmarkDatabase.MOVIES; i++) {
+            movies.add(new MovieModel("Movie #" + i, (short) (90 + i % 60), (short) (1950 + i % 70)));
+        }
+        this.movieIds = MovieModel.saveAll(movies).stream().mapToInt(Integer::intValue).toArray();
+
+        // сеансы
+        try (ScheduleModel.Importer importer = ScheduleModel.importer(1000)) {
+            for (final int movieId : this.movieIds) {
+                for (int i = 0; i < BenchmarkDatabase.SCHEDULES_PER_MOVIE; i++) {
+                    importer.add(new ScheduleModel(movieId, BenchmarkDatabase.START.plusHours(i * 3), (byte) (1 + i % 5)));
+                }
+            }
+        }
+    }
+
+    // разрыв соединения с БД
+    public void close() throws SQLException {
+        this.storage.disconnect();
+    }
+}
@@ -0,0 +1,95 @@
+package tv.lid.cinema.api2.codecs;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.jooby.MockContext;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.lid.cinema.api2.controllers.MovieController;
+import tv.lid.cinema.api2.controllers.ResponseCache;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.ScheduleModel;
+
+// кодирование ответов и разбор тел запросов кодеком JSON приложения
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonCodecBenchmark {
+    // кодек с ограничением тела запроса по умолчанию
+    private final JsonCodec codec = new JsonCodec(1024 * 1024);
+
+    // ответ с одной записью
+    private Object single;
+
+    // ответ со списком фильмов в обёртке
+    private Object page;
+
+    // тела запросов
+    private byte[] movieBody, scheduleBody;
+
+    @Setup
+    public void setUp() {
+        final MovieController controller = new MovieController(
+            1000, 100, 50, 10000, new ResponseCache(this.codec, 0, 0)
+        );
+
+        final List<MovieModel> movies = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            movies.add(new MovieModel(i + 1, "Movie #" + i, (short) 120, (short) 2000));
+        }
+
+        this.single = controller.ok(movies.get(0));
+        this.page   = controller.ok(controller.new ListWrapper(movies, 1000, 100, "MTA6MjAwMA"));
+
+        this.movieBody    = "{\"id\":0,\"title\":\"Movie\",\"duration\":120,\"year\":2000}"
+            .getBytes(StandardCharsets.UTF_8);
+        this.scheduleBody = (
+            "{\"id\":0,\"movieId\":1,\"dateAndTime\":\"" + LocalDateTime.of(2020, 9, 1, 19, 30) + "\",\"auditorium\":3}"
+        ).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // запись результата с одной записью
+    @Benchmark
+    public MockContext encodeResult() throws Exception {
+        final MockContext ctx = new MockContext();
+        this.codec.encode(ctx, this.single);
+        return ctx;
+    }
+
+    // запись результата со страницей списка
+    @Benchmark
+    public MockContext encodeListWrapper() throws Exception {
+        final MockContext ctx = new MockContext();
+        this.codec.encode(ctx, this.page);
+        return ctx;
+    }
+
+    // разбор фильма
+    @Benchmark
+    public Object decodeMovie() throws Exception {
+        return this.codec.decode(new MockContext().setBody(this.movieBody), MovieModel.class);
+    }
+
+    // разбор сеанса с датой и временем
+    @Benchmark
+    public Object decodeSchedule() throws Exception {
+        return this.codec.decode(new MockContext().setBody(this.scheduleBody), ScheduleModel.class);
+    }
+}
@@ -0,0 +1,112 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import io.jooby.MockContext;
+import io.jooby.MockRouter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.lid.cinema.api2.App;
+import tv.lid.cinema.api2.BenchmarkDatabase;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.ScheduleModel;
+
+// обработчики контроллеров фильмов и сеансов через маршрутизатор приложения, без сети и кодека
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HandlerBenchmark {
+    // режим работы с БД
+    @Param({"embedded", "server"})
+    public String mode;
+
+    // заполненная БД
+    private BenchmarkDatabase db;
+
+    // маршрутизатор приложения
+    private MockRouter router;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        this.db     = new BenchmarkDatabase(this.mode);
+        this.router = new MockRouter(new App());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.db.close();
+    }
+
+    // случайный существующий фильм
+    private int movieId() {
+        return this.db.movieIds[ThreadLocalRandom.current().nextInt(this.db.movieIds.length)];
+    }
+
+    // результат обработчика, выполняемого в исполнителе обращений к БД, -- с ожиданием завершения
+    private static Object await(final Object value) {
+        return value instanceof CompletableFuture ? ((CompletableFuture<?>) value).join() : value;
+    }
+
+    // GET /api2/movies/{page}
+    @Benchmark
+    public Object movieList() {
+        return HandlerBenchmark.await(
+            this.router.get("/api2/movies/" + (1 + ThreadLocalRandom.current().nextInt(10))).value()
+        );
+    }
+
+    // GET /api2/movie/{id}
+    @Benchmark
+    public Object movieFind() {
+        return HandlerBenchmark.await(this.router.get("/api2/movie/" + this.movieId()).value());
+    }
+
+    // PUT /api2/movie
+    @Benchmark
+    public Object movieModify() {
+        return HandlerBenchmark.await(this.router.put(
+            "/api2/movie",
+            new MockContext().setBody(new MovieModel(this.movieId(), "Modified", (short) 100, (short) 2020))
+        ).value());
+    }
+
+    // GET /api2/schedules/{movieId}?from=&to=
+    @Benchmark
+    public Object scheduleList() {
+        return HandlerBenchmark.await(this.router.get(
+            "/api2/schedules/" + this.movieId(),
+            new MockContext().setQueryString(
+                "from=" + BenchmarkDatabase.START + "&to=" + BenchmarkDatabase.START.plusDays(2)
+            )
+        ).value());
+    }
+
+    // POST /api2/schedule
+    @Benchmark
+    public Object scheduleCreate() {
+        return HandlerBenchmark.await(this.router.post(
+            "/api2/schedule",
+            new MockContext().setBody(new ScheduleModel(this.movieId(), LocalDateTime.of(2021, 1, 1, 12, 0), (byte) 1))
+        ).value());
+    }
+}
@@ -0,0 +1,122 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import tv.lid.cinema.api2.BenchmarkDatabase;
+
+// операции моделей фильмов и сеансов со встроенной БД H2 и через TCP-сервер H2
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModelBenchmark {
+    // режим работы с БД
+    @Param({"embedded", "server"})
+    public String mode;
+
+    // заполненная БД
+    private BenchmarkDatabase db;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        this.db = new BenchmarkDatabase(this.mode);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        this.db.close();
+    }
+
+    // случайный существующий фильм
+    private int movieId() {
+        return this.db.movieIds[ThreadLocalRandom.current().nextInt(this.db.movieIds.length)];
+    }
+
+    // чтение фильма из кэша
+    @Benchmark
+    public MovieModel movieFindCached() throws SQLException {
+        return MovieModel.find(this.movieId());
+    }
+
+    // чтение фильма из БД
+    @Benchmark
+    public MovieModel movieFindUncached() throws SQLException {
+        final int id = this.movieId();
+        MovieModel.cache().invalidate(id);
+        return MovieModel.find(id);
+    }
+
+    // подсчет фильмов в БД
+    @Benchmark
+    public int movieCount() throws SQLException {
+        return MovieModel.count();
+    }
+
+    // страница списка фильмов
+    @Benchmark
+    public List<MovieModel> movieListPage() throws SQLException {
+        return MovieModel.list(1 + ThreadLocalRandom.current().nextInt(10), 10);
+    }
+
+    // порция списка фильмов по курсору
+    @Benchmark
+    public List<MovieModel> movieListCursor() throws SQLException {
+        return MovieModel.list((short) 1990, Integer.MAX_VALUE, 10);
+    }
+
+    // создание и удаление фильма -- размер таблицы не меняется
+    @Benchmark
+    public boolean movieCreateKill() throws SQLException {
+        return MovieModel.kill(new MovieModel("Benchmark", (short) 100, (short) 2020).save());
+    }
+
+    // изменение фильма
+    @Benchmark
+    public int movieModify() throws SQLException {
+        return new MovieModel(this.movieId(), "Modified", (short) 100, (short) 2020).save();
+    }
+
+    // страница сеансов фильма в интервале времени
+    @Benchmark
+    public List<ScheduleModel> scheduleListWindow() throws SQLException {
+        return ScheduleModel.list(
+            this.movieId(),
+            BenchmarkDatabase.START,
+            BenchmarkDatabase.START.plusDays(2),
+            1,
+            10
+        );
+    }
+
+    // подсчет сеансов фильма в БД
+    @Benchmark
+    public int scheduleCount() throws SQLException {
+        return ScheduleModel.count(this.movieId());
+    }
+
+    // создание и удаление сеанса
+    @Benchmark
+    public boolean scheduleCreateKill() throws SQLException {
+        return ScheduleModel.kill(new ScheduleModel(this.movieId(), LocalDateTime.of(2021, 1, 1, 12, 0), (byte) 1).save());
+    }
+}
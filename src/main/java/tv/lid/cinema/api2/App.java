@@ -3,99 +3,258 @@ package tv.lid.cinema.api2;
 import io.jooby.Jooby;
 import io.jooby.MediaType;
 
+import java.io.File;
 import java.sql.SQLException;
+import java.util.concurrent.CompletionStage;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
 
+import tv.lid.cinema.api2.codecs.JsonCodec;
+import tv.lid.cinema.api2.controllers.AdminController;
+import tv.lid.cinema.api2.controllers.BlockingExecutor;
+import tv.lid.cinema.api2.controllers.CommonController;
+import tv.lid.cinema.api2.controllers.ExportController;
 import tv.lid.cinema.api2.controllers.MovieController;
+import tv.lid.cinema.api2.controllers.ResponseCache;
 import tv.lid.cinema.api2.controllers.ScheduleController;
 import tv.lid.cinema.api2.models.CommonModel;
-import tv.lid.cinema.api2.models.MovieModel;
-import tv.lid.cinema.api2.models.ScheduleModel;
+import tv.lid.cinema.api2.models.Counters;
+import tv.lid.cinema.api2.models.EntityCache;
+import tv.lid.cinema.api2.models.Migrations;
+import tv.lid.cinema.api2.models.QueryLog;
+import tv.lid.cinema.api2.storages.ConnectionPool;
+import tv.lid.cinema.api2.storages.DatabaseStorage;
 import tv.lid.cinema.api2.storages.H2Storage;
+import tv.lid.cinema.api2.storages.MemoryStorage;
+import tv.lid.cinema.api2.storages.ShardedH2Storage;
 
 public class App extends Jooby {
     private static final String CMD_OPERATE   = "operate",
                                 CMD_INSTALL   = "install",
+                                CMD_MIGRATE   = "migrate",
                                 CMD_UNINSTALL = "uninstall";
 
+    // файл конфигурации приложения
+    private static final String CONF_FILE = "conf/application.conf";
+
+    // хранилище данных
+    private static DatabaseStorage storage = null;
+
     // инициализация класса
     {
-        decoder(MediaType.json, (ctx, type) -> {
-            try {
-                return (new ObjectMapper())
-                    .readValue(
-                        ctx.body().bytes(),
-                        Class.forName(type.getTypeName())
-                    );
-            } catch (ClassNotFoundException | JsonProcessingException exc) {
-                return null;
-            }
-        });
+        // кодек JSON, общий для всех запросов
+        final JsonCodec codec = new JsonCodec(getConfig().getBytes("json.maxBodySize"));
 
-        encoder(MediaType.json, (ctx, result) -> {
-            ctx.setDefaultResponseType(MediaType.json);
+        decoder(MediaType.json, codec);
+        encoder(MediaType.json, codec);
 
-            try {
-                return (new ObjectMapper()).writeValueAsBytes(result);
-            } catch (JsonProcessingException exc) {
-                return null;
-            }
-        });
+        // кэш закодированных ответов GET-маршрутов
+        final ResponseCache responses = new ResponseCache(
+            codec,
+            getConfig().getBytes("responses.maxSize"),
+            getConfig().getBytes("responses.gzipMinSize")
+        );
+
+        // контроллеры
+        final MovieController    movCtr = new MovieController(
+            getConfig().getInt("batch.maxSize"),
+            getConfig().getInt("lookup.maxIds"),
+            getConfig().getInt("embed.maxSchedules"),
+            getConfig().getInt("list.maxOffset"),
+            responses
+        );
+        final ScheduleController schCtr = new ScheduleController(
+            codec,
+            getConfig().getInt("import.chunkSize"),
+            getConfig().getInt("lookup.maxIds"),
+            responses
+        );
+        final ExportController   expCtr = new ExportController(codec, getConfig().getInt("export.fetchSize"));
+
+        // исполнитель обработчиков, обращающихся к БД, -- отдельно от потоков сервера
+        final BlockingExecutor executor = new BlockingExecutor(new BlockingExecutor.Settings(
+            getConfig().getInt("executor.threads"),
+            getConfig().getInt("executor.queueSize"),
+            getConfig().getLong("executor.queueTimeout"),
+            getConfig().getBoolean("executor.virtual")
+        ));
+        onStop(executor);
+
+        // длительность обработки всех запросов в метриках
+        decorator(CommonController.metrics());
 
         path("/api2", () -> {
-            // фильмы
-            final MovieController movCtr = new MovieController();
+            // импорт сеансов -- порциями в отдельных транзакциях, вне единицы работы
+            post("/schedules/import", schCtr.bulk);
+
+            // выгрузка каталога -- потоком из курсора БД, не занимая исполнитель на время передачи
+            get("/export/movies", expCtr.movies);
 
-            get("/movies",        movCtr.list);
-            get("/movies/{page}", movCtr.list);
-            post("/movie",        movCtr.create);
-            get("/movie/{id}",    movCtr.find);
-            put("/movie",         movCtr.modify);
-            delete("/movie/{id}", movCtr.kill);
+            // остальные маршруты -- в исполнителе обращений к БД с отказом при перегрузке; обработчик после
+            // декоратора возвращает CompletionStage, что маршрут объявляет явно -- иначе Jooby выводит тип
+            // результата по самому обработчику и отдает клиенту объект CompletableFuture вместо его значения
+            decorator(CommonController.offload(executor, getConfig().getLong("executor.retryAfter")));
+
+            // и в единице работы: одно соединение и одна транзакция на запрос
+            decorator(CommonController.unitOfWork());
+
+            // фильмы: список при ?ids=1,5,9 -- по идентификаторам, фильм при ?include=schedules -- с сеансами
+            get("/movies",        movCtr.list).setReturnType(CompletionStage.class);
+            get("/movies/{page}", movCtr.list).setReturnType(CompletionStage.class);
+            post("/movies/batch", movCtr.batch).setReturnType(CompletionStage.class);
+            post("/movie",        movCtr.create).setReturnType(CompletionStage.class);
+            get("/movie/{id}",    movCtr.find).setReturnType(CompletionStage.class);
+            put("/movie",         movCtr.modify).setReturnType(CompletionStage.class);
+            delete("/movie/{id}", movCtr.kill).setReturnType(CompletionStage.class);
 
             // сеансы
-            final ScheduleController schCtr = new ScheduleController();
-
-            get("/schedules/{movieId}",        schCtr.list);
-            get("/schedules/{movieId}/{page}", schCtr.list);
-            post("/schedule",                  schCtr.create);
-            get("/schedule/{id}",              schCtr.find);
-            put("/schedule",                   schCtr.modify);
-            delete("/schedule/{id}",           schCtr.kill);
+            get("/schedules",                  schCtr.lookup).setReturnType(CompletionStage.class);
+            get("/schedules/{movieId}",        schCtr.list).setReturnType(CompletionStage.class);
+            get("/schedules/{movieId}/{page}", schCtr.list).setReturnType(CompletionStage.class);
+            post("/schedule",                  schCtr.create).setReturnType(CompletionStage.class);
+            get("/schedule/{id}",              schCtr.find).setReturnType(CompletionStage.class);
+            put("/schedule",                   schCtr.modify).setReturnType(CompletionStage.class);
+            delete("/schedule/{id}",           schCtr.kill).setReturnType(CompletionStage.class);
+        });
+
+        path("/admin", () -> {
+            // служебная информация
+            final AdminController admCtr = new AdminController(App.storage, executor, responses);
+
+            get("/pool",     admCtr.pool);
+            get("/cache",    admCtr.cache);
+            get("/metrics",  admCtr.metrics);
+            get("/queries",  admCtr.queries);
+            get("/executor", admCtr.executor);
         });
     }
 
-    // создание таблиц в базе данных
+    // чтение конфигурации приложения
+    public static Config settings() {
+        return ConfigFactory.systemProperties()
+            .withFallback(ConfigFactory.parseFile(new File(App.CONF_FILE)))
+            .resolve();
+    }
+
+    // создание хранилища данных по конфигурации: в памяти процесса либо в БД, при нескольких сегментах --
+    // по базе данных на сегмент
+    public static DatabaseStorage storage(final Config conf) {
+        final String backend = conf.getString("db.backend");
+        if (backend.equals("memory")) {
+            return new MemoryStorage(conf.getString("db.snapshot"));
+        }
+        if (!backend.equals("h2")) {
+            throw new IllegalArgumentException("Invalid storage backend");
+        }
+
+        final ConnectionPool.Settings pool = new ConnectionPool.Settings(
+            conf.getInt("db.pool.minSize"),
+            conf.getInt("db.pool.maxSize"),
+            conf.getLong("db.pool.acquireTimeout"),
+            conf.getLong("db.pool.idleTimeout"),
+            conf.getInt("db.pool.validationTimeout"),
+            conf.getLong("db.pool.leakThreshold"),
+            conf.getInt("db.pool.statementCacheSize")
+        );
+
+        final int shards = conf.getInt("db.shards");
+        if (shards < 1) {
+            throw new IllegalArgumentException("Invalid number of shards");
+        }
+        if (shards > 1) {
+            return new ShardedH2Storage(
+                shards,
+                H2Storage.Mode.of(conf.getString("db.mode")),
+                conf.getBoolean("db.tcp"),
+                conf.getInt("db.port"),
+                conf.getString("db.home"),
+                conf.getString("db.file"),
+                conf.getString("db.username"),
+                conf.getString("db.password"),
+                pool
+            );
+        }
+
+        return new H2Storage(
+            H2Storage.Mode.of(conf.getString("db.mode")),
+            conf.getBoolean("db.tcp"),
+            conf.getInt("db.port"),
+            conf.getString("db.home"),
+            conf.getString("db.file"),
+            conf.getString("db.username"),
+            conf.getString("db.password"),
+            pool
+        );
+    }
+
+    // создание таблиц в базе данных либо обновление их схемы до последней версии
     private static void install() throws SQLException {
-        MovieModel.createTable();
-        ScheduleModel.createTable();
+        System.out.println("Database schema is at version " + Migrations.migrate() + ".\n\n");
     }
 
     // удаление таблиц из базы данных
     private static void uninstall() throws SQLException {
-        ScheduleModel.dropTable();
-        MovieModel.dropTable();
+        Migrations.reset();
+    }
+
+    // подключение к БД и инициализация моделей
+    public static void connect(final DatabaseStorage storage) throws SQLException {
+        storage.connect();
+
+        // без БД (хранилище в памяти) модели работают с хранилищами, выбранными самим хранилищем
+        if (!storage.dataSources().isEmpty()) {
+            CommonModel.initialize(storage.dataSources());
+        }
+        App.storage = storage;
+    }
+
+    // подготовка моделей к обслуживанию запросов
+    public static void prepare(final Config conf) throws SQLException {
+        // обновление схемы БД до последней версии
+        Migrations.migrate();
+
+        // заполнение счетчиков записей и запуск их периодической сверки с БД
+        Counters.start(conf.getLong("counters.reconcilePeriod"));
+
+        // настройка кэшей записей
+        EntityCache.configure(conf.getLong("cache.maximumSize"), conf.getLong("cache.ttl"));
+
+        // настройка журнала медленных запросов
+        QueryLog.configure(
+            conf.getLong("queries.slowThreshold"),
+            conf.getInt("queries.topSize"),
+            conf.getLong("queries.window"),
+            conf.getBoolean("queries.explain"),
+            conf.getBoolean("queries.params")
+        );
     }
 
     // нормальная работа приложения
-    private static void operate(final String[] args) {
+    private static void operate(final String[] args, final Config conf) throws SQLException {
+        App.prepare(conf);
+
         runApp(args, App::new);
     }
 
     public static void main(final String[] args) {
         // создание соединения с БД и подключение
-        final H2Storage h2s = new H2Storage();
+        final Config          conf;
+        final DatabaseStorage h2s;
 
         try {
-            // подключение к серверу БД
-            h2s.connect();
+            conf = App.settings();
+            h2s  = App.storage(conf);
+        } catch (Exception exc) {
+            System.out.println("Incorrect application configuration! Exiting...\n\n");
+            return;
+        }
 
-            // инициализация моделей
-            CommonModel.initialize(h2s.dataSource());
+        try {
+            // подключение к серверу БД и инициализация моделей
+            App.connect(h2s);
         } catch (SQLException exc) {
-            System.out.println("Unable to start H2 database server! Exiting...\n\n");
+            System.out.println("Unable to connect to H2 database! Exiting...\n\n");
             return;
         }
 
@@ -116,8 +275,8 @@ public class App extends Jooby {
         try {
             if (args.length == 0 || args.length == 1) {
                 if (args.length == 0 || args[0].equals(App.CMD_OPERATE)) { // обычный режим
-                    App.operate(args);
-                } else if (args[0].equals(App.CMD_INSTALL)) { // создание таблиц
+                    App.operate(args, conf);
+                } else if (args[0].equals(App.CMD_INSTALL) || args[0].equals(App.CMD_MIGRATE)) { // создание либо обновление таблиц
                     App.install();
                 } else if (args[0].equals(App.CMD_UNINSTALL)) { // удаление таблиц
                     App.uninstall();
@@ -0,0 +1,184 @@
+package tv.lid.cinema.api2.codecs;
+
+import io.jooby.Context;
+import io.jooby.MediaType;
+import io.jooby.MessageDecoder;
+import io.jooby.MessageEncoder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// кодек JSON для тел запросов и ответов
+public final class JsonCodec implements MessageDecoder, MessageEncoder {
+    // буфер ответа, больше которого память потоку не оставляется
+    private static final int MAX_RETAINED_BUFFER = 64 * 1024;
+
+    // начальный размер буфера ответа
+    private static final int INITIAL_BUFFER = 4 * 1024;
+
+    // буфер ответа с доступом к внутреннему массиву
+    public static final class Buffer extends ByteArrayOutputStream {
+        Buffer(final int size) {
+            super(size);
+        }
+
+        // внутренний массив, данные занимают первые size() байт
+        public byte[] array() {
+            return this.buf;
+        }
+    }
+
+    // буфер, переиспользуемый потоком от запроса к запросу
+    private static final ThreadLocal<Buffer> BUFFERS = ThreadLocal.withInitial(
+        () -> new Buffer(JsonCodec.INITIAL_BUFFER)
+    );
+
+    // поток входных данных с ограничением объема
+    private static final class LimitedInputStream extends FilterInputStream {
+        private final long limit;
+        private long       remaining;
+
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.limit     = limit;
+            this.remaining = limit;
+        }
+
+        // прочитано байт
+        long consumed() {
+            return this.limit - this.remaining;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if (b >= 0) {
+                this.consume(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if (n > 0) {
+                this.consume(n);
+            }
+            return n;
+        }
+
+        private void consume(final int n) throws IOException {
+            this.remaining -= n;
+            if (this.remaining < 0) {
+                throw new IOException("Request body exceeds the allowed size");
+            }
+        }
+    }
+
+    // единый настроенный экземпляр преобразователя
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    // кэш читателей по целевому типу
+    private final ConcurrentHashMap<Type, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    // кэш писателей по классу значения
+    private final ConcurrentHashMap<Class<?>, ObjectWriter> writers = new ConcurrentHashMap<>();
+
+    // максимальный размер тела запроса в байтах
+    private final long maxBodySize;
+
+    // конструктор
+    public JsonCodec(final long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+
+        this.mapper.registerModule(new LocalDateTimeModule());
+    }
+
+    // настроенный преобразователь
+    public ObjectMapper mapper() {
+        return this.mapper;
+    }
+
+    // читатель для заданного типа
+    public ObjectReader reader(final Type type) {
+        return this.readers.computeIfAbsent(
+            type,
+            t -> this.mapper.readerFor(this.mapper.getTypeFactory().constructType(t))
+        );
+    }
+
+    // писатель для заданного класса
+    public ObjectWriter writer(final Class<?> type) {
+        return this.writers.computeIfAbsent(type, this.mapper::writerFor);
+    }
+
+    // разбор тела запроса непосредственно из входного потока
+    @Override
+    public Object decode(final Context ctx, final Type type) throws Exception {
+        if (ctx.getRequestLength() > this.maxBodySize) {
+            return null;
+        }
+
+        final long               start = System.nanoTime();
+        final LimitedInputStream in    = new LimitedInputStream(ctx.body().stream(), this.maxBodySize);
+
+        try (InputStream body = in) {
+            return this.reader(type).readValue(body);
+        } catch (IOException exc) {
+            return null;
+        } finally {
+            Metrics.JSON_DECODE.recordSince(start);
+            Metrics.JSON_DECODED_BYTES.add(in.consumed());
+        }
+    }
+
+    // значение в JSON отдельным массивом -- для хранения закодированного ответа
+    public byte[] bytes(final Object value) throws IOException {
+        final long start = System.nanoTime();
+        try {
+            final byte[] bytes = this.writer(value.getClass()).writeValueAsBytes(value);
+            Metrics.JSON_ENCODED_BYTES.add(bytes.length);
+            return bytes;
+        } finally {
+            Metrics.JSON_ENCODE.recordSince(start);
+        }
+    }
+
+    // запись результата в поток ответа через буфер потока
+    @Override
+    public byte[] encode(final Context ctx, final Object value) throws Exception {
+        ctx.setDefaultResponseType(MediaType.json);
+
+        final Buffer buffer = JsonCodec.BUFFERS.get();
+        buffer.reset();
+
+        final long start = System.nanoTime();
+        try {
+            this.writer(value.getClass()).writeValue(buffer, value);
+            Metrics.JSON_ENCODED_BYTES.add(buffer.size());
+
+            ctx.setResponseLength(buffer.size());
+            try (OutputStream out = ctx.responseStream()) {
+                buffer.writeTo(out);
+            }
+        } finally {
+            Metrics.JSON_ENCODE.recordSince(start);
+            if (buffer.array().length > JsonCodec.MAX_RETAINED_BUFFER) {
+                JsonCodec.BUFFERS.remove();
+            }
+        }
+
+        return null;
+    }
+}
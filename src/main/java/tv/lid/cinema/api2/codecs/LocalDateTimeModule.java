@@ -0,0 +1,79 @@
+package tv.lid.cinema.api2.codecs;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.deser.std.StdScalarDeserializer;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdScalarSerializer;
+
+// модуль JSON для даты и времени в строгом формате ISO-8601 без часового пояса
+public final class LocalDateTimeModule extends SimpleModule {
+    private static final long serialVersionUID = 1L;
+
+    // формат даты и времени, например 2020-09-01T19:30:00
+    public static final DateTimeFormatter FORMAT = DateTimeFormatter.ISO_LOCAL_DATE_TIME;
+
+    // запись даты и времени
+    private static final class Serializer extends StdScalarSerializer<LocalDateTime> {
+        private static final long serialVersionUID = 1L;
+
+        Serializer() {
+            super(LocalDateTime.class);
+        }
+
+        @Override
+        public void serialize(
+            final LocalDateTime      value,
+            final JsonGenerator      gen,
+            final SerializerProvider provider
+        ) throws IOException {
+            gen.writeString(LocalDateTimeModule.FORMAT.format(value));
+        }
+    }
+
+    // чтение даты и времени -- только строка в заданном формате
+    private static final class Deserializer extends StdScalarDeserializer<LocalDateTime> {
+        private static final long serialVersionUID = 1L;
+
+        Deserializer() {
+            super(LocalDateTime.class);
+        }
+
+        @Override
+        public LocalDateTime deserialize(
+            final JsonParser             parser,
+            final DeserializationContext ctxt
+        ) throws IOException {
+            if (parser.currentToken() != JsonToken.VALUE_STRING) {
+                return (LocalDateTime) ctxt.handleUnexpectedToken(LocalDateTime.class, parser);
+            }
+
+            final String text = parser.getText();
+            try {
+                return LocalDateTime.parse(text, LocalDateTimeModule.FORMAT);
+            } catch (DateTimeParseException exc) {
+                return (LocalDateTime) ctxt.handleWeirdStringValue(
+                    LocalDateTime.class,
+                    text,
+                    "Expected ISO-8601 local date and time, e.g. 2020-09-01T19:30:00"
+                );
+            }
+        }
+    }
+
+    // конструктор
+    public LocalDateTimeModule() {
+        super("LocalDateTimeModule");
+
+        this.addSerializer(LocalDateTime.class, new Serializer());
+        this.addDeserializer(LocalDateTime.class, new Deserializer());
+    }
+}
@@ -0,0 +1,69 @@
+package tv.lid.cinema.api2.controllers;
+
+import io.jooby.Context;
+import io.jooby.Route;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tv.lid.cinema.api2.metrics.Metrics;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.QueryLog;
+import tv.lid.cinema.api2.models.ScheduleModel;
+import tv.lid.cinema.api2.storages.DatabaseStorage;
+
+// класс служебного контроллера
+public final class AdminController extends CommonController {
+    // статистика пула соединений
+    public final Route.Handler pool;
+
+    // статистика кэшей записей и ответов
+    public final Route.Handler cache;
+
+    // метрики в текстовом формате Prometheus
+    public final Route.Handler metrics;
+
+    // самые медленные запросы к БД
+    public final Route.Handler queries;
+
+    // статистика исполнителя обращений к БД
+    public final Route.Handler executor;
+
+    // конструктор
+    public AdminController(
+        final DatabaseStorage  storage,
+        final BlockingExecutor executor,
+        final ResponseCache    responses
+    ) {
+        // запрос статистики пула соединений
+        this.pool = (Context ctx) -> {
+            try {
+                return ok(storage.statistics());
+            } catch (Exception exc) {
+                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить статистику пула соединений!");
+            }
+        };
+
+        // запрос статистики кэшей записей и ответов
+        this.cache = (Context ctx) -> {
+            final Map<String, Object> stats = new LinkedHashMap<>();
+
+            stats.put("movies",    MovieModel.cache().statistics());
+            stats.put("schedules", ScheduleModel.cache().statistics());
+            stats.put("responses", responses.statistics());
+
+            return ok(stats);
+        };
+
+        // запрос метрик: маршруты, обращения к БД, пул соединений, JSON и JVM
+        this.metrics = (Context ctx) -> ctx
+            .setResponseType("text/plain; version=0.0.4; charset=utf-8")
+            .send(Metrics.scrape());
+
+        // запрос самых медленных запросов к БД с временем по фазам и параметрами
+        this.queries = (Context ctx) -> ok(QueryLog.statistics());
+
+        // запрос статистики исполнителя обращений к БД
+        this.executor = (Context ctx) -> ok(executor.statistics());
+    }
+}
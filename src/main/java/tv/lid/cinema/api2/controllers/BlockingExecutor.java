@@ -0,0 +1,260 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// ограниченный исполнитель блокирующих обработчиков, обращающихся к БД: виртуальные потоки, если JVM их
+// поддерживает, иначе пул потоков; число принятых запросов ограничено, сверх лимита запрос отклоняется сразу,
+// а запрос, ожидавший начала выполнения дольше заданного, -- перед выполнением
+public final class BlockingExecutor implements AutoCloseable {
+    // параметры исполнителя
+    public static final class Settings {
+        // дефолтные параметры
+        private static final int     DEFAULT_THREADS       = 16;
+        private static final int     DEFAULT_QUEUE_SIZE    = 256;
+        private static final long    DEFAULT_QUEUE_TIMEOUT = 1000;
+        private static final boolean DEFAULT_VIRTUAL       = true;
+
+        public final int     threads;      // одновременно выполняемых запросов
+        public final int     queueSize;    // запросов в ожидании, сверх -- отказ
+        public final long    queueTimeout; // максимальное ожидание начала выполнения в мс, 0 -- без ограничения
+        public final boolean virtual;      // использовать виртуальные потоки, если JVM их поддерживает
+
+        // конструктор #1
+        public Settings(
+            final int     threads,
+            final int     queueSize,
+            final long    queueTimeout,
+            final boolean virtual
+        ) {
+            if (threads < 1 || queueSize < 0 || queueTimeout < 0) {
+                throw new IllegalArgumentException("Invalid executor settings");
+            }
+
+            this.threads      = threads;
+            this.queueSize    = queueSize;
+            this.queueTimeout = queueTimeout;
+            this.virtual      = virtual;
+        }
+
+        // конструктор #2
+        public Settings() {
+            this(
+                Settings.DEFAULT_THREADS,
+                Settings.DEFAULT_QUEUE_SIZE,
+                Settings.DEFAULT_QUEUE_TIMEOUT,
+                Settings.DEFAULT_VIRTUAL
+            );
+        }
+    }
+
+    // статистика исполнителя
+    public static final class Statistics {
+        public final boolean virtual;   // используются виртуальные потоки
+        public final int     threads;   // одновременно выполняемых запросов
+        public final int     queueSize; // запросов в ожидании
+        public final int     active;    // выполняемых запросов
+        public final int     queued;    // ожидающих запросов
+        public final long    completed; // всего выполнено
+        public final long    rejected;  // отклонено из-за переполнения
+        public final long    expired;   // отклонено из-за долгого ожидания
+
+        // конструктор
+        public Statistics(
+            final boolean virtual,
+            final int     threads,
+            final int     queueSize,
+            final int     active,
+            final int     queued,
+            final long    completed,
+            final long    rejected,
+            final long    expired
+        ) {
+            this.virtual   = virtual;
+            this.threads   = threads;
+            this.queueSize = queueSize;
+            this.active    = active;
+            this.queued    = queued;
+            this.completed = completed;
+            this.rejected  = rejected;
+            this.expired   = expired;
+        }
+    }
+
+    // счетчики отказов в метриках
+    private static final LongAdder REJECTED = Metrics.counter(
+        "api2_executor_rejected_total",
+        "Requests rejected because the database executor was saturated"
+    );
+    private static final LongAdder EXPIRED = Metrics.counter(
+        "api2_executor_expired_total",
+        "Requests rejected after waiting longer than the executor queue timeout"
+    );
+
+    // параметры
+    private final Settings settings;
+
+    // исполнитель
+    private final ExecutorService executor;
+
+    // используются виртуальные потоки
+    private final boolean virtual;
+
+    // разрешения на прием запроса -- выполняемые и ожидающие
+    private final Semaphore admitted;
+
+    // разрешения на выполнение -- только для виртуальных потоков, число которых не ограничено
+    private final Semaphore running;
+
+    // выполняемых запросов
+    private final AtomicInteger active = new AtomicInteger();
+
+    // всего выполнено
+    private final LongAdder completed = new LongAdder();
+
+    // конструктор
+    public BlockingExecutor(final Settings settings) {
+        final ExecutorService virtual = settings.virtual ? BlockingExecutor.virtualThreads() : null;
+
+        this.settings = settings;
+        this.virtual  = virtual != null;
+        this.executor = virtual != null ? virtual : BlockingExecutor.pool(settings.threads);
+        this.admitted = new Semaphore(settings.threads + settings.queueSize);
+        this.running  = virtual != null ? new Semaphore(settings.threads, true) : null;
+    }
+
+    // исполнитель с виртуальным потоком на каждую задачу (Java 21+), null -- если JVM их не поддерживает
+    private static ExecutorService virtualThreads() {
+        try {
+            final Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException exc) {
+            return null;
+        }
+    }
+
+    // пул потоков фиксированного размера; длина очереди ограничена разрешениями на прием
+    private static ExecutorService pool(final int threads) {
+        final AtomicInteger number = new AtomicInteger();
+
+        return new ThreadPoolExecutor(
+            threads, threads, 0, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(),
+            runnable -> {
+                final Thread thread = new Thread(runnable, "db-worker-" + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        );
+    }
+
+    // выполнение задачи; RejectedExecutionException -- сразу, если исполнитель переполнен,
+    // либо в результате, если задача ожидала начала выполнения дольше допустимого
+    public <T> CompletableFuture<T> submit(final Callable<T> task) {
+        if (!this.admitted.tryAcquire()) {
+            BlockingExecutor.REJECTED.increment();
+            throw new RejectedExecutionException("Database executor is saturated");
+        }
+
+        final CompletableFuture<T> future   = new CompletableFuture<>();
+        final long                 enqueued = System.nanoTime();
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    this.run(task, future, enqueued);
+                } finally {
+                    this.admitted.release();
+                }
+            });
+        } catch (RejectedExecutionException exc) { // исполнитель остановлен
+            this.admitted.release();
+            throw exc;
+        }
+        return future;
+    }
+
+    // выполнение задачи в потоке исполнителя
+    private <T> void run(final Callable<T> task, final CompletableFuture<T> future, final long enqueued) {
+        final long timeout = TimeUnit.MILLISECONDS.toNanos(this.settings.queueTimeout);
+
+        if (this.running != null) {
+            boolean acquired;
+            try {
+                if (timeout > 0) {
+                    acquired = this.running.tryAcquire(
+                        Math.max(0, timeout - (System.nanoTime() - enqueued)),
+                        TimeUnit.NANOSECONDS
+                    );
+                } else {
+                    this.running.acquire();
+                    acquired = true;
+                }
+            } catch (InterruptedException exc) {
+                future.completeExceptionally(exc);
+                return;
+            }
+            if (!acquired) {
+                BlockingExecutor.EXPIRED.increment();
+                future.completeExceptionally(new RejectedExecutionException("Request waited too long for execution"));
+                return;
+            }
+        } else if (timeout > 0 && System.nanoTime() - enqueued > timeout) {
+            BlockingExecutor.EXPIRED.increment();
+            future.completeExceptionally(new RejectedExecutionException("Request waited too long for execution"));
+            return;
+        }
+
+        this.active.incrementAndGet();
+        try {
+            future.complete(task.call());
+        } catch (Throwable exc) {
+            future.completeExceptionally(exc);
+        } finally {
+            this.active.decrementAndGet();
+            this.completed.increment();
+            if (this.running != null) {
+                this.running.release();
+            }
+        }
+    }
+
+    // статистика исполнителя
+    public Statistics statistics() {
+        final int active = this.active.get();
+
+        return new Statistics(
+            this.virtual,
+            this.settings.threads,
+            this.settings.queueSize,
+            active,
+            Math.max(0, this.settings.threads + this.settings.queueSize - this.admitted.availablePermits() - active),
+            this.completed.sum(),
+            BlockingExecutor.REJECTED.sum(),
+            BlockingExecutor.EXPIRED.sum()
+        );
+    }
+
+    // остановка исполнителя с ожиданием выполняемых задач
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        try {
+            this.executor.awaitTermination(this.settings.queueTimeout + 30000, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -1,17 +1,46 @@
 package tv.lid.cinema.api2.controllers;
 
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.jooby.Context;
+import io.jooby.Route;
+import io.jooby.StatusCode;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonInclude.Include;
 
+import tv.lid.cinema.api2.codecs.LocalDateTimeModule;
+import tv.lid.cinema.api2.metrics.Metrics;
+import tv.lid.cinema.api2.models.UnitOfWork;
+import tv.lid.cinema.api2.models.Versions;
+
 // базовый абстрактный класс контроллера
 public abstract class CommonController {
+    // формат даты в заголовках HTTP
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+        .ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US)
+        .withZone(ZoneOffset.UTC);
+
     // множество кодов ответов сервера
     protected static enum Code {
         OK                    (200), // всё в порядке
         BAD_REQUEST           (400), // ошибка на стороне клиента
-        INTERNAL_SERVER_ERROR (500); // ошибка на стороне сервера
+        INTERNAL_SERVER_ERROR (500), // ошибка на стороне сервера
+        SERVICE_UNAVAILABLE   (503); // сервер перегружен
 
         private int code;
 
@@ -31,6 +60,8 @@ public abstract class CommonController {
                     return Code.BAD_REQUEST;
                 case 500:
                     return Code.INTERNAL_SERVER_ERROR;
+                case 503:
+                    return Code.SERVICE_UNAVAILABLE;
                 default:
                     return null;
             }
@@ -79,6 +110,160 @@ public abstract class CommonController {
         }
     }
 
+    // декоратор маршрутов: все обращения к БД в обработчике идут через одно соединение в одной транзакции,
+    // которая фиксируется при успешном ответе и откатывается при ошибке; если успешный ответ не удалось
+    // зафиксировать (в т.ч. транзакция была помечена для отката), вместо него возвращается ошибка 500
+    public static Route.Decorator unitOfWork() {
+        return (Route.Handler next) -> (Context ctx) -> {
+            try (UnitOfWork unit = UnitOfWork.begin()) {
+                final Object result = next.apply(ctx);
+
+                if (result instanceof Result && ((Result) result).code != Code.OK.getValue()) {
+                    unit.rollback();
+                    return result;
+                }
+
+                try {
+                    unit.commit();
+                } catch (Exception exc) {
+                    return new Result(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить изменения в базе данных!");
+                }
+                return result;
+            }
+        };
+    }
+
+    // декоратор маршрутов: длительность обработки запроса в метриках по методу, шаблону маршрута и коду ответа;
+    // для асинхронного результата -- до его завершения
+    public static Route.Decorator metrics() {
+        return (Route.Handler next) -> (Context ctx) -> {
+            final long start = System.nanoTime();
+
+            final Object result;
+            try {
+                result = next.apply(ctx);
+            } catch (Throwable exc) {
+                CommonController.measure(ctx, start, null, exc);
+                throw exc;
+            }
+
+            if (result instanceof CompletionStage) {
+                return ((CompletionStage<?>) result).whenComplete(
+                    (value, exc) -> CommonController.measure(ctx, start, value, exc)
+                );
+            }
+            CommonController.measure(ctx, start, result, null);
+            return result;
+        };
+    }
+
+    // запись длительности обработки запроса в метрики
+    private static void measure(final Context ctx, final long start, final Object result, final Throwable exc) {
+        final int code = exc != null
+            ? Code.INTERNAL_SERVER_ERROR.getValue() // необработанное исключение
+            : result instanceof Result ? ((Result) result).code : ctx.getResponseCode().value();
+
+        Metrics.HTTP_REQUESTS
+            .series(ctx.getMethod(), ctx.getRoute().getPattern(), String.valueOf(code))
+            .recordSince(start);
+    }
+
+    // декоратор маршрутов: обработчик выполняется в исполнителе обращений к БД и возвращает CompletableFuture;
+    // при перегрузке исполнителя сразу возвращается 503 с заголовком Retry-After
+    public static Route.Decorator offload(final BlockingExecutor executor, final long retryAfter) {
+        return (Route.Handler next) -> (Context ctx) -> {
+            try {
+                return executor.submit(() -> next.apply(ctx)).handle((result, exc) -> {
+                    final Throwable cause = exc instanceof CompletionException ? exc.getCause() : exc;
+                    if (cause == null) {
+                        return result;
+                    }
+                    if (cause instanceof RejectedExecutionException) {
+                        return CommonController.unavailable(ctx, retryAfter);
+                    }
+                    throw exc instanceof CompletionException ? (CompletionException) exc : new CompletionException(exc);
+                });
+            } catch (RejectedExecutionException exc) {
+                return CompletableFuture.completedFuture(CommonController.unavailable(ctx, retryAfter));
+            }
+        };
+    }
+
+    // ответ при перегрузке
+    private static Result unavailable(final Context ctx, final long retryAfter) {
+        ctx.setResponseCode(StatusCode.SERVICE_UNAVAILABLE);
+        ctx.setResponseHeader("Retry-After", String.valueOf(retryAfter));
+        return new Result(Code.SERVICE_UNAVAILABLE, "Сервер перегружен, повторите запрос позже!");
+    }
+
+    // условный запрос: true -- если у клиента актуальная версия данных, тогда ответ 304 уже подготовлен
+    // и обработчик возвращает ctx.send(StatusCode.NOT_MODIFIED), не обращаясь к БД;
+    // If-Modified-Since учитывается только при отсутствии If-None-Match
+    protected static boolean notModified(final Context ctx, final Versions.Stamp stamp) {
+        final String match = ctx.header("If-None-Match").valueOrNull();
+
+        boolean fresh = false;
+        if (match != null) {
+            for (final String tag : match.split(",")) {
+                final String value = tag.trim();
+                if (value.equals("*") || (value.startsWith("W/") ? value.substring(2) : value).equals(stamp.etag())) {
+                    fresh = true;
+                    break;
+                }
+            }
+        } else {
+            final String since = ctx.header("If-Modified-Since").valueOrNull();
+            if (since != null) {
+                try {
+                    final long time = ZonedDateTime.parse(since, DateTimeFormatter.RFC_1123_DATE_TIME).toEpochSecond();
+                    fresh = stamp.modified / 1000 <= time; // в заголовке даты с точностью до секунды
+                } catch (DateTimeParseException exc) {}
+            }
+        }
+
+        if (fresh) {
+            CommonController.validators(ctx, stamp);
+            ctx.setResponseCode(StatusCode.NOT_MODIFIED);
+        }
+        return fresh;
+    }
+
+    // заголовки версии данных ответа: кэши обязаны перепроверять ответ условным запросом
+    protected static void validators(final Context ctx, final Versions.Stamp stamp) {
+        ctx.setResponseHeader("ETag", stamp.etag());
+        ctx.setResponseHeader("Last-Modified", CommonController.HTTP_DATE.format(Instant.ofEpochMilli(stamp.modified)));
+        ctx.setResponseHeader("Cache-Control", "no-cache");
+    }
+
+    // успешный ответ с версией данных, прочитанной до обращения к БД
+    public final Result ok(final Context ctx, final Versions.Stamp stamp, final Object data) {
+        CommonController.validators(ctx, stamp);
+        return this.ok(data);
+    }
+
+    // список идентификаторов вида "1,5,9" без повторов в исходном порядке;
+    // null -- если список пуст, содержит некорректный идентификатор либо длиннее заданного
+    protected static List<Integer> ids(final String value, final int max) {
+        final Set<Integer> ids = new LinkedHashSet<>();
+        try {
+            for (final String item : value.split(",")) {
+                final int id = Integer.parseInt(item.trim());
+                if (id <= 0) {
+                    return null;
+                }
+                ids.add(id);
+            }
+        } catch (NumberFormatException exc) {
+            return null;
+        }
+        return !ids.isEmpty() && ids.size() <= max ? new ArrayList<>(ids) : null;
+    }
+
+    // разбор даты и времени из входного параметра, null -- если параметр не задан
+    protected static LocalDateTime time(final String value) {
+        return value != null ? LocalDateTime.parse(value, LocalDateTimeModule.FORMAT) : null;
+    }
+
     // успешный ответ, данные есть
     public final Result ok(final Object data) {
         return new Result(Code.OK, data);
@@ -105,15 +290,44 @@ public abstract class CommonController {
         public final int total; // всего записей
         public final int pages; // количество страниц
 
-        // конструктор
+        @JsonInclude(Include.NON_NULL)
+        public final String next; // курсор для запроса следующей порции записей
+
+        @JsonInclude(Include.NON_NULL)
+        public final List<Integer> missing; // запрошенные по идентификаторам, но не найденные записи
+
+        // конструктор #1
+        public ListWrapper(
+            final List<? extends Object> list,
+            final int total,
+            final int pages,
+            final String next,
+            final List<Integer> missing
+        ) {
+            this.list    = list;
+            this.total   = total;
+            this.pages   = pages;
+            this.next    = next;
+            this.missing = missing;
+        }
+
+        // конструктор #2
+        public ListWrapper(
+            final List<? extends Object> list,
+            final int total,
+            final int pages,
+            final String next
+        ) {
+            this(list, total, pages, next, null);
+        }
+
+        // конструктор #3
         public ListWrapper(
             final List<? extends Object> list,
             final int total,
             final int pages
         ) {
-            this.list  = list;
-            this.total = total;
-            this.pages = pages;
+            this(list, total, pages, null);
         }
     }
 }
@@ -0,0 +1,41 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+// непрозрачный курсор постраничного вывода: ключ сортировки и идентификатор последней выданной записи
+public final class Cursor {
+    // разделитель идентификатора и ключа внутри курсора
+    private static final char SEPARATOR = ':';
+
+    // ключ сортировки последней записи
+    public final String key;
+
+    // идентификатор последней записи
+    public final int id;
+
+    // конструктор
+    public Cursor(final String key, final int id) {
+        this.key = key;
+        this.id  = id;
+    }
+
+    // кодирование курсора в строку для клиента
+    public String encode() {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(
+            (this.id + String.valueOf(Cursor.SEPARATOR) + this.key).getBytes(StandardCharsets.UTF_8)
+        );
+    }
+
+    // разбор строки курсора, null -- если строка некорректна
+    public static Cursor decode(final String token) {
+        try {
+            final String value = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            final int    pos   = value.indexOf(Cursor.SEPARATOR);
+
+            return new Cursor(value.substring(pos + 1), Integer.parseInt(value.substring(0, pos)));
+        } catch (Exception exc) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import io.jooby.Context;
+import io.jooby.MediaType;
+import io.jooby.Route;
+import io.jooby.StatusCode;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import tv.lid.cinema.api2.codecs.JsonCodec;
+import tv.lid.cinema.api2.models.CommonModel;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.Versions;
+
+// класс контроллера выгрузки всего каталога: записи идут из курсора БД прямо в поток ответа
+public final class ExportController extends CommonController {
+    // тип ответа в формате NDJSON -- по записи в строке
+    private static final MediaType NDJSON = MediaType.valueOf("application/x-ndjson");
+
+    // выгрузка фильмов, при schedules=true -- вместе с сеансами
+    public final Route.Handler movies;
+
+    // конструктор
+    public ExportController(final JsonCodec codec, final int fetchSize) {
+        // писатели без сброса потока после каждой записи -- данные уходят клиенту по заполнении буфера
+        final ObjectWriter movieWriter    = codec.writer(MovieModel.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE),
+                           scheduleWriter = codec.writer(MovieModel.WithSchedules.class)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+        // запрос выгрузки фильмов
+        this.movies = (Context ctx) -> {
+            // считываем формат и признак выгрузки сеансов во входных параметрах
+            final String  format    = ctx.query("format").value("json");
+            final boolean schedules = ctx.query("schedules").booleanValue(false);
+
+            if (!format.equals("json") && !format.equals("ndjson")) {
+                return error(Code.BAD_REQUEST, "Задан некорректный формат выгрузки!");
+            }
+            final boolean ndjson = format.equals("ndjson");
+
+            // версия выгружаемых данных -- до обращения к БД
+            final Versions.Stamp stamp = schedules ? Versions.catalogue() : Versions.movies();
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+            validators(ctx, stamp);
+
+            ctx.setResponseType(ndjson ? ExportController.NDJSON : MediaType.json);
+
+            // JSON-массив либо NDJSON, длина ответа заранее неизвестна -- передача порциями
+            try (
+                OutputStream  out = ctx.responseStream();
+                JsonGenerator gen = codec.mapper().getFactory().createGenerator(out)
+            ) {
+                gen.setRootValueSeparator(null);
+                gen.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT); // при ошибке документ остается неполным
+                if (!ndjson) {
+                    gen.writeStartArray();
+                }
+
+                if (schedules) {
+                    MovieModel.exportWithSchedules(fetchSize, ExportController.sink(gen, scheduleWriter, ndjson));
+                } else {
+                    MovieModel.export(fetchSize, ExportController.sink(gen, movieWriter, ndjson));
+                }
+
+                if (!ndjson) {
+                    gen.writeEndArray();
+                }
+            } catch (Exception exc) {
+                if (!ctx.isResponseStarted()) {
+                    return error(Code.INTERNAL_SERVER_ERROR, "Не удалось выгрузить список фильмов!");
+                }
+                throw exc; // ответ уже начат -- соединение обрывается, клиент получает неполный документ
+            }
+            return ctx;
+        };
+    }
+
+    // запись очередной записи в генератор
+    private static <T> CommonModel.Sink<T> sink(
+        final JsonGenerator gen,
+        final ObjectWriter  writer,
+        final boolean       ndjson
+    ) {
+        return (T value) -> {
+            writer.writeValue(gen, value);
+            if (ndjson) {
+                gen.writeRaw('\n');
+            }
+        };
+    }
+}
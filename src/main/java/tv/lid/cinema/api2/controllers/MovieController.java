@@ -1,11 +1,19 @@
 package tv.lid.cinema.api2.controllers;
 
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 
 import io.jooby.Context;
 import io.jooby.Route;
+import io.jooby.StatusCode;
 
 import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.Shards;
+import tv.lid.cinema.api2.models.Versions;
 
 // класс контроллера управления фильмами
 public final class MovieController extends CommonController {
@@ -17,9 +25,18 @@ public final class MovieController extends CommonController {
     // новый фильм
     public final Route.Handler create;
 
+    // пакет новых фильмов
+    public final Route.Handler batch;
+
     // найти фильм
     public final Route.Handler find;
 
+    // найти фильм вместе с ближайшими сеансами
+    public final Route.Handler details;
+
+    // найти фильмы по списку идентификаторов
+    public final Route.Handler lookup;
+
     // изменить фильм
     public final Route.Handler modify;
 
@@ -27,9 +44,144 @@ public final class MovieController extends CommonController {
     public final Route.Handler kill;
 
     // конструктор
-    public MovieController() {
+    public MovieController(
+        final int           maxBatchSize,
+        final int           maxLookupSize,
+        final int           maxEmbedded,
+        final int           maxOffset,
+        final ResponseCache responses
+    ) {
+        // найти фильмы по списку идентификаторов
+        this.lookup = (Context ctx) -> {
+            // считываем список идентификаторов во входных параметрах
+            final List<Integer> ids = ids(ctx.query("ids").value(""), maxLookupSize);
+            if (ids == null) {
+                return error(Code.BAD_REQUEST, "Задан некорректный список идентификаторов фильмов!");
+            }
+
+            // версия набора фильмов -- до обращения к БД
+            final Versions.Stamp stamp = Versions.movie(ids);
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
+
+            // ищем фильмы в кэше записей, недостающие -- одним запросом к БД
+            Map<Integer, MovieModel> found;
+            try {
+                found = MovieModel.findAll(ids);
+            } catch (Exception exc) {
+                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить фильмы по заданным идентификаторам!");
+            }
+
+            // записи в порядке запроса и идентификаторы отсутствующих
+            final List<MovieModel> list    = new ArrayList<>(ids.size());
+            final List<Integer> missing = new ArrayList<>();
+            for (final Integer id : ids) {
+                final MovieModel movie = found.get(id);
+                if (movie != null) {
+                    list.add(movie);
+                } else {
+                    missing.add(id);
+                }
+            }
+
+            // возвращаем результат в обёртке списка
+            return responses.store(ctx, stamp, ok(ctx, stamp, new ListWrapper(
+                list,
+                list.size(),
+                1,
+                null,
+                missing
+            )));
+        };
+
+        // найти фильм вместе с не более чем limit сеансами, начинающимися не раньше from, по умолчанию -- ближайшими
+        this.details = (Context ctx) -> {
+            MovieModel.WithSchedules movie;
+            int                      id;
+
+            // считываем идентификатор фильма во входных параметрах
+            try {
+                id = Integer.parseInt(ctx.path("id").value());
+            } catch (Exception exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
+            }
+
+            // считываем состав ответа во входных параметрах
+            if (!ctx.query("include").value("").equals("schedules")) {
+                return error(Code.BAD_REQUEST, "Задан некорректный состав ответа!");
+            }
+
+            // считываем начало интервала времени сеансов во входных параметрах
+            LocalDateTime from;
+            try {
+                from = time(ctx.query("from").valueOrNull());
+            } catch (DateTimeParseException exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный интервал времени сеансов!");
+            }
+
+            // считываем число сеансов во входных параметрах
+            int limit;
+            try {
+                limit = Integer.parseInt(ctx.query("limit").value(String.valueOf(maxEmbedded)));
+            } catch (NumberFormatException exc) {
+                limit = 0;
+            }
+            if (limit < 1 || limit > maxEmbedded) {
+                return error(Code.BAD_REQUEST, "Задано некорректное число сеансов!");
+            }
+
+            // версия фильма и его сеансов -- до обращения к БД; ответ без явного начала интервала
+            // зависит от текущего времени, поэтому он не кэшируется и не проверяется на актуальность
+            final Versions.Stamp stamp = from != null ? Versions.schedules(id) : null;
+            if (stamp != null) {
+                if (notModified(ctx, stamp)) {
+                    return ctx.send(StatusCode.NOT_MODIFIED);
+                }
+
+                // готовый ответ для этой версии данных
+                if (responses.serve(ctx, stamp)) {
+                    return ctx;
+                }
+            }
+
+            try {
+                // ищем фильм и его сеансы одним запросом
+                movie = MovieModel.findWithSchedules(id, from != null ? from : LocalDateTime.now(), limit);
+                if (movie == null) {
+                    throw new Exception();
+                }
+            } catch (Exception exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
+            }
+
+            // возвращаем фильм с сеансами
+            return stamp != null ? responses.store(ctx, stamp, ok(ctx, stamp, movie)) : ok(movie);
+        };
+
         // запрос списка фильмов
         this.list = (Context ctx) -> {
+            // запрос фильмов по списку идентификаторов
+            if (ctx.query("ids").isPresent()) {
+                return this.lookup.apply(ctx);
+            }
+
+            // версия таблицы фильмов -- до обращения к БД
+            final Versions.Stamp stamp = Versions.movies();
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
+
             // считываем номер страницы во входных параметрах
             int page = 1;
 
@@ -37,29 +189,61 @@ public final class MovieController extends CommonController {
                 page = Integer.parseInt(ctx.path("page").value());
             } catch (Exception exc) {}
 
+            // считываем курсор во входных параметрах
+            final String token  = ctx.query("cursor").valueOrNull();
+            final Cursor cursor = token != null ? Cursor.decode(token) : null;
+            short        year   = 0;
+
+            try {
+                if (token != null) {
+                    year = Short.parseShort(cursor.key);
+                }
+            } catch (Exception exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный курсор списка фильмов!");
+            }
+
+            // глубокие страницы без курсора -- только при одном сегменте: при нескольких для страницы читаются
+            // все предшествующие записи каждого сегмента
+            if (
+                cursor == null && Shards.count() > 1 &&
+                (long) (page - 1) * MovieController.MOVIES_PER_PAGE > maxOffset
+            ) {
+                return error(Code.BAD_REQUEST, "Задан слишком большой номер страницы, используйте курсор!");
+            }
+
             // запрашиваем количество записей и вычисляем число страниц
             int total, pages;
             try {
-                total = MovieModel.count();
+                total = MovieModel.total();
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить количество записей в таблице фильмов!");
             }
             pages = (int) Math.ceil(total / MovieController.MOVIES_PER_PAGE);
 
-            // запрашиваем список записей в соответствии с номером страницы
+            // запрашиваем список записей в соответствии с курсором либо номером страницы
             List<MovieModel> list;
             try {
-                list = MovieModel.list(page, MovieController.MOVIES_PER_PAGE);
+                list = cursor != null
+                    ? MovieModel.list(year, cursor.id, MovieController.MOVIES_PER_PAGE)
+                    : MovieModel.list(page, MovieController.MOVIES_PER_PAGE);
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить список фильмов по заданным параметрам!");
             }
 
+            // курсор следующей порции -- по последней записи полной порции
+            String next = null;
+            if (list.size() == MovieController.MOVIES_PER_PAGE) {
+                final MovieModel last = list.get(list.size() - 1);
+                next = new Cursor(String.valueOf(last.year), last.id).encode();
+            }
+
             // возвращаем результат в обёртке списка
-            return ok(new ListWrapper(
+            return responses.store(ctx, stamp, ok(ctx, stamp, new ListWrapper(
                 list,
                 total,
-                pages
-            ));
+                pages,
+                next
+            )));
         };
 
         // создать новый фильм
@@ -73,25 +257,73 @@ public final class MovieController extends CommonController {
             }
 
             // сохраняем фильм в БД
+            int id;
             try {
-                movie.save();
+                id = movie.save();
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о фильме в базе данных!");
             }
 
-            // сообщаем об успехе
-            return ok();
+            // возвращаем идентификатор нового фильма
+            return ok(id);
+        };
+
+        // создать пакет новых фильмов
+        this.batch = (Context ctx) -> {
+            // преобразовываем входные данные в массив моделей
+            MovieModel[] movies = ctx.body(MovieModel[].class);
+
+            // проверка корректности полученных данных -- пакет принимается только целиком
+            if (movies == null || movies.length == 0 || movies.length > maxBatchSize) {
+                return error(Code.BAD_REQUEST, "Задан некорректный размер пакета фильмов!");
+            }
+            for (final MovieModel movie : movies) {
+                if (movie == null || movie.id != 0 || movie.title == null) {
+                    return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
+                }
+            }
+
+            // сохраняем пакет в БД одной транзакцией
+            List<Integer> ids;
+            try {
+                ids = MovieModel.saveAll(Arrays.asList(movies));
+            } catch (Exception exc) {
+                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить пакет фильмов в базе данных!");
+            }
+
+            // возвращаем идентификаторы новых фильмов в порядке следования
+            return ok(ids);
         };
 
         // найти фильм по заданному идентификатору
         this.find = (Context ctx) -> {
+            // запрос фильма вместе с сеансами
+            if (ctx.query("include").isPresent()) {
+                return this.details.apply(ctx);
+            }
+
             MovieModel movie;
             int        id;
 
             // считываем идентификатор фильма во входных параметрах
             try {
                 id = Integer.parseInt(ctx.path("id").value());
+            } catch (Exception exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
+            }
+
+            // версия фильма -- до обращения к БД
+            final Versions.Stamp stamp = Versions.movie(id);
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
 
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
+
+            try {
                 // ищем фильм по заданному идентификатору
                 movie = MovieModel.find(id);
                 if (movie == null) {
@@ -102,7 +334,7 @@ public final class MovieController extends CommonController {
             }
 
             // возвращаем фильм
-            return ok(movie);
+            return responses.store(ctx, stamp, ok(ctx, stamp, movie));
         };
 
         // изменить ранее созданный фильм
@@ -110,16 +342,20 @@ public final class MovieController extends CommonController {
             MovieModel movie = ctx.body(MovieModel.class);
 
             // проверка корректности полученных данных
-            if (movie == null || !MovieModel.exists(movie.id)) {
+            if (movie == null || movie.id == 0) {
                 return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
             }
 
-            // сохраняем фильм в БД
+            // сохраняем фильм в БД -- отсутствие фильма определяется по количеству измененных записей
+            int id;
             try {
-                movie.save();
+                id = movie.save();
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о фильме в базе данных!");
             }
+            if (id == 0) {
+                return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
+            }
 
             // сообщаем об успехе
             return ok();
@@ -132,21 +368,20 @@ public final class MovieController extends CommonController {
             // считываем идентификатор фильма во входных параметрах
             try {
                 id = Integer.parseInt(ctx.path("id").value());
-
-                // проверяем существование фильма по заданному идентификатору
-                if (!MovieModel.exists(id)) {
-                    throw new Exception();
-                }
             } catch (Exception exc) {
                 return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
             }
 
-            // удаляем фильм из БД
+            // удаляем фильм из БД -- отсутствие фильма определяется по количеству удаленных записей
+            boolean killed;
             try {
-                MovieModel.kill(id);
+                killed = MovieModel.kill(id);
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось удалить информацию о фильме из базы данных!");
             }
+            if (!killed) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
+            }
 
             // сообщаем об успехе
             return ok();
@@ -0,0 +1,233 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import io.jooby.Context;
+import io.jooby.MediaType;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import tv.lid.cinema.api2.codecs.JsonCodec;
+import tv.lid.cinema.api2.metrics.Metrics;
+import tv.lid.cinema.api2.models.Versions;
+
+// кэш закодированных успешных ответов GET-маршрутов по пути и параметрам запроса: тело JSON и его сжатый
+// gzip-вариант, действительные для той версии данных, с которой были построены; объем ограничен суммой тел
+public final class ResponseCache {
+    // накладные расходы на запись сверх тел ответа, байт
+    private static final int ENTRY_OVERHEAD = 128;
+
+    // закодированный ответ
+    private static final class Entry {
+        final long   version;  // версия данных
+        final byte[] identity; // тело JSON
+        final byte[] gzip;     // сжатое тело, null -- если сжатие невыгодно
+
+        Entry(final long version, final byte[] identity, final byte[] gzip) {
+            this.version  = version;
+            this.identity = identity;
+            this.gzip     = gzip;
+        }
+
+        // вес записи в байтах
+        int weight(final String key) {
+            return ResponseCache.ENTRY_OVERHEAD + 2 * key.length() + this.identity.length +
+                (this.gzip != null ? this.gzip.length : 0);
+        }
+    }
+
+    // статистика кэша
+    public static final class Statistics {
+        public final long   size;      // записей в кэше
+        public final long   bytes;     // объем записей, байт
+        public final long   hits;      // попаданий
+        public final long   misses;    // промахов, в т.ч. по устаревшей версии
+        public final double hitRate;   // доля попаданий
+        public final long   evictions; // вытеснений
+
+        // конструктор
+        public Statistics(
+            final long   size,
+            final long   bytes,
+            final long   hits,
+            final long   misses,
+            final double hitRate,
+            final long   evictions
+        ) {
+            this.size      = size;
+            this.bytes     = bytes;
+            this.hits      = hits;
+            this.misses    = misses;
+            this.hitRate   = hitRate;
+            this.evictions = evictions;
+        }
+    }
+
+    // попадания и промахи в метриках
+    private static final LongAdder HITS = Metrics.counter(
+        "api2_response_cache_hits_total",
+        "GET responses served from pre-encoded bytes"
+    );
+    private static final LongAdder MISSES = Metrics.counter(
+        "api2_response_cache_misses_total",
+        "GET responses encoded because no entry matched the current data version"
+    );
+
+    // кодек JSON
+    private final JsonCodec codec;
+
+    // минимальный размер тела, для которого хранится сжатый вариант
+    private final long gzipMinSize;
+
+    // хранилище, null -- кэш отключен
+    private final Cache<String, Entry> cache;
+
+    // конструктор: максимальный объем записей в байтах (0 -- кэш отключен) и минимальный размер сжимаемого тела
+    public ResponseCache(final JsonCodec codec, final long maxSize, final long gzipMinSize) {
+        this.codec       = codec;
+        this.gzipMinSize = gzipMinSize;
+        this.cache       = maxSize > 0
+            ? Caffeine.newBuilder()
+                .maximumWeight(maxSize)
+                .weigher((String key, Entry entry) -> entry.weight(key))
+                .recordStats()
+                .build()
+            : null;
+    }
+
+    // ключ записи -- путь и строка параметров запроса через пробел, не встречающийся в пути
+    private static String key(final Context ctx) {
+        return ctx.getRequestPath() + " " + ctx.queryString();
+    }
+
+    // отправка готового ответа для заданной версии данных; false -- если его нет, тогда ответ строится заново
+    public boolean serve(final Context ctx, final Versions.Stamp stamp) {
+        if (this.cache == null) {
+            return false;
+        }
+
+        final String key   = ResponseCache.key(ctx);
+        final Entry  entry = this.cache.getIfPresent(key);
+        if (entry == null || entry.version != stamp.version) {
+            if (entry != null && entry.version < stamp.version) {
+                this.cache.asMap().remove(key, entry); // данные изменились -- запись больше не нужна
+            }
+            ResponseCache.MISSES.increment();
+            return false;
+        }
+
+        ResponseCache.HITS.increment();
+        CommonController.validators(ctx, stamp);
+        ResponseCache.send(ctx, entry);
+        return true;
+    }
+
+    // кэширование и отправка успешного ответа, построенного для заданной версии данных;
+    // ответ с ошибкой возвращается как есть и не кэшируется
+    public Object store(final Context ctx, final Versions.Stamp stamp, final Object result) throws IOException {
+        if (
+            this.cache == null ||
+            !(result instanceof CommonController.Result) ||
+            ((CommonController.Result) result).code != CommonController.Code.OK.getValue()
+        ) {
+            return result;
+        }
+
+        final byte[] identity = this.codec.bytes(result);
+        final byte[] gzip     = identity.length >= this.gzipMinSize ? ResponseCache.gzip(identity) : null;
+        final Entry  entry    = new Entry(
+            stamp.version,
+            identity,
+            gzip != null && gzip.length < identity.length ? gzip : null
+        );
+
+        // параллельный запрос мог уже сохранить ответ для более новой версии
+        this.cache.asMap().merge(
+            ResponseCache.key(ctx),
+            entry,
+            (Entry previous, Entry current) -> current.version >= previous.version ? current : previous
+        );
+
+        ResponseCache.send(ctx, entry);
+        return ctx;
+    }
+
+    // сжатие тела
+    private static byte[] gzip(final byte[] data) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out, 8 * 1024)) {
+            gzip.write(data);
+        }
+        return out.toByteArray();
+    }
+
+    // запись тела ответа -- сжатого, если клиент принимает gzip
+    private static void send(final Context ctx, final Entry entry) {
+        final boolean compressed = entry.gzip != null &&
+            ResponseCache.acceptsGzip(ctx.header("Accept-Encoding").valueOrNull());
+        final byte[]  body       = compressed ? entry.gzip : entry.identity;
+
+        ctx.setResponseHeader("Vary", "Accept-Encoding");
+        if (compressed) {
+            ctx.setResponseHeader("Content-Encoding", "gzip");
+        }
+        ctx.setResponseType(MediaType.json);
+        ctx.setResponseLength(body.length);
+        ctx.send(body);
+    }
+
+    // принимает ли клиент gzip по заголовку Accept-Encoding: явное указание gzip важнее "*"
+    private static boolean acceptsGzip(final String header) {
+        if (header == null) {
+            return false;
+        }
+
+        double gzip = -1, any = -1;
+        for (final String item : header.split(",")) {
+            final String[] parts = item.split(";");
+            final String   name  = parts[0].trim();
+
+            double quality = 1;
+            for (int i = 1; i < parts.length; i++) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        quality = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException exc) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (name.equalsIgnoreCase("gzip")) {
+                gzip = quality;
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+        return gzip >= 0 ? gzip > 0 : any > 0;
+    }
+
+    // статистика кэша
+    public Statistics statistics() {
+        final long hits   = ResponseCache.HITS.sum(),
+                   misses = ResponseCache.MISSES.sum();
+
+        if (this.cache == null) {
+            return new Statistics(0, 0, hits, misses, 0, 0);
+        }
+
+        return new Statistics(
+            this.cache.estimatedSize(),
+            this.cache.policy().eviction().map(eviction -> eviction.weightedSize().orElse(0)).orElse(0L),
+            hits,
+            misses,
+            hits + misses != 0 ? (double) hits / (hits + misses) : 0,
+            this.cache.stats().evictionCount()
+        );
+    }
+}
@@ -1,16 +1,62 @@
 package tv.lid.cinema.api2.controllers;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import io.jooby.Context;
 import io.jooby.Route;
+import io.jooby.StatusCode;
 
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import tv.lid.cinema.api2.codecs.JsonCodec;
+import tv.lid.cinema.api2.codecs.LocalDateTimeModule;
 import tv.lid.cinema.api2.models.MovieModel;
 import tv.lid.cinema.api2.models.ScheduleModel;
+import tv.lid.cinema.api2.models.Versions;
 
 // класс контроллера управления сеансами
 public final class ScheduleController extends CommonController {
-    private static final int SCHEDULES_PER_PAGE = 10; // количество записей на страницу
+    private static final int SCHEDULES_PER_PAGE = 10;  // количество записей на страницу
+
+    private static final int MAX_IMPORT_ERRORS  = 100; // количество ошибок импорта, сообщаемых подробно
+
+    // ошибка в строке импортируемых данных
+    public static final class LineError {
+        public final long   line; // номер строки
+        public final String info; // описание ошибки
+
+        // конструктор
+        public LineError(final long line, final String info) {
+            this.line = line;
+            this.info = info;
+        }
+    }
+
+    // отчет об импорте
+    public static final class ImportReport {
+        public int imported = 0; // сохранено записей
+        public int failed   = 0; // отклонено строк
+
+        public final List<LineError> errors = new ArrayList<>(); // первые ошибки по строкам
+
+        // регистрация ошибки в строке
+        void fail(final long line, final String info) {
+            this.failed++;
+            if (this.errors.size() < ScheduleController.MAX_IMPORT_ERRORS) {
+                this.errors.add(new LineError(line, info));
+            }
+        }
+    }
 
     // список сеансов
     public final Route.Handler list;
@@ -18,9 +64,15 @@ public final class ScheduleController extends CommonController {
     // новый сеанс
     public final Route.Handler create;
 
+    // импорт сеансов
+    public final Route.Handler bulk;
+
     // найти сеанс
     public final Route.Handler find;
 
+    // найти сеансы по списку идентификаторов
+    public final Route.Handler lookup;
+
     // изменить сеанс
     public final Route.Handler modify;
 
@@ -28,7 +80,15 @@ public final class ScheduleController extends CommonController {
     public final Route.Handler kill;
 
     // конструктор
-    public ScheduleController() {
+    public ScheduleController(
+        final JsonCodec     codec,
+        final int           importChunkSize,
+        final int           maxLookupSize,
+        final ResponseCache responses
+    ) {
+        // читатель модели сеанса для построчного импорта
+        final ObjectReader reader = codec.reader(ScheduleModel.class);
+
         // запрос списка сеансов
         this.list = (Context ctx) -> {
             // считываем идентификатор фильма во входных параметрах
@@ -39,6 +99,17 @@ public final class ScheduleController extends CommonController {
                 return error(Code.BAD_REQUEST, "Задан некорректный идентификатор фильма!");
             }
 
+            // версия списка сеансов фильма -- до обращения к БД
+            final Versions.Stamp stamp = Versions.schedules(movieId);
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
+
             // считываем номер страницы во входных параметрах
             int page = 1;
 
@@ -46,29 +117,69 @@ public final class ScheduleController extends CommonController {
                 page = Integer.parseInt(ctx.path("page").value());
             } catch (Exception exc) {}
 
+            // считываем курсор во входных параметрах
+            final String token  = ctx.query("cursor").valueOrNull();
+            final Cursor cursor = token != null ? Cursor.decode(token) : null;
+
+            LocalDateTime cursorTime = null;
+            try {
+                if (cursor != null) {
+                    cursorTime = LocalDateTime.parse(cursor.key, LocalDateTimeModule.FORMAT);
+                }
+            } catch (DateTimeParseException exc) {}
+
+            if (token != null && cursorTime == null) {
+                return error(Code.BAD_REQUEST, "Задан некорректный курсор списка сеансов!");
+            }
+
+            // считываем интервал времени начала сеансов [from, to) во входных параметрах
+            LocalDateTime from, to;
+            try {
+                from = time(ctx.query("from").valueOrNull());
+                to   = time(ctx.query("to").valueOrNull());
+            } catch (DateTimeParseException exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный интервал времени сеансов!");
+            }
+
+            if (from != null && to != null && from.isAfter(to)) {
+                return error(Code.BAD_REQUEST, "Задан некорректный интервал времени сеансов!");
+            }
+
             // запрашиваем количество записей и вычисляем число страниц
             int total, pages;
             try {
-                total = ScheduleModel.count(movieId);
+                total = from == null && to == null
+                    ? ScheduleModel.total(movieId)
+                    : ScheduleModel.count(movieId, from, to);
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить количество записей в таблице сеансов!");
             }
             pages = (int) Math.ceil(total / ScheduleController.SCHEDULES_PER_PAGE);
 
-            // запрашиваем список записей в соответствии с номером страницы
+            // запрашиваем список записей в соответствии с курсором либо номером страницы
             List<ScheduleModel> list;
             try {
-                list = ScheduleModel.list(movieId, page, ScheduleController.SCHEDULES_PER_PAGE);
+                list = cursor != null
+                    ? ScheduleModel.list(movieId, from, to, cursorTime, cursor.id, ScheduleController.SCHEDULES_PER_PAGE)
+                    : ScheduleModel.list(movieId, from, to, page, ScheduleController.SCHEDULES_PER_PAGE);
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить список сеансов по заданным параметрам!");
             }
 
+            // курсор следующей порции -- по последней записи полной порции
+            String next = null;
+            if (list.size() == ScheduleController.SCHEDULES_PER_PAGE) {
+                final ScheduleModel last = list.get(list.size() - 1);
+                next = new Cursor(LocalDateTimeModule.FORMAT.format(last.dateAndTime), last.id).encode();
+            }
+
             // возвращаем результат в обёртке списка
-            return ok(new ListWrapper(
+            return responses.store(ctx, stamp, ok(ctx, stamp, new ListWrapper(
                 list,
                 total,
-                pages
-            ));
+                pages,
+                next
+            )));
         };
 
         // создать новый сеанс
@@ -77,19 +188,79 @@ public final class ScheduleController extends CommonController {
             ScheduleModel schedule = ctx.body(ScheduleModel.class);
 
             // проверка корректности полученных данных
-            if (schedule == null || !MovieModel.exists(schedule.movieId)) {
+            if (schedule == null || schedule.id != 0 || schedule.dateAndTime == null) {
                 return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
             }
 
-            // сохраняем фильм в БД
+            // сохраняем сеанс в БД -- существование фильма проверяется внешним ключом
+            int id;
             try {
-                schedule.save();
+                id = schedule.save();
+            } catch (SQLException exc) {
+                return MovieModel.isMissingParent(exc)
+                    ? error(Code.BAD_REQUEST, "Задан несуществующий идентификатор фильма!")
+                    : error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о сеансе в базе данных!");
+            }
+
+            // возвращаем идентификатор нового сеанса
+            return ok(id);
+        };
+
+        // импорт сеансов в формате NDJSON -- по одному объекту в строке
+        this.bulk = (Context ctx) -> {
+            final ImportReport report = new ImportReport();
+
+            // идентификаторы фильмов загружаются один раз на весь импорт
+            Set<Integer> movies;
+            try {
+                movies = MovieModel.ids();
             } catch (Exception exc) {
-                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о сеансе в базе данных!");
+                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить список фильмов!");
             }
 
-            // сообщаем об успехе
-            return ok();
+            // построчно читаем входной поток и сохраняем сеансы порциями
+            try (
+                BufferedReader         in       = new BufferedReader(
+                    new InputStreamReader(ctx.body().stream(), StandardCharsets.UTF_8)
+                );
+                ScheduleModel.Importer importer = ScheduleModel.importer(importChunkSize)
+            ) {
+                String line;
+                long   number = 0;
+
+                while ((line = in.readLine()) != null) {
+                    number++;
+                    if (line.trim().isEmpty()) {
+                        continue;
+                    }
+
+                    ScheduleModel schedule;
+                    try {
+                        schedule = reader.readValue(line);
+                    } catch (IOException exc) {
+                        report.fail(number, "Некорректный JSON!");
+                        continue;
+                    }
+
+                    if (schedule == null || schedule.id != 0 || schedule.dateAndTime == null) {
+                        report.fail(number, "Заданы некорректные данные сеанса!");
+                    } else if (!movies.contains(schedule.movieId)) {
+                        report.fail(number, "Задан несуществующий идентификатор фильма!");
+                    } else {
+                        importer.add(schedule);
+                    }
+                }
+
+                importer.flush();
+                report.imported = importer.imported();
+            } catch (SQLException exc) {
+                return error(Code.INTERNAL_SERVER_ERROR, "Импорт прерван из-за ошибки базы данных!");
+            } catch (IOException exc) {
+                return error(Code.BAD_REQUEST, "Не удалось прочитать входные данные запроса!");
+            }
+
+            // возвращаем отчет об импорте
+            return ok(report);
         };
 
         // найти сеанс по заданному идентификатору
@@ -100,7 +271,22 @@ public final class ScheduleController extends CommonController {
             // считываем идентификатор сеанса во входных параметрах
             try {
                 id = Integer.parseInt(ctx.path("id").value());
+            } catch (Exception exc) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор сеанса!");
+            }
+
+            // версия сеанса -- до обращения к БД
+            final Versions.Stamp stamp = Versions.schedule(id);
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
 
+            try {
                 // ищем сеанс по заданному идентификатору
                 schedule = ScheduleModel.find(id);
                 if (schedule == null) {
@@ -111,7 +297,56 @@ public final class ScheduleController extends CommonController {
             }
 
             // возвращаем сеанс
-            return ok(schedule);
+            return responses.store(ctx, stamp, ok(ctx, stamp, schedule));
+        };
+
+        // найти сеансы по списку идентификаторов
+        this.lookup = (Context ctx) -> {
+            // считываем список идентификаторов во входных параметрах
+            final List<Integer> ids = ids(ctx.query("ids").value(""), maxLookupSize);
+            if (ids == null) {
+                return error(Code.BAD_REQUEST, "Задан некорректный список идентификаторов сеансов!");
+            }
+
+            // версия набора сеансов -- до обращения к БД
+            final Versions.Stamp stamp = Versions.schedule(ids);
+            if (notModified(ctx, stamp)) {
+                return ctx.send(StatusCode.NOT_MODIFIED);
+            }
+
+            // готовый ответ для этой версии данных
+            if (responses.serve(ctx, stamp)) {
+                return ctx;
+            }
+
+            // ищем сеансы в кэше записей, недостающие -- одним запросом к БД
+            Map<Integer, ScheduleModel> found;
+            try {
+                found = ScheduleModel.findAll(ids);
+            } catch (Exception exc) {
+                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось получить сеансы по заданным идентификаторам!");
+            }
+
+            // записи в порядке запроса и идентификаторы отсутствующих
+            final List<ScheduleModel> list    = new ArrayList<>(ids.size());
+            final List<Integer> missing = new ArrayList<>();
+            for (final Integer id : ids) {
+                final ScheduleModel schedule = found.get(id);
+                if (schedule != null) {
+                    list.add(schedule);
+                } else {
+                    missing.add(id);
+                }
+            }
+
+            // возвращаем результат в обёртке списка
+            return responses.store(ctx, stamp, ok(ctx, stamp, new ListWrapper(
+                list,
+                list.size(),
+                1,
+                null,
+                missing
+            )));
         };
 
         // изменить ранее созданный сеанс
@@ -119,15 +354,25 @@ public final class ScheduleController extends CommonController {
             ScheduleModel schedule = ctx.body(ScheduleModel.class);
 
             // проверка корректности полученных данных
-            if (schedule == null || !ScheduleModel.exists(schedule.id) || !MovieModel.exists(schedule.movieId)) {
+            if (schedule == null || schedule.id == 0 || schedule.dateAndTime == null) {
                 return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
             }
 
-            // сохраняем сеанс в БД
+            // сохраняем сеанс в БД -- отсутствие сеанса определяется по количеству измененных записей,
+            // существование фильма проверяется внешним ключом, перенос на фильм другого сегмента не допускается
+            int id;
             try {
-                schedule.save();
-            } catch (Exception exc) {
-                return error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о сеансе в базе данных!");
+                id = schedule.save();
+            } catch (SQLException exc) {
+                if (MovieModel.isCrossShard(exc)) {
+                    return error(Code.BAD_REQUEST, "Перенос сеанса на фильм другого сегмента не поддерживается!");
+                }
+                return MovieModel.isMissingParent(exc)
+                    ? error(Code.BAD_REQUEST, "Задан несуществующий идентификатор фильма!")
+                    : error(Code.INTERNAL_SERVER_ERROR, "Не удалось сохранить информацию о сеансе в базе данных!");
+            }
+            if (id == 0) {
+                return error(Code.BAD_REQUEST, "Заданы некорректные входные данные запроса!");
             }
 
             // сообщаем об успехе
@@ -141,21 +386,20 @@ public final class ScheduleController extends CommonController {
             // считываем идентификатор сеанса во входных параметрах
             try {
                 id = Integer.parseInt(ctx.path("id").value());
-
-                // проверяем существование сеанса по заданному идентификатору
-                if (!ScheduleModel.exists(id)) {
-                    throw new Exception();
-                }
             } catch (Exception exc) {
                 return error(Code.BAD_REQUEST, "Задан некорректный идентификатор сеанса!");
             }
 
-            // удаляем сеанс из БД
+            // удаляем сеанс из БД -- отсутствие сеанса определяется по количеству удаленных записей
+            boolean killed;
             try {
-                ScheduleModel.kill(id);
+                killed = ScheduleModel.kill(id);
             } catch (Exception exc) {
                 return error(Code.INTERNAL_SERVER_ERROR, "Не удалось удалить информацию о сеансе из базы данных!");
             }
+            if (!killed) {
+                return error(Code.BAD_REQUEST, "Задан некорректный идентификатор сеанса!");
+            }
 
             // сообщаем об успехе
             return ok();
@@ -0,0 +1,69 @@
+package tv.lid.cinema.api2.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+// гистограмма длительностей с фиксированными границами интервалов; запись без блокировок
+public final class Histogram {
+    // верхние границы интервалов в секундах
+    static final double[] BOUNDS = {
+        0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    // те же границы в наносекундах
+    private static final long[] NANOS = Arrays.stream(Histogram.BOUNDS).mapToLong(b -> (long) (b * 1e9)).toArray();
+
+    // число значений в каждом интервале, последний -- свыше всех границ
+    private final LongAdder[] buckets = new LongAdder[Histogram.BOUNDS.length + 1];
+
+    // сумма значений в наносекундах
+    private final LongAdder sum = new LongAdder();
+
+    // конструктор
+    Histogram() {
+        for (int i = 0; i < this.buckets.length; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+    }
+
+    // запись длительности в наносекундах
+    public void record(final long nanos) {
+        int i = Arrays.binarySearch(Histogram.NANOS, nanos);
+        if (i < 0) {
+            i = -i - 1;
+        }
+        this.buckets[i].increment();
+        this.sum.add(nanos);
+    }
+
+    // запись длительности от заданного момента System.nanoTime() до текущего
+    public void recordSince(final long start) {
+        this.record(System.nanoTime() - start);
+    }
+
+    // всего записанных значений
+    public long count() {
+        long count = 0;
+        for (final LongAdder bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    // вывод в текстовом формате Prometheus: накопительные интервалы, сумма в секундах и количество
+    void write(final StringBuilder out, final String name, final String labels) {
+        final String prefix = labels.isEmpty() ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int i = 0; i < this.buckets.length; i++) {
+            cumulative += this.buckets[i].sum();
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+               .append(i < Histogram.BOUNDS.length ? Double.toString(Histogram.BOUNDS[i]) : "+Inf")
+               .append("\"} ").append(cumulative).append('\n');
+        }
+
+        final String suffix = labels.isEmpty() ? " " : "{" + labels + "} ";
+        out.append(name).append("_sum").append(suffix).append(this.sum.sum() / 1e9).append('\n');
+        out.append(name).append("_count").append(suffix).append(cumulative).append('\n');
+    }
+}
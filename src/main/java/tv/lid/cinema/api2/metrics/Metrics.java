@@ -0,0 +1,202 @@
+package tv.lid.cinema.api2.metrics;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+// метрики приложения в памяти и их вывод в текстовом формате Prometheus;
+// запись идет через LongAdder без блокировок, поэтому метрики включены всегда
+public final class Metrics {
+    // семейство гистограмм с общим именем и набором меток
+    public static final class Family {
+        private final String   name;   // имя метрики
+        private final String   help;   // описание
+        private final String[] labels; // имена меток
+
+        // гистограммы по значениям меток, упорядоченные для стабильного вывода
+        private final Map<String, Histogram> series = new ConcurrentSkipListMap<>();
+
+        // те же гистограммы для быстрого поиска
+        private final ConcurrentHashMap<String, Histogram> lookup = new ConcurrentHashMap<>();
+
+        // конструктор
+        private Family(final String name, final String help, final String[] labels) {
+            this.name   = name;
+            this.help   = help;
+            this.labels = labels;
+        }
+
+        // гистограмма для заданных значений меток -- создается при первом обращении
+        public Histogram series(final String... values) {
+            if (values.length != this.labels.length) {
+                throw new IllegalArgumentException("Metric " + this.name + " expects labels " + String.join(", ", this.labels));
+            }
+
+            final String    key       = String.join("\0", values);
+            final Histogram histogram = this.lookup.get(key);
+            if (histogram != null) {
+                return histogram;
+            }
+
+            return this.lookup.computeIfAbsent(key, k -> {
+                final StringBuilder labels = new StringBuilder();
+                for (int i = 0; i < values.length; i++) {
+                    if (i != 0) {
+                        labels.append(',');
+                    }
+                    labels.append(this.labels[i]).append("=\"").append(Metrics.escape(values[i])).append('"');
+                }
+
+                final Histogram created = new Histogram();
+                this.series.put(labels.toString(), created);
+                return created;
+            });
+        }
+
+        // вывод всех гистограмм семейства
+        private void write(final StringBuilder out) {
+            Metrics.header(out, this.name, this.help, "histogram");
+            for (final Map.Entry<String, Histogram> entry : this.series.entrySet()) {
+                entry.getValue().write(out, this.name, entry.getKey());
+            }
+        }
+    }
+
+    // счетчик с именем и описанием
+    private static final class Counter {
+        final String    name;  // имя метрики
+        final String    help;  // описание
+        final LongAdder value; // значение
+
+        Counter(final String name, final String help, final LongAdder value) {
+            this.name  = name;
+            this.help  = help;
+            this.value = value;
+        }
+    }
+
+    // зарегистрированные семейства гистограмм и счетчики
+    private static final List<Family>  families = new CopyOnWriteArrayList<>();
+    private static final List<Counter> counters = new CopyOnWriteArrayList<>();
+
+    // длительность обработки запросов по методу, шаблону маршрута и коду ответа
+    public static final Family HTTP_REQUESTS = Metrics.histogram(
+        "api2_http_request_duration_seconds",
+        "Request handling time by route, including the database transaction",
+        "method", "route", "code"
+    );
+
+    // длительность обращений моделей к БД по методу модели
+    public static final Family DB_CALLS = Metrics.histogram(
+        "api2_db_call_duration_seconds",
+        "Database time of model methods",
+        "call"
+    );
+
+    // время получения соединения из пула
+    public static final Histogram POOL_ACQUIRE = Metrics.histogram(
+        "api2_db_pool_acquire_duration_seconds",
+        "Time to acquire a connection from the pool"
+    ).series();
+
+    // время разбора тел запросов и записи тел ответов в JSON
+    public static final Histogram JSON_DECODE = Metrics.histogram(
+        "api2_json_decode_duration_seconds",
+        "Time to parse JSON request bodies"
+    ).series();
+    public static final Histogram JSON_ENCODE = Metrics.histogram(
+        "api2_json_encode_duration_seconds",
+        "Time to write JSON response bodies"
+    ).series();
+
+    // объем разобранных и записанных данных JSON
+    public static final LongAdder JSON_DECODED_BYTES = Metrics.counter(
+        "api2_json_decoded_bytes_total",
+        "Bytes of JSON request bodies read"
+    );
+    public static final LongAdder JSON_ENCODED_BYTES = Metrics.counter(
+        "api2_json_encoded_bytes_total",
+        "Bytes of JSON response bodies written"
+    );
+
+    private Metrics() {}
+
+    // регистрация семейства гистограмм
+    public static Family histogram(final String name, final String help, final String... labels) {
+        final Family family = new Family(name, help, labels);
+        Metrics.families.add(family);
+        return family;
+    }
+
+    // регистрация счетчика
+    public static LongAdder counter(final String name, final String help) {
+        final LongAdder value = new LongAdder();
+        Metrics.counters.add(new Counter(name, help, value));
+        return value;
+    }
+
+    // все метрики в текстовом формате Prometheus 0.0.4
+    public static String scrape() {
+        final StringBuilder out = new StringBuilder(16 * 1024);
+
+        for (final Family family : Metrics.families) {
+            family.write(out);
+        }
+        for (final Counter counter : Metrics.counters) {
+            Metrics.header(out, counter.name, counter.help, "counter");
+            out.append(counter.name).append(' ').append(counter.value.sum()).append('\n');
+        }
+        Metrics.jvm(out);
+
+        return out.toString();
+    }
+
+    // сборка мусора и память JVM
+    private static void jvm(final StringBuilder out) {
+        final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+
+        Metrics.header(out, "jvm_gc_collection_seconds", "Time spent in a given JVM garbage collector", "summary");
+        for (final GarbageCollectorMXBean gc : collectors) {
+            final String labels = "{gc=\"" + Metrics.escape(gc.getName()) + "\"} ";
+            out.append("jvm_gc_collection_seconds_count").append(labels).append(gc.getCollectionCount()).append('\n');
+            out.append("jvm_gc_collection_seconds_sum").append(labels).append(gc.getCollectionTime() / 1e3).append('\n');
+        }
+
+        final MemoryMXBean memory  = ManagementFactory.getMemoryMXBean();
+        final MemoryUsage  heap    = memory.getHeapMemoryUsage(),
+                           nonheap = memory.getNonHeapMemoryUsage();
+
+        Metrics.header(out, "jvm_memory_bytes_used", "Used bytes of a given JVM memory area", "gauge");
+        out.append("jvm_memory_bytes_used{area=\"heap\"} ").append(heap.getUsed()).append('\n');
+        out.append("jvm_memory_bytes_used{area=\"nonheap\"} ").append(nonheap.getUsed()).append('\n');
+
+        Metrics.header(out, "jvm_memory_bytes_committed", "Committed bytes of a given JVM memory area", "gauge");
+        out.append("jvm_memory_bytes_committed{area=\"heap\"} ").append(heap.getCommitted()).append('\n');
+        out.append("jvm_memory_bytes_committed{area=\"nonheap\"} ").append(nonheap.getCommitted()).append('\n');
+
+        Metrics.header(out, "jvm_memory_bytes_max", "Max bytes of a given JVM memory area, -1 if undefined", "gauge");
+        out.append("jvm_memory_bytes_max{area=\"heap\"} ").append(heap.getMax()).append('\n');
+        out.append("jvm_memory_bytes_max{area=\"nonheap\"} ").append(nonheap.getMax()).append('\n');
+
+        Metrics.header(out, "jvm_threads_current", "Current thread count of the JVM", "gauge");
+        out.append("jvm_threads_current ").append(ManagementFactory.getThreadMXBean().getThreadCount()).append('\n');
+    }
+
+    // строки описания и типа метрики
+    private static void header(final StringBuilder out, final String name, final String help, final String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    // экранирование значения метки
+    private static String escape(final String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
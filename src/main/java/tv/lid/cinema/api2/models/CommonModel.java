@@ -1,18 +1,30 @@
 package tv.lid.cinema.api2.models;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
-import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
 
 // базовый абстрактный класс модели
 public abstract class CommonModel {
-    // data source
-    protected static Sql2o sql2o = null;
+    // SQLSTATE нарушения ссылочной целостности -- запись, на которую ссылаются, не существует
+    static final String SQLSTATE_MISSING_PARENT = "23506";
+
+    // SQLSTATE отказа в переносе записи в другой сегмент -- идентификатор записи при изменении не меняется
+    static final String SQLSTATE_CROSS_SHARD = "0A000";
+
+    // получатель записей при потоковом чтении из БД
+    @FunctionalInterface
+    public static interface Sink<T> {
+        void accept(T value) throws IOException;
+    }
 
     // идентификатор записи
     @JsonProperty(value = "id", required = false, defaultValue = "0")
@@ -29,22 +41,56 @@ public abstract class CommonModel {
         this(0);
     }
 
-    // инициализация
+    // инициализация #1 -- с одной БД
     public static final void initialize(final DataSource ds) throws SQLException {
+        CommonModel.initialize(Collections.singletonList(ds));
+    }
+
+    // инициализация #2 -- с БД по сегментам
+    public static final void initialize(final List<DataSource> sources) throws SQLException {
         try {
-            Connection con = ds.getConnection();
-            if (con == null) {
+            for (final DataSource ds : sources) {
+                Connection con = ds.getConnection();
+                if (con == null) {
+                    throw new SQLException();
+                }
+                con.close(); // проверочное соединение возвращается в пул
+            }
+            if (sources.isEmpty()) {
                 throw new SQLException();
             }
-            CommonModel.sql2o = new Sql2o(ds);
+            Shards.initialize(sources);
         } catch (Exception exc) {
             throw new SQLException();
         }
     }
 
-    // создание таблицы в БД
-    public static void createTable() throws SQLException {
-        throw new SQLException();
+    // соединение JDBC с текущим сегментом: в пределах единицы работы -- ее общее соединение, иначе -- отдельное из пула
+    static Connection connection() throws SQLException {
+        final UnitOfWork unit = UnitOfWork.current();
+        return unit != null ? unit.connection(Shards.current()) : Shards.dataSource(Shards.current()).getConnection();
+    }
+
+    // соединение с текущим сегментом: в пределах единицы работы -- ее общее соединение, иначе -- отдельное из пула
+    protected static org.sql2o.Connection open() throws SQLException {
+        final UnitOfWork unit = UnitOfWork.current();
+        if (unit == null) {
+            return Shards.sql2o().open();
+        }
+
+        final Connection con = unit.connection(Shards.current());
+        return Shards.sql2o().open(() -> con);
+    }
+
+    // соединение с текущим сегментом с открытой транзакцией: в пределах единицы работы -- ее общая транзакция
+    protected static org.sql2o.Connection begin() throws SQLException {
+        final UnitOfWork unit = UnitOfWork.current();
+        if (unit == null) {
+            return Shards.sql2o().beginTransaction();
+        }
+
+        final Connection con = unit.connection(Shards.current());
+        return Shards.sql2o().beginTransaction(() -> con);
     }
 
     // удаление таблицы из БД
@@ -72,13 +118,28 @@ public abstract class CommonModel {
         throw new SQLException();
     }
 
-    // удаление записи из БД по заданному идентификатору
-    public static void kill(final int id) throws SQLException {
+    // удаление записи из БД по заданному идентификатору, false -- если записи не было
+    public static boolean kill(final int id) throws SQLException {
         throw new SQLException();
     }
 
-    // сохранение данной записи в БД
-    public void save() throws SQLException {
+    // сохранение данной записи в БД, возвращает ее идентификатор либо 0 -- если изменяемой записи не было
+    public int save() throws SQLException {
         throw new SQLException();
     }
+
+    // признак ошибки из-за ссылки на несуществующую запись
+    public static boolean isMissingParent(final SQLException exc) {
+        return CommonModel.SQLSTATE_MISSING_PARENT.equals(exc.getSQLState());
+    }
+
+    // проверка ошибки изменения на попытку перенести запись в другой сегмент
+    public static boolean isCrossShard(final SQLException exc) {
+        return CommonModel.SQLSTATE_CROSS_SHARD.equals(exc.getSQLState());
+    }
+
+    // исходная ошибка JDBC из ошибки sql2o -- с сохранением SQLSTATE
+    protected static SQLException unwrap(final Sql2oException exc) {
+        return exc.getCause() instanceof SQLException ? (SQLException) exc.getCause() : new SQLException(exc);
+    }
 }
@@ -0,0 +1,189 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+// счетчики количества записей, поддерживаемые в памяти
+public final class Counters {
+    // журнал счетчиков
+    private static final Logger LOG = LoggerFactory.getLogger(Counters.class);
+
+    // количество фильмов
+    private static final AtomicInteger movies = new AtomicInteger();
+
+    // количество сеансов по идентификатору фильма
+    private static final ConcurrentHashMap<Integer, AtomicInteger> schedules = new ConcurrentHashMap<>();
+
+    // изменения хранилища от фиксации в БД до учета в счетчиках идут параллельно, запросы сверки -- монопольно
+    private static final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // счетчики заполнены и могут использоваться вместо запросов к БД
+    private static volatile boolean seeded = false;
+
+    // периодическая сверка с БД
+    private static ScheduledExecutorService reconciler = null;
+
+    // изменение хранилища, учитываемое в счетчиках
+    static interface Change<T> {
+        T apply() throws SQLException;
+    }
+
+    private Counters() {}
+
+    // заполнение счетчиков и запуск периодической сверки с заданным периодом в секундах
+    public static synchronized void start(final long period) throws SQLException {
+        Counters.reconcile();
+        Counters.seeded = true;
+
+        if (period > 0 && Counters.reconciler == null) {
+            Counters.reconciler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "counters-reconciler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            Counters.reconciler.scheduleWithFixedDelay(() -> {
+                try {
+                    Counters.reconcile();
+                } catch (Exception exc) {
+                    Counters.LOG.warn("Unable to reconcile row counters: {}", exc.getMessage());
+                }
+            }, period, period, TimeUnit.SECONDS);
+        }
+    }
+
+    // остановка периодической сверки
+    public static synchronized void stop() {
+        Counters.seeded = false;
+        if (Counters.reconciler != null) {
+            Counters.reconciler.shutdownNow();
+            Counters.reconciler = null;
+        }
+    }
+
+    // сверка с БД: запросы не пересекаются с изменениями, уже зафиксированными в БД, но еще не учтенными;
+    // соединения берутся заранее -- их могут удерживать единицы работы, ожидающие конца сверки для фиксации
+    public static void reconcile() throws SQLException {
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            unit.connectAll();
+
+            Counters.lock.writeLock().lock();
+            try {
+                final int                   total  = MovieModel.count();
+                final Map<Integer, Integer> byFilm = ScheduleModel.countAll();
+
+                if (Counters.seeded && Counters.movies.get() != total) {
+                    Counters.LOG.warn(
+                        "Movie counter drift: {} in memory, {} in database", Counters.movies.get(), total
+                    );
+                }
+                Counters.movies.set(total);
+
+                Counters.schedules.keySet().retainAll(byFilm.keySet());
+                for (final Map.Entry<Integer, Integer> entry : byFilm.entrySet()) {
+                    Counters.schedules
+                        .computeIfAbsent(entry.getKey(), key -> new AtomicInteger())
+                        .set(entry.getValue());
+                }
+            } finally {
+                Counters.lock.writeLock().unlock();
+            }
+        }
+    }
+
+    // изменение хранилища вместе с его учетом в счетчиках; в единице работы изменение фиксируется и учитывается
+    // позже -- под защитой, которую единица работы берет через guard()
+    static <T> T change(final Change<T> change) throws SQLException {
+        if (UnitOfWork.current() != null) {
+            return change.apply();
+        }
+
+        Counters.lock.readLock().lock();
+        try {
+            return change.apply();
+        } finally {
+            Counters.lock.readLock().unlock();
+        }
+    }
+
+    // защита от сверки на время фиксации транзакции и учета ее изменений в счетчиках
+    static Lock guard() {
+        return Counters.lock.readLock();
+    }
+
+    // счетчики заполнены
+    static boolean seeded() {
+        return Counters.seeded;
+    }
+
+    // количество фильмов
+    static int movies() {
+        return Counters.movies.get();
+    }
+
+    // количество сеансов фильма
+    static int schedules(final int movieId) {
+        final AtomicInteger counter = Counters.schedules.get(movieId);
+        return counter != null ? counter.get() : 0;
+    }
+
+    // добавлен фильм
+    static void movieAdded() {
+        Counters.moviesAdded(1);
+    }
+
+    // добавлено несколько фильмов
+    static void moviesAdded(final int count) {
+        UnitOfWork.afterCommit(() -> {
+            Counters.movies.addAndGet(count);
+        });
+    }
+
+    // удален фильм -- вместе с ним каскадно удалены и его сеансы
+    static void movieRemoved(final int movieId) {
+        UnitOfWork.afterCommit(() -> {
+            Counters.movies.decrementAndGet();
+            Counters.schedules.remove(movieId);
+        });
+    }
+
+    // добавлен сеанс
+    static void scheduleAdded(final int movieId) {
+        Counters.schedulesAdded(movieId, 1);
+    }
+
+    // добавлено несколько сеансов одного фильма
+    static void schedulesAdded(final int movieId, final int count) {
+        UnitOfWork.afterCommit(() -> {
+            Counters.schedules.computeIfAbsent(movieId, key -> new AtomicInteger()).addAndGet(count);
+        });
+    }
+
+    // удален сеанс
+    static void scheduleRemoved(final int movieId) {
+        UnitOfWork.afterCommit(() -> {
+            final AtomicInteger counter = Counters.schedules.get(movieId);
+            if (counter != null) {
+                counter.decrementAndGet();
+            }
+        });
+    }
+
+    // сеанс перенесен с одного фильма на другой
+    static void scheduleMoved(final int fromMovieId, final int toMovieId) {
+        if (fromMovieId != toMovieId) {
+            Counters.scheduleRemoved(fromMovieId);
+            Counters.scheduleAdded(toMovieId);
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+// ограниченный кэш записей модели по идентификатору, с кэшированием отсутствующих записей
+public final class EntityCache<T extends CommonModel> {
+    // дефолтные параметры кэша
+    private static final long DEFAULT_MAXIMUM_SIZE = 10000, // максимальное число записей в каждом кэше
+                              DEFAULT_TTL          = 0;     // время жизни записи в секундах, 0 -- без ограничения
+
+    // текущие параметры кэшей
+    private static long maximumSize = EntityCache.DEFAULT_MAXIMUM_SIZE,
+                        ttl         = EntityCache.DEFAULT_TTL;
+
+    // все созданные кэши
+    private static final List<EntityCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    // загрузчик записи из БД
+    @FunctionalInterface
+    public static interface Loader<T> {
+        T load(int id) throws SQLException;
+    }
+
+    // загрузчик набора записей из БД одним запросом, отсутствующих записей в результате нет
+    @FunctionalInterface
+    public static interface BulkLoader<T> {
+        Map<Integer, T> load(List<Integer> ids) throws SQLException;
+    }
+
+    // статистика кэша
+    public static final class Statistics {
+        public final long   size;      // записей в кэше
+        public final long   hits;      // попаданий
+        public final long   misses;    // промахов
+        public final double hitRate;   // доля попаданий
+        public final long   evictions; // вытеснений
+
+        // конструктор
+        public Statistics(
+            final long   size,
+            final long   hits,
+            final long   misses,
+            final double hitRate,
+            final long   evictions
+        ) {
+            this.size      = size;
+            this.hits      = hits;
+            this.misses    = misses;
+            this.hitRate   = hitRate;
+            this.evictions = evictions;
+        }
+    }
+
+    // исключение загрузки, переносящее SQLException через загрузочную функцию кэша
+    private static final class LoadException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        LoadException(final SQLException cause) {
+            super(cause);
+        }
+    }
+
+    // хранилище: отсутствующая запись хранится как пустой Optional
+    private volatile Cache<Integer, Optional<T>> cache;
+
+    // загрузчик записи из БД
+    private final Loader<T> loader;
+
+    // конструктор
+    EntityCache(final Loader<T> loader) {
+        this.loader = loader;
+        this.cache  = EntityCache.build();
+        EntityCache.caches.add(this);
+    }
+
+    // настройка всех кэшей: максимальное число записей и время жизни записи в секундах
+    public static synchronized void configure(final long maximumSize, final long ttl) {
+        EntityCache.maximumSize = maximumSize;
+        EntityCache.ttl         = ttl;
+
+        for (final EntityCache<?> cache : EntityCache.caches) {
+            cache.cache = EntityCache.build();
+        }
+    }
+
+    // создание хранилища в соответствии с текущими параметрами
+    private static synchronized <T> Cache<Integer, Optional<T>> build() {
+        final Caffeine<Object, Object> builder = Caffeine.newBuilder()
+            .maximumSize(EntityCache.maximumSize)
+            .recordStats();
+
+        if (EntityCache.ttl > 0) {
+            builder.expireAfterWrite(EntityCache.ttl, TimeUnit.SECONDS);
+        }
+
+        return builder.build();
+    }
+
+    // запись по идентификатору из кэша либо из БД, null -- если записи нет
+    public T get(final int id) throws SQLException {
+        try {
+            return this.cache.get(id, key -> {
+                try {
+                    return Optional.ofNullable(this.loader.load(key));
+                } catch (SQLException exc) {
+                    throw new LoadException(exc);
+                }
+            }).orElse(null);
+        } catch (LoadException exc) {
+            throw (SQLException) exc.getCause();
+        }
+    }
+
+    // записи по идентификаторам: имеющиеся в кэше -- из него, остальные -- одним запросом к БД;
+    // отсутствующих записей в результате нет, при этом они тоже кэшируются
+    public Map<Integer, T> getAll(final Collection<Integer> ids, final BulkLoader<T> loader) throws SQLException {
+        final Map<Integer, Optional<T>> found;
+        try {
+            found = this.cache.getAll(ids, keys -> {
+                final List<Integer> missing = new ArrayList<>();
+                keys.forEach(missing::add);
+
+                final Map<Integer, T> loaded;
+                try {
+                    loaded = loader.load(missing);
+                } catch (SQLException exc) {
+                    throw new LoadException(exc);
+                }
+
+                final Map<Integer, Optional<T>> result = new HashMap<>();
+                for (final Integer key : missing) {
+                    result.put(key, Optional.ofNullable(loaded.get(key)));
+                }
+                return result;
+            });
+        } catch (LoadException exc) {
+            throw (SQLException) exc.getCause();
+        }
+
+        final Map<Integer, T> result = new HashMap<>();
+        for (final Map.Entry<Integer, Optional<T>> entry : found.entrySet()) {
+            entry.getValue().ifPresent(value -> result.put(entry.getKey(), value));
+        }
+        return result;
+    }
+
+    // удаление записи из кэша; в пределах единицы работы повторяется по завершении транзакции -- до обновления
+    // отметок версий, т.к. до этого запись может быть снова загружена в кэш из прежних данных
+    void invalidate(final int id) {
+        this.cache.invalidate(id);
+        UnitOfWork.onCompletion(() -> this.cache.invalidate(id));
+    }
+
+    // удаление записей, удовлетворяющих условию
+    void invalidateIf(final Predicate<T> predicate) {
+        final Runnable action = () ->
+            this.cache.asMap().values().removeIf(value -> value.isPresent() && predicate.test(value.get()));
+
+        action.run();
+        UnitOfWork.onCompletion(action);
+    }
+
+    // удаление записей по идентификаторам -- в т.ч. сведений об отсутствии только что вставленных записей;
+    // удаление по ключу выполняется после идущей в этот момент загрузки того же ключа, а не вместо нее
+    void invalidateAll(final Collection<Integer> ids) {
+        this.cache.invalidateAll(ids);
+        UnitOfWork.onCompletion(() -> this.cache.invalidateAll(ids));
+    }
+
+    // статистика кэша
+    public Statistics statistics() {
+        final Cache<Integer, Optional<T>> cache = this.cache;
+        final CacheStats                  stats = cache.stats();
+
+        return new Statistics(
+            cache.estimatedSize(),
+            stats.hitCount(),
+            stats.missCount(),
+            stats.hitRate(),
+            stats.evictionCount()
+        );
+    }
+}
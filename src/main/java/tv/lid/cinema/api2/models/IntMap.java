@@ -0,0 +1,200 @@
+package tv.lid.cinema.api2.models;
+
+import java.util.Arrays;
+
+// отображение положительных целых ключей на значения с открытой адресацией: ключи хранятся в массиве int
+// без упаковки, коллизии разрешаются линейным пробированием, удаление сдвигает следующие записи цепочки назад;
+// не потокобезопасно -- доступ синхронизирует владелец
+final class IntMap<V> {
+    // обход записей
+    @FunctionalInterface
+    static interface Visitor<V> {
+        void visit(int key, V value);
+    }
+
+    // пустая ячейка -- ключ 0, идентификаторы записей всегда положительны
+    private static final int EMPTY = 0;
+
+    // предельная заполненность таблицы перед ее расширением
+    private static final float LOAD_FACTOR = 0.5f;
+
+    // ключи и значения, длина -- степень двойки
+    private int[]    keys;
+    private Object[] values;
+
+    // число записей
+    private int size = 0;
+
+    // число записей, при котором таблица расширяется
+    private int threshold;
+
+    // конструктор
+    IntMap(final int capacity) {
+        int length = 16;
+        while (length * IntMap.LOAD_FACTOR < capacity) {
+            length <<= 1;
+        }
+        this.allocate(length);
+    }
+
+    // конструктор копии
+    private IntMap(final IntMap<V> source) {
+        this.keys      = source.keys.clone();
+        this.values    = source.values.clone();
+        this.size      = source.size;
+        this.threshold = source.threshold;
+    }
+
+    // размещение пустой таблицы
+    private void allocate(final int length) {
+        this.keys      = new int[length];
+        this.values    = new Object[length];
+        this.threshold = (int) (length * IntMap.LOAD_FACTOR);
+    }
+
+    // начальная ячейка ключа: перемешивание битов, чтобы последовательные ключи не шли подряд;
+    // доступна в пакете для проверки цепочек коллизий
+    static int slot(final int key, final int mask) {
+        final int hash = key * 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    // независимая копия отображения
+    IntMap<V> copy() {
+        return new IntMap<>(this);
+    }
+
+    // число записей
+    int size() {
+        return this.size;
+    }
+
+    // значение по ключу, null -- если записи нет
+    @SuppressWarnings("unchecked")
+    V get(final int key) {
+        if (key <= 0) {
+            return null;
+        }
+
+        final int mask = this.keys.length - 1;
+        for (int i = IntMap.slot(key, mask); ; i = (i + 1) & mask) {
+            final int k = this.keys[i];
+            if (k == key) {
+                return (V) this.values[i];
+            }
+            if (k == IntMap.EMPTY) {
+                return null;
+            }
+        }
+    }
+
+    // запись значения по ключу, возвращает прежнее значение либо null
+    @SuppressWarnings("unchecked")
+    V put(final int key, final V value) {
+        if (key <= 0) {
+            throw new IllegalArgumentException("Key must be positive: " + key);
+        }
+
+        final int mask = this.keys.length - 1;
+        for (int i = IntMap.slot(key, mask); ; i = (i + 1) & mask) {
+            final int k = this.keys[i];
+            if (k == key) {
+                final V previous = (V) this.values[i];
+                this.values[i] = value;
+                return previous;
+            }
+            if (k == IntMap.EMPTY) {
+                this.keys[i]   = key;
+                this.values[i] = value;
+                if (++this.size > this.threshold) {
+                    this.resize();
+                }
+                return null;
+            }
+        }
+    }
+
+    // удаление записи по ключу, возвращает ее значение либо null
+    @SuppressWarnings("unchecked")
+    V remove(final int key) {
+        if (key <= 0) {
+            return null;
+        }
+
+        final int mask = this.keys.length - 1;
+        int i = IntMap.slot(key, mask);
+        while (this.keys[i] != key) {
+            if (this.keys[i] == IntMap.EMPTY) {
+                return null;
+            }
+            i = (i + 1) & mask;
+        }
+
+        final V previous = (V) this.values[i];
+
+        // следующие записи цепочки, чья начальная ячейка не лежит между освобожденной и их текущей, сдвигаются
+        // в освобожденную -- иначе поиск остановился бы на ней раньше времени
+        int free = i;
+        for (int j = (free + 1) & mask; this.keys[j] != IntMap.EMPTY; j = (j + 1) & mask) {
+            final int home = IntMap.slot(this.keys[j], mask);
+            if (free <= j ? (home <= free || home > j) : (home <= free && home > j)) {
+                this.keys[free]   = this.keys[j];
+                this.values[free] = this.values[j];
+                free = j;
+            }
+        }
+        this.keys[free]   = IntMap.EMPTY;
+        this.values[free] = null;
+        this.size--;
+        return previous;
+    }
+
+    // удаление всех записей
+    void clear() {
+        Arrays.fill(this.keys, IntMap.EMPTY);
+        Arrays.fill(this.values, null);
+        this.size = 0;
+    }
+
+    // обход всех записей в порядке ячеек
+    @SuppressWarnings("unchecked")
+    void forEach(final Visitor<V> visitor) {
+        for (int i = 0; i < this.keys.length; i++) {
+            if (this.keys[i] != IntMap.EMPTY) {
+                visitor.visit(this.keys[i], (V) this.values[i]);
+            }
+        }
+    }
+
+    // все ключи по возрастанию
+    int[] keys() {
+        final int[] result = new int[this.size];
+        int         n      = 0;
+        for (final int key : this.keys) {
+            if (key != IntMap.EMPTY) {
+                result[n++] = key;
+            }
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    // расширение таблицы вдвое
+    private void resize() {
+        final int[]    keys   = this.keys;
+        final Object[] values = this.values;
+
+        this.allocate(keys.length << 1);
+        final int mask = this.keys.length - 1;
+        for (int j = 0; j < keys.length; j++) {
+            if (keys[j] != IntMap.EMPTY) {
+                int i = IntMap.slot(keys[j], mask);
+                while (this.keys[i] != IntMap.EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                this.keys[i]   = keys[j];
+                this.values[i] = values[j];
+            }
+        }
+    }
+}
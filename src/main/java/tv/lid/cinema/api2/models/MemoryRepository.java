@@ -0,0 +1,770 @@
+package tv.lid.cinema.api2.models;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// хранилище фильмов и сеансов в памяти процесса: записи -- в отображениях с целыми ключами, списки фильмов --
+// по отсортированному массиву ключей (год, идентификатор), сеансы фильма -- в массиве, отсортированном по дате
+// и времени, который при изменении заменяется копией; все данные -- в неизменяемом состоянии, которое изменения
+// по одному заменяют целиком (копируя только затронутые части), а чтения берут без блокировок; каждое изменение
+// применяется сразу и целиком, транзакции единицы работы его не откатывают
+public final class MemoryRepository {
+    // признак и версия формата снимка
+    private static final int SNAPSHOT_MAGIC   = 0x41504932, // "API2"
+                             SNAPSHOT_VERSION = 1;
+
+    // порядок сеансов фильма -- по дате и времени, затем по идентификатору
+    private static final Comparator<ScheduleModel> ORDER = Comparator
+        .comparing((ScheduleModel schedule) -> schedule.dateAndTime)
+        .thenComparingInt(schedule -> schedule.id);
+
+    // сеансы фильма без записей
+    private static final ScheduleModel[] NONE = new ScheduleModel[0];
+
+    // наибольшая длина названия фильма -- как у столбца title VARCHAR(300) NOT NULL в БД
+    private static final int MAX_TITLE_LENGTH = 300;
+
+    // SQLSTATE (и код ошибки H2), с которыми БД отвергает пустое и слишком длинное значение
+    private static final String SQLSTATE_NULL_VALUE = "23502",
+                                SQLSTATE_TOO_LONG   = "22001";
+
+    // изменение черновика состояния
+    @FunctionalInterface
+    private static interface Change<T> {
+        T apply(State draft) throws SQLException;
+    }
+
+    // состояние хранилища: после публикации не меняется, поэтому читается без блокировок и согласованно --
+    // если взято один раз; изменения вносятся в черновик, который копирует только затронутые полосы отображений
+    // и массив списка фильмов
+    private static final class State {
+        // фильмы и сеансы по идентификатору
+        private final StripedIntMap<MovieModel>    movieById;
+        private final StripedIntMap<ScheduleModel> scheduleById;
+
+        // сеансы по идентификатору фильма, упорядоченные по дате и времени
+        private final StripedIntMap<ScheduleModel[]> byMovie;
+
+        // ключи (год, идентификатор) всех фильмов по возрастанию; массив принадлежит только этому черновику
+        private long[]  byYear;
+        private int     byYearSize;
+        private boolean byYearOwned;
+
+        // последние выданные идентификаторы
+        private int lastMovieId,
+                    lastScheduleId;
+
+        // конструктор пустого состояния
+        State() {
+            this.movieById      = new StripedIntMap<>(1024);
+            this.scheduleById   = new StripedIntMap<>(4096);
+            this.byMovie        = new StripedIntMap<>(1024);
+            this.byYear         = new long[1024];
+            this.byYearSize     = 0;
+            this.byYearOwned    = true;
+            this.lastMovieId    = 0;
+            this.lastScheduleId = 0;
+        }
+
+        // конструктор черновика
+        private State(final State source) {
+            this.movieById      = source.movieById.draft();
+            this.scheduleById   = source.scheduleById.draft();
+            this.byMovie        = source.byMovie.draft();
+            this.byYear         = source.byYear;
+            this.byYearSize     = source.byYearSize;
+            this.byYearOwned    = false;
+            this.lastMovieId    = source.lastMovieId;
+            this.lastScheduleId = source.lastScheduleId;
+        }
+
+        // черновик для изменения
+        State draft() {
+            return new State(this);
+        }
+
+        // сеансы фильма
+        ScheduleModel[] sessions(final int movieId) {
+            final ScheduleModel[] result = this.byMovie.get(movieId);
+            return result != null ? result : MemoryRepository.NONE;
+        }
+
+        // первая позиция списка фильмов с ключом не меньше заданного
+        int lowerBound(final long key) {
+            final int index = Arrays.binarySearch(this.byYear, 0, this.byYearSize, key);
+            return index >= 0 ? index : -index - 1;
+        }
+
+        // не более limit фильмов списка по году выхода, начиная с позиции start к началу списка
+        List<MovieModel> page(final int start, final int limit) {
+            final List<MovieModel> result = new ArrayList<>(Math.max(0, Math.min(limit, start + 1)));
+            for (int i = start; i >= 0 && result.size() < limit; i--) {
+                result.add(this.movieById.get((int) this.byYear[i]));
+            }
+            return result;
+        }
+
+        // проверка существования фильма для ссылки на него -- ошибка с тем же SQLSTATE, что и в БД
+        void parent(final int movieId) throws SQLException {
+            if (this.movieById.get(movieId) == null) {
+                throw new SQLException(
+                    "Referenced movie " + movieId + " does not exist",
+                    CommonModel.SQLSTATE_MISSING_PARENT
+                );
+            }
+        }
+
+        // добавление нового фильма
+        int add(final MovieModel movie) {
+            final MovieModel stored = new MovieModel(++this.lastMovieId, movie.title, movie.duration, movie.year);
+            this.put(stored);
+            return stored.id;
+        }
+
+        // запись фильма с его идентификатором
+        void put(final MovieModel movie) {
+            this.movieById.put(movie.id, movie);
+            this.index(MemoryRepository.key(movie.year, movie.id));
+        }
+
+        // добавление нового сеанса, фильм уже проверен
+        int add(final ScheduleModel schedule) {
+            final ScheduleModel stored = new ScheduleModel(
+                ++this.lastScheduleId,
+                schedule.movieId,
+                schedule.dateAndTime,
+                schedule.auditorium
+            );
+            this.attach(stored);
+            return stored.id;
+        }
+
+        // запись сеанса и замена массива сеансов его фильма копией с ним
+        void attach(final ScheduleModel schedule) {
+            final ScheduleModel[] sessions = this.sessions(schedule.movieId);
+
+            int index = Arrays.binarySearch(sessions, schedule, MemoryRepository.ORDER);
+            index = index >= 0 ? index : -index - 1;
+
+            final ScheduleModel[] result = new ScheduleModel[sessions.length + 1];
+            System.arraycopy(sessions, 0, result, 0, index);
+            result[index] = schedule;
+            System.arraycopy(sessions, index, result, index + 1, sessions.length - index);
+
+            this.scheduleById.put(schedule.id, schedule);
+            this.byMovie.put(schedule.movieId, result);
+        }
+
+        // удаление сеанса и замена массива сеансов его фильма копией без него
+        void detach(final ScheduleModel schedule) {
+            this.scheduleById.remove(schedule.id);
+
+            final ScheduleModel[] sessions = this.sessions(schedule.movieId);
+            final int             index    = Arrays.binarySearch(sessions, schedule, MemoryRepository.ORDER);
+            if (index < 0) {
+                return;
+            }
+            if (sessions.length == 1) {
+                this.byMovie.remove(schedule.movieId);
+                return;
+            }
+
+            final ScheduleModel[] result = new ScheduleModel[sessions.length - 1];
+            System.arraycopy(sessions, 0, result, 0, index);
+            System.arraycopy(sessions, index + 1, result, index, sessions.length - index - 1);
+            this.byMovie.put(schedule.movieId, result);
+        }
+
+        // добавление ключа в список фильмов
+        void index(final long key) {
+            if (this.byYearSize == this.byYear.length) {
+                this.byYear      = Arrays.copyOf(this.byYear, this.byYear.length << 1);
+                this.byYearOwned = true;
+            } else if (!this.byYearOwned) {
+                this.byYear      = this.byYear.clone();
+                this.byYearOwned = true;
+            }
+            final int index = this.lowerBound(key);
+            System.arraycopy(this.byYear, index, this.byYear, index + 1, this.byYearSize - index);
+            this.byYear[index] = key;
+            this.byYearSize++;
+        }
+
+        // удаление ключа из списка фильмов
+        void unindex(final long key) {
+            final int index = Arrays.binarySearch(this.byYear, 0, this.byYearSize, key);
+            if (index >= 0) {
+                if (!this.byYearOwned) {
+                    this.byYear      = this.byYear.clone();
+                    this.byYearOwned = true;
+                }
+                System.arraycopy(this.byYear, index + 1, this.byYear, index, this.byYearSize - index - 1);
+                this.byYearSize--;
+            }
+        }
+    }
+
+    // текущее опубликованное состояние
+    private volatile State state = new State();
+
+    // изменения -- по одному
+    private final ReentrantLock writer = new ReentrantLock();
+
+    // хранилища фильмов и сеансов поверх общих данных
+    private final MovieRepository    movies    = new Movies(this);
+    private final ScheduleRepository schedules = new Schedules(this);
+
+    // хранилище фильмов
+    public MovieRepository movies() {
+        return this.movies;
+    }
+
+    // хранилище сеансов
+    public ScheduleRepository schedules() {
+        return this.schedules;
+    }
+
+    // изменение данных над черновиком текущего состояния; черновик публикуется, только если изменение
+    // завершилось без ошибки, -- иначе данные остаются прежними
+    private <T> T change(final Change<T> change) throws SQLException {
+        this.writer.lock();
+        try {
+            final State draft  = this.state.draft();
+            final T     result = change.apply(draft);
+            this.state = draft;
+            return result;
+        } finally {
+            this.writer.unlock();
+        }
+    }
+
+    // хранилище фильмов
+    private static final class Movies implements MovieRepository {
+        // общие данные
+        private final MemoryRepository store;
+
+        // конструктор
+        Movies(final MemoryRepository store) {
+            this.store = store;
+        }
+
+        // количество фильмов
+        @Override
+        public int count() {
+            return this.store.state.movieById.size();
+        }
+
+        // множество идентификаторов всех фильмов
+        @Override
+        public Set<Integer> ids() {
+            final Set<Integer> result = new HashSet<>();
+            for (final int id : this.store.state.movieById.keys()) {
+                result.add(id);
+            }
+            return result;
+        }
+
+        // фильм по идентификатору
+        @Override
+        public MovieModel find(final int id) {
+            return this.store.state.movieById.get(id);
+        }
+
+        // фильмы по идентификаторам
+        @Override
+        public Map<Integer, MovieModel> findAll(final List<Integer> ids) {
+            final State                    state  = this.store.state;
+            final Map<Integer, MovieModel> result = new HashMap<>();
+            for (final Integer id : ids) {
+                final MovieModel movie = state.movieById.get(id);
+                if (movie != null) {
+                    result.put(id, movie);
+                }
+            }
+            return result;
+        }
+
+        // фильм вместе с ближайшими сеансами
+        @Override
+        public MovieModel.WithSchedules findWithSchedules(final int id, final LocalDateTime from, final int limit) {
+            final State      state = this.store.state;
+            final MovieModel movie = state.movieById.get(id);
+            if (movie == null) {
+                return null;
+            }
+
+            final ScheduleModel[] sessions = state.sessions(id);
+            final int             start    = MemoryRepository.bound(sessions, from, 0);
+            return new MovieModel.WithSchedules(
+                movie,
+                new ArrayList<>(Arrays.asList(sessions).subList(start, Math.min(sessions.length, start + limit)))
+            );
+        }
+
+        // страница фильмов от новых к старым
+        @Override
+        public List<MovieModel> list(final int offset, final int limit) {
+            final State state = this.store.state;
+            return state.page(state.byYearSize - 1 - offset, limit);
+        }
+
+        // фильмы, следующие за парой (год, идентификатор)
+        @Override
+        public List<MovieModel> list(final short year, final int id, final int limit) {
+            final State state = this.store.state;
+            return state.page(state.lowerBound(MemoryRepository.key(year, id)) - 1, limit);
+        }
+
+        // выгрузка всех фильмов -- из состояния на момент начала выгрузки
+        @Override
+        public void export(final int fetchSize, final CommonModel.Sink<MovieModel> sink) throws IOException {
+            final State state = this.store.state;
+            for (final int id : state.movieById.keys()) {
+                sink.accept(state.movieById.get(id));
+            }
+        }
+
+        // выгрузка всех фильмов вместе с сеансами
+        @Override
+        public void exportWithSchedules(
+            final int                                        fetchSize,
+            final CommonModel.Sink<MovieModel.WithSchedules> sink
+        ) throws IOException {
+            final State state = this.store.state;
+            for (final int id : state.movieById.keys()) {
+                sink.accept(new MovieModel.WithSchedules(state.movieById.get(id), Arrays.asList(state.sessions(id))));
+            }
+        }
+
+        // вставка фильма
+        @Override
+        public int insert(final MovieModel movie) throws SQLException {
+            MemoryRepository.check(movie);
+            return this.store.change(draft -> draft.add(movie));
+        }
+
+        // вставка списка фильмов: все фильмы проверяются до вставки первого из них
+        @Override
+        public List<Integer> insertAll(final List<MovieModel> movies) throws SQLException {
+            for (final MovieModel movie : movies) {
+                MemoryRepository.check(movie);
+            }
+
+            return this.store.change(draft -> {
+                final List<Integer> result = new ArrayList<>(movies.size());
+                for (final MovieModel movie : movies) {
+                    result.add(draft.add(movie));
+                }
+                return result;
+            });
+        }
+
+        // изменение фильма с переносом в списке по году выхода, если год сменился
+        @Override
+        public boolean update(final MovieModel movie) throws SQLException {
+            MemoryRepository.check(movie);
+
+            return this.store.change(draft -> {
+                final MovieModel previous = draft.movieById.get(movie.id);
+                if (previous == null) {
+                    return false;
+                }
+                draft.movieById.put(movie.id, movie);
+                if (previous.year != movie.year) {
+                    draft.unindex(MemoryRepository.key(previous.year, previous.id));
+                    draft.index(MemoryRepository.key(movie.year, movie.id));
+                }
+                return true;
+            });
+        }
+
+        // удаление фильма вместе с его сеансами
+        @Override
+        public boolean delete(final int id) throws SQLException {
+            return this.store.change(draft -> {
+                final MovieModel previous = draft.movieById.remove(id);
+                if (previous == null) {
+                    return false;
+                }
+                draft.unindex(MemoryRepository.key(previous.year, previous.id));
+
+                final ScheduleModel[] sessions = draft.byMovie.remove(id);
+                if (sessions != null) {
+                    for (final ScheduleModel schedule : sessions) {
+                        draft.scheduleById.remove(schedule.id);
+                    }
+                }
+                return true;
+            });
+        }
+    }
+
+    // хранилище сеансов
+    private static final class Schedules implements ScheduleRepository {
+        // общие данные
+        private final MemoryRepository store;
+
+        // конструктор
+        Schedules(final MemoryRepository store) {
+            this.store = store;
+        }
+
+        // количество сеансов фильма в интервале времени
+        @Override
+        public int count(final int movieId, final LocalDateTime from, final LocalDateTime to) {
+            final ScheduleModel[] sessions = this.store.state.sessions(movieId);
+            return Math.max(
+                0,
+                MemoryRepository.bound(sessions, to, sessions.length) - MemoryRepository.bound(sessions, from, 0)
+            );
+        }
+
+        // количество сеансов по всем фильмам
+        @Override
+        public Map<Integer, Integer> countAll() {
+            final Map<Integer, Integer> result = new HashMap<>();
+            this.store.state.byMovie.forEach((movieId, sessions) -> result.put(movieId, sessions.length));
+            return result;
+        }
+
+        // сеанс по идентификатору
+        @Override
+        public ScheduleModel find(final int id) {
+            return this.store.state.scheduleById.get(id);
+        }
+
+        // сеансы по идентификаторам
+        @Override
+        public Map<Integer, ScheduleModel> findAll(final List<Integer> ids) {
+            final State                       state  = this.store.state;
+            final Map<Integer, ScheduleModel> result = new HashMap<>();
+            for (final Integer id : ids) {
+                final ScheduleModel schedule = state.scheduleById.get(id);
+                if (schedule != null) {
+                    result.put(id, schedule);
+                }
+            }
+            return result;
+        }
+
+        // страница сеансов фильма в интервале времени от поздних к ранним
+        @Override
+        public List<ScheduleModel> list(
+            final int           movieId,
+            final LocalDateTime from,
+            final LocalDateTime to,
+            final int           offset,
+            final int           limit
+        ) {
+            final ScheduleModel[] sessions = this.store.state.sessions(movieId);
+            return MemoryRepository.page(
+                sessions,
+                MemoryRepository.bound(sessions, from, 0),
+                MemoryRepository.bound(sessions, to, sessions.length) - 1 - offset,
+                limit
+            );
+        }
+
+        // сеансы фильма в интервале времени, следующие за парой (дата и время, идентификатор)
+        @Override
+        public List<ScheduleModel> list(
+            final int           movieId,
+            final LocalDateTime from,
+            final LocalDateTime to,
+            final LocalDateTime dateAndTime,
+            final int           id,
+            final int           limit
+        ) {
+            final ScheduleModel[] sessions = this.store.state.sessions(movieId);
+            return MemoryRepository.page(
+                sessions,
+                MemoryRepository.bound(sessions, from, 0),
+                Math.min(
+                    MemoryRepository.bound(sessions, to, sessions.length),
+                    MemoryRepository.lowerBound(sessions, dateAndTime, id)
+                ) - 1,
+                limit
+            );
+        }
+
+        // пакетная вставка записей порциями
+        @Override
+        public Batch batch() {
+            return new MemoryBatch(this.store);
+        }
+
+        // вставка сеанса
+        @Override
+        public int insert(final ScheduleModel schedule) throws SQLException {
+            return this.store.change(draft -> {
+                draft.parent(schedule.movieId);
+                return draft.add(schedule);
+            });
+        }
+
+        // изменение сеанса без смены фильма
+        @Override
+        public boolean update(final ScheduleModel schedule) throws SQLException {
+            return this.store.change(draft -> {
+                final ScheduleModel previous = draft.scheduleById.get(schedule.id);
+                if (previous == null || previous.movieId != schedule.movieId) {
+                    return false;
+                }
+                draft.detach(previous);
+                draft.attach(schedule);
+                return true;
+            });
+        }
+
+        // перенос сеанса на другой фильм -- идентификатор сохраняется
+        @Override
+        public Integer move(final ScheduleModel schedule) throws SQLException {
+            return this.store.change(draft -> {
+                final ScheduleModel previous = draft.scheduleById.get(schedule.id);
+                if (previous == null) {
+                    return null;
+                }
+                draft.parent(schedule.movieId);
+                draft.detach(previous);
+                draft.attach(schedule);
+                return previous.movieId;
+            });
+        }
+
+        // удаление сеанса
+        @Override
+        public Integer delete(final int id) throws SQLException {
+            return this.store.change(draft -> {
+                final ScheduleModel previous = draft.scheduleById.get(id);
+                if (previous == null) {
+                    return null;
+                }
+                draft.detach(previous);
+                return previous.movieId;
+            });
+        }
+    }
+
+    // пакетная вставка: порция сохраняется целиком либо не сохраняется вовсе
+    private static final class MemoryBatch implements ScheduleRepository.Batch {
+        // общие данные
+        private final MemoryRepository store;
+
+        // записи текущей порции
+        private final List<ScheduleModel> pending = new ArrayList<>();
+
+        // конструктор
+        MemoryBatch(final MemoryRepository store) {
+            this.store = store;
+        }
+
+        // добавление записи в текущую порцию
+        @Override
+        public void add(final ScheduleModel schedule) {
+            this.pending.add(schedule);
+        }
+
+        // сохранение текущей порции: фильмы всех записей проверяются до вставки первой из них
+        @Override
+        public void flush(final Listener listener) throws SQLException {
+            final Map<Integer, List<Integer>> added;
+            try {
+                added = this.store.change(draft -> {
+                    final Map<Integer, List<Integer>> result = new LinkedHashMap<>();
+                    for (final ScheduleModel schedule : this.pending) {
+                        draft.parent(schedule.movieId);
+                    }
+                    for (final ScheduleModel schedule : this.pending) {
+                        final int id = draft.add(schedule);
+                        result.computeIfAbsent(schedule.movieId, key -> new ArrayList<>()).add(id);
+                    }
+                    return result;
+                });
+            } finally {
+                this.pending.clear();
+            }
+
+            for (final Map.Entry<Integer, List<Integer>> entry : added.entrySet()) {
+                listener.saved(entry.getKey(), entry.getValue());
+            }
+        }
+
+        // отказ от несохраненной порции
+        @Override
+        public void close() {
+            this.pending.clear();
+        }
+    }
+
+    // ключ фильма в списке по году выхода
+    private static long key(final short year, final int id) {
+        return ((long) year << 32) | (id & 0xFFFFFFFFL);
+    }
+
+    // не более limit сеансов, начиная с позиции start к позиции low включительно
+    private static List<ScheduleModel> page(
+        final ScheduleModel[] sessions,
+        final int             low,
+        final int             start,
+        final int             limit
+    ) {
+        final List<ScheduleModel> result = new ArrayList<>(Math.max(0, Math.min(limit, start - low + 1)));
+        for (int i = start; i >= low && result.size() < limit; i--) {
+            result.add(sessions[i]);
+        }
+        return result;
+    }
+
+    // первая позиция сеанса, начинающегося не раньше заданного времени; без времени -- значение по умолчанию
+    private static int bound(final ScheduleModel[] sessions, final LocalDateTime time, final int absent) {
+        if (time == null) {
+            return absent;
+        }
+
+        int low = 0, high = sessions.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            if (sessions[middle].dateAndTime.isBefore(time)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // первая позиция сеанса, следующего не раньше пары (дата и время, идентификатор)
+    private static int lowerBound(final ScheduleModel[] sessions, final LocalDateTime time, final int id) {
+        int low = 0, high = sessions.length;
+        while (low < high) {
+            final int middle = (low + high) >>> 1;
+            final int cmp    = sessions[middle].dateAndTime.compareTo(time);
+            if (cmp < 0 || cmp == 0 && sessions[middle].id < id) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    // проверка фильма перед записью -- ошибки с теми же SQLSTATE и кодом, что и в БД
+    private static void check(final MovieModel movie) throws SQLException {
+        if (movie.title == null) {
+            throw new SQLException(
+                "NULL not allowed for column \"TITLE\"",
+                MemoryRepository.SQLSTATE_NULL_VALUE,
+                Integer.parseInt(MemoryRepository.SQLSTATE_NULL_VALUE)
+            );
+        }
+        if (movie.title.length() > MemoryRepository.MAX_TITLE_LENGTH) {
+            throw new SQLException(
+                "Value too long for column \"TITLE VARCHAR(" + MemoryRepository.MAX_TITLE_LENGTH + ")\"",
+                MemoryRepository.SQLSTATE_TOO_LONG,
+                Integer.parseInt(MemoryRepository.SQLSTATE_TOO_LONG)
+            );
+        }
+    }
+
+    // сохранение снимка данных в файл: пишется состояние на момент начала сохранения во временный файл,
+    // который затем заменяет прежний снимок
+    public void save(final Path path) throws IOException {
+        final State state = this.state;
+
+        final Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(temporary)))
+            )
+        ) {
+            out.writeInt(MemoryRepository.SNAPSHOT_MAGIC);
+            out.writeInt(MemoryRepository.SNAPSHOT_VERSION);
+            out.writeInt(state.lastMovieId);
+            out.writeInt(state.lastScheduleId);
+
+            out.writeInt(state.movieById.size());
+            for (final int id : state.movieById.keys()) {
+                final MovieModel movie = state.movieById.get(id);
+                out.writeInt(movie.id);
+                out.writeUTF(movie.title);
+                out.writeShort(movie.duration);
+                out.writeShort(movie.year);
+            }
+
+            out.writeInt(state.scheduleById.size());
+            for (final int id : state.scheduleById.keys()) {
+                final ScheduleModel schedule = state.scheduleById.get(id);
+                out.writeInt(schedule.id);
+                out.writeInt(schedule.movieId);
+                out.writeLong(schedule.dateAndTime.toEpochSecond(ZoneOffset.UTC));
+                out.writeInt(schedule.dateAndTime.getNano());
+                out.writeByte(schedule.auditorium);
+            }
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // загрузка снимка данных из файла вместо текущих данных: новое состояние собирается целиком
+    // и публикуется, только если снимок прочитан без ошибок
+    public void restore(final Path path) throws IOException {
+        final State state = new State();
+
+        try (
+            DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path)))
+            )
+        ) {
+            if (in.readInt() != MemoryRepository.SNAPSHOT_MAGIC || in.readInt() != MemoryRepository.SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported snapshot format: " + path);
+            }
+
+            state.lastMovieId    = in.readInt();
+            state.lastScheduleId = in.readInt();
+
+            for (int i = in.readInt(); i > 0; i--) {
+                state.put(new MovieModel(in.readInt(), in.readUTF(), in.readShort(), in.readShort()));
+            }
+
+            for (int i = in.readInt(); i > 0; i--) {
+                final int  id      = in.readInt(),
+                           movieId = in.readInt();
+                final long seconds = in.readLong();
+                final int  nanos   = in.readInt();
+                state.attach(new ScheduleModel(
+                    id,
+                    movieId,
+                    LocalDateTime.ofEpochSecond(seconds, nanos, ZoneOffset.UTC),
+                    in.readByte()
+                ));
+            }
+        }
+
+        this.writer.lock();
+        try {
+            this.state = state;
+        } finally {
+            this.writer.unlock();
+        }
+    }
+}
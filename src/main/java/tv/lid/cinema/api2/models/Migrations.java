@@ -0,0 +1,279 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.ResultSetHandler;
+import org.sql2o.Sql2oException;
+
+// версионные миграции схемы БД
+@SuppressWarnings("try")
+public final class Migrations {
+    // имя SQL-таблицы с примененными версиями схемы
+    private static final String TABLE_VERSIONS = "api2_schema_version";
+
+    // форматы строковых дат и времени сеансов, допустимые до перехода на TIMESTAMP
+    private static final List<DateTimeFormatter> LEGACY_FORMATS = Arrays.asList(
+        DateTimeFormatter.ISO_LOCAL_DATE_TIME,
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm[:ss]"),
+        DateTimeFormatter.ofPattern("dd.MM.yyyy HH:mm[:ss]")
+    );
+
+    // формат, в котором H2 преобразует строку в TIMESTAMP без потерь
+    private static final DateTimeFormatter TIMESTAMP_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSSSSSSSS");
+
+    // число строк, приводимых к единому формату за один проход
+    private static final int BATCH_SIZE = 1000;
+
+    // шаг миграции
+    @FunctionalInterface
+    private static interface Step {
+        void apply(Connection con) throws SQLException;
+    }
+
+    // миграция на заданную версию
+    private static final class Migration {
+        final int    version;     // версия схемы после применения
+        final String description; // описание изменений
+        final Step   step;        // изменения схемы
+
+        Migration(final int version, final String description, final Step step) {
+            this.version     = version;
+            this.description = description;
+            this.step        = step;
+        }
+    }
+
+    // все миграции в порядке возрастания версий
+    private static final List<Migration> MIGRATIONS = Arrays.asList(
+        // схема версии 1 не меняется: таблицы в том виде, в каком их создавали до появления миграций
+        new Migration(1, "Base tables", con -> {
+            con.createQuery(
+                "CREATE TABLE IF NOT EXISTS api2_movies (" +
+                "id INT NOT NULL IDENTITY, " +
+                "title VARCHAR(300) NOT NULL, " +
+                "duration SMALLINT NOT NULL, " +
+                "year SMALLINT NOT NULL)"
+            ).executeUpdate();
+            con.createQuery(
+                "CREATE TABLE IF NOT EXISTS api2_schedules (" +
+                "id INT NOT NULL IDENTITY, " +
+                "movie_id INT NOT NULL, " +
+                "date_time VARCHAR(50) NOT NULL, " +
+                "auditorium TINYINT NOT NULL, " +
+                "FOREIGN KEY(movie_id) REFERENCES api2_movies(id) ON DELETE CASCADE)"
+            ).executeUpdate();
+        }),
+        new Migration(2, "Indexes for ordered and keyset lists", con -> {
+            con.createQuery(
+                "CREATE INDEX IF NOT EXISTS api2_movies_year_id ON " + MovieModel.tableName() +
+                " (year DESC, id DESC)"
+            ).executeUpdate();
+            con.createQuery(
+                "CREATE INDEX IF NOT EXISTS api2_schedules_movie_date_id ON " + ScheduleModel.tableName() +
+                " (movie_id DESC, date_time DESC, id DESC)"
+            ).executeUpdate();
+        }),
+        new Migration(3, "Typed schedule start times", Migrations::scheduleTimestamps)
+    );
+
+    private Migrations() {}
+
+    // последняя известная версия схемы
+    public static int latest() {
+        return Migrations.MIGRATIONS.get(Migrations.MIGRATIONS.size() - 1).version;
+    }
+
+    // текущая версия схемы в БД -- наименьшая по сегментам, 0 -- если миграции не применялись
+    public static int current() throws SQLException {
+        int version = Integer.MAX_VALUE;
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard)) {
+                version = Math.min(version, Migrations.version());
+            }
+        }
+        return version;
+    }
+
+    // текущая версия схемы в БД текущего сегмента
+    private static int version() throws SQLException {
+        Connection con = Shards.sql2o().open();
+        try {
+            Migrations.createTable(con);
+            Integer version = con.createQuery(
+                "SELECT MAX(version) FROM " + Migrations.TABLE_VERSIONS
+            ).executeScalar(Integer.class);
+            return version != null ? version.intValue() : 0;
+        } catch (Sql2oException exc) {
+            throw new SQLException(exc);
+        } finally {
+            con.close();
+        }
+    }
+
+    // применение всех недостающих миграций в каждом сегменте и согласование в нем счетчиков идентификаторов,
+    // возвращает итоговую версию схемы
+    public static int migrate() throws SQLException {
+        int version = 0;
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard)) {
+                version = Migrations.apply();
+                Shards.align();
+            }
+        }
+        return version;
+    }
+
+    // применение всех недостающих миграций в текущем сегменте: шаг и запись его версии -- в одной транзакции;
+    // изменение схемы в H2 фиксирует транзакцию, поэтому шаг должен допускать повторное применение после сбоя
+    private static int apply() throws SQLException {
+        int version = Migrations.version();
+
+        for (final Migration migration : Migrations.MIGRATIONS) {
+            if (migration.version <= version) {
+                continue;
+            }
+
+            Connection con = Shards.sql2o().beginTransaction();
+            try {
+                migration.step.apply(con);
+                con.createQuery(
+                    "INSERT INTO " + Migrations.TABLE_VERSIONS +
+                    " (version, description) VALUES (:version, :description)"
+                )
+                .addParameter("version",     migration.version)
+                .addParameter("description", migration.description)
+                .executeUpdate();
+                con.commit();
+            } catch (Sql2oException exc) {
+                con.rollback();
+                throw new SQLException("Migration to version " + migration.version + " failed", exc);
+            } catch (SQLException exc) {
+                con.rollback();
+                throw exc;
+            }
+            version = migration.version;
+        }
+
+        return version;
+    }
+
+    // удаление таблиц всех моделей и журнала версий во всех сегментах
+    public static void reset() throws SQLException {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard)) {
+                Migrations.drop();
+            }
+        }
+    }
+
+    // удаление таблиц всех моделей и журнала версий в текущем сегменте
+    private static void drop() throws SQLException {
+        ScheduleModel.dropTable();
+        MovieModel.dropTable();
+
+        Connection con = Shards.sql2o().open();
+        try {
+            con.createQuery("DROP TABLE IF EXISTS " + Migrations.TABLE_VERSIONS).executeUpdate();
+        } catch (Sql2oException exc) {
+            throw new SQLException(exc);
+        } finally {
+            con.close();
+        }
+    }
+
+    // перевод даты и времени сеансов из VARCHAR в TIMESTAMP с приведением строк к единому формату; строки
+    // читаются порциями по возрастанию идентификатора, чтобы не держать в памяти всю таблицу
+    private static void scheduleTimestamps(final Connection con) throws SQLException {
+        final Query select = con.createQuery(
+            "SELECT id, date_time FROM " + ScheduleModel.tableName() + " WHERE id > :after ORDER BY id LIMIT :limit"
+        );
+        final Query update = con.createQuery(
+            "UPDATE " + ScheduleModel.tableName() + " SET date_time = :date_time WHERE id = :id"
+        );
+
+        final List<Integer> invalid = new ArrayList<>(); // не более 21 -- для сообщения об ошибке
+        final int[]         after   = {0};                // идентификатор последней прочитанной строки
+        int                 fetched;
+        do {
+            // разбираем ранее сохраненные строки
+            final Map<Integer, String>   values  = new LinkedHashMap<>();
+            final ResultSetHandler<Void> handler = (ResultSet rs) -> {
+                final int           id    = rs.getInt(1);
+                final LocalDateTime value = Migrations.parseLegacy(rs.getString(2));
+                if (value != null) {
+                    values.put(id, Migrations.TIMESTAMP_FORMAT.format(value));
+                } else if (invalid.size() <= 20) {
+                    invalid.add(id);
+                }
+                after[0] = id;
+                return null;
+            };
+            fetched = select
+                .addParameter("after", after[0])
+                .addParameter("limit", Migrations.BATCH_SIZE)
+                .executeAndFetch(handler)
+                .size();
+
+            // записываем строки в едином формате -- при ошибке транзакция откатывается
+            if (invalid.isEmpty() && !values.isEmpty()) {
+                for (final Map.Entry<Integer, String> entry : values.entrySet()) {
+                    update
+                        .addParameter("date_time", entry.getValue())
+                        .addParameter("id",        entry.getKey())
+                        .addToBatch();
+                }
+                update.executeBatch();
+            }
+        } while (fetched == Migrations.BATCH_SIZE);
+
+        if (!invalid.isEmpty()) {
+            throw new SQLException(
+                "Unparseable schedule date and time, fix or remove rows with id " +
+                invalid.subList(0, Math.min(invalid.size(), 20)) + (invalid.size() > 20 ? "..." : "")
+            );
+        }
+
+        con.createQuery(
+            "ALTER TABLE " + ScheduleModel.tableName() + " ALTER COLUMN date_time TIMESTAMP NOT NULL"
+        ).executeUpdate();
+    }
+
+    // разбор строки даты и времени в одном из допустимых ранее форматов либо в едином формате, к которому строки
+    // приводит миграция, -- если она прервалась до изменения схемы, null -- если не удалось
+    private static LocalDateTime parseLegacy(final String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return LocalDateTime.parse(value.trim(), Migrations.TIMESTAMP_FORMAT);
+        } catch (DateTimeParseException exc) {}
+        for (final DateTimeFormatter format : Migrations.LEGACY_FORMATS) {
+            try {
+                return LocalDateTime.parse(value.trim(), format);
+            } catch (DateTimeParseException exc) {}
+        }
+        return null;
+    }
+
+    // создание журнала версий
+    private static void createTable(final Connection con) {
+        con.createQuery(
+            "CREATE TABLE IF NOT EXISTS " + Migrations.TABLE_VERSIONS + " (" +
+            "version INT NOT NULL PRIMARY KEY, " +
+            "description VARCHAR(200) NOT NULL, " +
+            "applied_at TIMESTAMP NOT NULL DEFAULT CURRENT_TIMESTAMP)"
+        ).executeUpdate();
+    }
+}
@@ -1,18 +1,39 @@
 package tv.lid.cinema.api2.models;
 
+import java.io.IOException;
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
-
-import org.sql2o.Connection;
+import com.fasterxml.jackson.annotation.JsonUnwrapped;
 
 // класс модели кинофильма
 public class MovieModel extends CommonModel {
     // имя SQL-таблицы с фильмами
     private static final String TABLE_MOVIES = "api2_movies";
 
+    // кэш записей по идентификатору
+    private static final EntityCache<MovieModel> CACHE = new EntityCache<>(MovieModel::load);
+
+    // фильм вместе с его сеансами
+    public static final class WithSchedules {
+        @JsonUnwrapped
+        public final MovieModel movie; // фильм
+
+        public final List<ScheduleModel> schedules; // сеансы
+
+        // конструктор
+        public WithSchedules(final MovieModel movie, final List<ScheduleModel> schedules) {
+            this.movie     = movie;
+            this.schedules = schedules;
+        }
+    }
+
     // название
     @JsonProperty(value = "title", required = true)
     public final String title;
@@ -49,25 +70,9 @@ public class MovieModel extends CommonModel {
         this(0, title, duration, year);
     }
 
-    // создание таблицы в БД
-    public static void createTable() throws SQLException {
-        CommonModel.sql2o
-            .open()
-            .createQuery(
-                "CREATE TABLE IF NOT EXISTS " + MovieModel.TABLE_MOVIES + " (" +
-                "id INT NOT NULL IDENTITY, " +
-                "title VARCHAR(300) NOT NULL, " +
-                "duration SMALLINT NOT NULL, " + 
-                "year SMALLINT NOT NULL)"
-            )
-            .executeUpdate()
-            .close();
-    }
-
     // удаление таблицы из БД
     public static void dropTable() throws SQLException {
-        CommonModel.sql2o
-            .open()
+        CommonModel.open()
             .createQuery("DROP TABLE IF EXISTS " + MovieModel.TABLE_MOVIES)
             .executeUpdate()
             .close();
@@ -78,82 +83,133 @@ public class MovieModel extends CommonModel {
         return MovieModel.TABLE_MOVIES;
     }
 
-    // подсчет количества записей в БД
+    // подсчет количества записей в хранилище
     public static int count() throws SQLException {
-        Connection con = CommonModel.sql2o.open();
-        Integer    cnt = con.createQuery(
-            "SELECT COUNT(*) FROM " + MovieModel.TABLE_MOVIES
-        ).executeScalar(Integer.class);
-        con.close();
-        return cnt.intValue();
+        return Repositories.movies().count();
+    }
+
+    // количество записей по счетчику в памяти, а до его заполнения -- по хранилищу
+    public static int total() throws SQLException {
+        return Counters.seeded() ? Counters.movies() : MovieModel.count();
+    }
+
+    // множество идентификаторов всех записей в хранилище
+    public static Set<Integer> ids() throws SQLException {
+        return Repositories.movies().ids();
     }
 
-    // проверка существования в БД записи с заданным идентификатором
+    // проверка существования записи с заданным идентификатором
     public static boolean exists(final int id) throws SQLException {
-        Connection con = CommonModel.sql2o.open();
-        Integer    cnt = con.createQuery(
-            "SELECT COUNT(*) FROM " + MovieModel.TABLE_MOVIES + " WHERE id = :id"
-        ).addParameter("id", id).executeScalar(Integer.class);
-        con.close();
-        return cnt.intValue() != 0;
+        return MovieModel.find(id) != null;
     }
 
-    // чтение записи из БД по заданному идентификатору
+    // чтение записи по заданному идентификатору из кэша либо из хранилища
     public static MovieModel find(final int id) throws SQLException {
-        Connection con    = CommonModel.sql2o.open();
-        MovieModel result = con.createQuery(
-            "SELECT id, title, duration, year FROM " + MovieModel.TABLE_MOVIES + " WHERE id = :id"
-        ).addParameter("id", id).executeAndFetchFirst(MovieModel.class);
-        con.close();
-        return result;
+        return MovieModel.CACHE.get(id);
+    }
+
+    // чтение записей по заданным идентификаторам из кэша либо из хранилища одним обращением,
+    // отсутствующих в результате нет
+    public static Map<Integer, MovieModel> findAll(final Collection<Integer> ids) throws SQLException {
+        return MovieModel.CACHE.getAll(ids, MovieModel::loadAll);
+    }
+
+    // кэш записей по идентификатору
+    public static EntityCache<MovieModel> cache() {
+        return MovieModel.CACHE;
     }
 
-    // получить список записей из БД с постраничным выводом
+    // чтение записи из хранилища по заданному идентификатору
+    private static MovieModel load(final int id) throws SQLException {
+        return Repositories.movies().find(id);
+    }
+
+    // чтение записей из хранилища по заданным идентификаторам
+    private static Map<Integer, MovieModel> loadAll(final List<Integer> ids) throws SQLException {
+        return Repositories.movies().findAll(ids);
+    }
+
+    // чтение записи вместе с не более чем limit сеансами, начинающимися не раньше from, null -- если записи нет
+    public static WithSchedules findWithSchedules(
+        final int           id,
+        final LocalDateTime from,
+        final int           limit
+    ) throws SQLException {
+        return Repositories.movies().findWithSchedules(id, from, limit);
+    }
+
+    // получить список записей из хранилища с постраничным выводом
     public static List<MovieModel> list(final int page, final int numb) throws SQLException {
-        Connection       con    = CommonModel.sql2o.open();
-        List<MovieModel> result = con.createQuery(
-            "SELECT id, title, duration, year FROM " + MovieModel.TABLE_MOVIES + " ORDER BY year DESC LIMIT :limit OFFSET :offset"
-        )
-        .addParameter("limit",  numb)
-        .addParameter("offset", (page - 1) * numb)
-        .executeAndFetch(MovieModel.class);
-        con.close();
-        return result;
-    }
-
-    // удаление записи из БД по заданному идентификатору
-    public static void kill(final int id) throws SQLException {
-        CommonModel.sql2o
-            .open()
-            .createQuery("DELETE FROM " + MovieModel.TABLE_MOVIES + " WHERE id = :id")
-            .addParameter("id", id)
-            .executeUpdate()
-            .close();
+        return Repositories.movies().list((page - 1) * numb, numb);
+    }
+
+    // получить список записей из хранилища, следующих за заданной парой (год, идентификатор)
+    public static List<MovieModel> list(final short year, final int id, final int numb) throws SQLException {
+        return Repositories.movies().list(year, id, numb);
+    }
+
+    // потоковое чтение всех записей из хранилища без накопления списка
+    public static void export(final int fetchSize, final Sink<MovieModel> sink) throws SQLException, IOException {
+        Repositories.movies().export(fetchSize, sink);
+    }
+
+    // то же вместе с сеансами каждого фильма; в памяти удерживаются только сеансы текущего фильма
+    public static void exportWithSchedules(
+        final int                 fetchSize,
+        final Sink<WithSchedules> sink
+    ) throws SQLException, IOException {
+        Repositories.movies().exportWithSchedules(fetchSize, sink);
+    }
+
+    // удаление записи из хранилища по заданному идентификатору, false -- если записи не было
+    public static boolean kill(final int id) throws SQLException {
+        final boolean deleted = Counters.change(() -> {
+            if (!Repositories.movies().delete(id)) {
+                return false;
+            }
+            Counters.movieRemoved(id);
+            return true;
+        });
+        if (!deleted) {
+            return false;
+        }
+        MovieModel.CACHE.invalidate(id);
+        ScheduleModel.cache().invalidateIf(schedule -> schedule.movieId == id); // каскадно удаленные сеансы
+        Versions.movieRemoved(id);
+        return true;
+    }
+
+    // сохранение списка новых записей в хранилище одной транзакцией, возвращает идентификаторы в порядке следования
+    public static List<Integer> saveAll(final List<MovieModel> movies) throws SQLException {
+        final List<Integer> ids = Counters.change(() -> {
+            final List<Integer> inserted = Repositories.movies().insertAll(movies);
+            Counters.moviesAdded(inserted.size());
+            return inserted;
+        });
+        MovieModel.CACHE.invalidateAll(ids);
+        Versions.moviesAdded();
+        return ids;
     }
 
-    // сохранение данной записи в БД
-    public void save() throws SQLException {
-        Connection con = CommonModel.sql2o.open();
+    // сохранение данной записи в хранилище, возвращает ее идентификатор либо 0 -- если изменяемой записи не было
+    public int save() throws SQLException {
         if (this.id == 0) { // создание новой
-            con.createQuery(
-                "INSERT INTO " + MovieModel.TABLE_MOVIES +
-                " (title, duration, year) VALUES (:title, :duration, :year)"
-            )
-            .addParameter("title",    this.title)
-            .addParameter("duration", this.duration)
-            .addParameter("year",     this.year)
-            .executeUpdate();
+            final int id = Counters.change(() -> {
+                final int inserted = Repositories.movies().insert(this);
+                Counters.movieAdded();
+                return inserted;
+            });
+            MovieModel.CACHE.invalidate(id);
+            Versions.moviesAdded();
+            return id;
         } else { // изменение ранее созданной
-            con.createQuery(
-                "UPDATE " + MovieModel.TABLE_MOVIES +
-                " SET title = :title, duration = :duration, year = :year WHERE id = :id"
-            )
-            .addParameter("title",    this.title)
-            .addParameter("duration", this.duration)
-            .addParameter("year",     this.year)
-            .addParameter("id",       this.id)
-            .executeUpdate();
-        };
-        con.close();
+            final boolean updated = Repositories.movies().update(this);
+            MovieModel.CACHE.invalidate(this.id);
+            if (!updated) {
+                return 0;
+            }
+            Versions.movieChanged(this.id);
+            return this.id;
+        }
     }
 }
@@ -0,0 +1,53 @@
+package tv.lid.cinema.api2.models;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// хранилище фильмов: только чтение и запись данных, кэш, счетчики и версии ведет модель
+public interface MovieRepository {
+    // количество записей
+    int count() throws SQLException;
+
+    // множество идентификаторов всех записей
+    Set<Integer> ids() throws SQLException;
+
+    // запись по идентификатору, null -- если ее нет
+    MovieModel find(int id) throws SQLException;
+
+    // записи по идентификаторам, отсутствующих в результате нет
+    Map<Integer, MovieModel> findAll(List<Integer> ids) throws SQLException;
+
+    // запись вместе с не более чем limit сеансами, начинающимися не раньше from, null -- если записи нет
+    MovieModel.WithSchedules findWithSchedules(int id, LocalDateTime from, int limit) throws SQLException;
+
+    // не более limit записей по году выхода и идентификатору от новых к старым, начиная с offset
+    List<MovieModel> list(int offset, int limit) throws SQLException;
+
+    // не более limit записей в том же порядке, следующих за парой (год, идентификатор)
+    List<MovieModel> list(short year, int id, int limit) throws SQLException;
+
+    // потоковое чтение всех записей
+    void export(int fetchSize, CommonModel.Sink<MovieModel> sink) throws SQLException, IOException;
+
+    // то же вместе с сеансами каждого фильма
+    void exportWithSchedules(
+        int                                        fetchSize,
+        CommonModel.Sink<MovieModel.WithSchedules> sink
+    ) throws SQLException, IOException;
+
+    // вставка записи, возвращает ее идентификатор
+    int insert(MovieModel movie) throws SQLException;
+
+    // вставка списка записей одной транзакцией, возвращает идентификаторы в порядке следования
+    List<Integer> insertAll(List<MovieModel> movies) throws SQLException;
+
+    // изменение записи, false -- если ее нет
+    boolean update(MovieModel movie) throws SQLException;
+
+    // удаление записи вместе с ее сеансами, false -- если ее нет
+    boolean delete(int id) throws SQLException;
+}
@@ -0,0 +1,298 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// трассировка запросов моделей: время по фазам (получение соединения, выполнение, чтение результата),
+// самые медленные запросы за скользящее окно и асинхронный журнал запросов дольше порога с планом EXPLAIN
+public final class QueryLog {
+    // журнал медленных запросов
+    private static final Logger LOG = LoggerFactory.getLogger(QueryLog.class);
+
+    // дефолтные параметры
+    private static final long    DEFAULT_THRESHOLD = 100;  // порог медленного запроса в мс, 0 -- журнал отключен
+    private static final int     DEFAULT_TOP_SIZE  = 20;   // самых медленных запросов в окне, 0 -- не отслеживаются
+    private static final long    DEFAULT_WINDOW    = 300;  // длительность окна в секундах
+    private static final boolean DEFAULT_EXPLAIN   = true;  // прикладывать план выполнения к медленным запросам
+    private static final boolean DEFAULT_PARAMS    = false; // показывать значения параметров запросов
+
+    // очередь журнала -- при переполнении записи отбрасываются, чтобы не задерживать запросы
+    private static final int QUEUE_SIZE = 1000;
+
+    // текущие параметры
+    private static volatile long    threshold = TimeUnit.MILLISECONDS.toNanos(QueryLog.DEFAULT_THRESHOLD);
+    private static volatile int     topSize   = QueryLog.DEFAULT_TOP_SIZE;
+    private static volatile long    window    = TimeUnit.SECONDS.toNanos(QueryLog.DEFAULT_WINDOW);
+    private static volatile boolean explain   = QueryLog.DEFAULT_EXPLAIN;
+    private static volatile boolean params    = QueryLog.DEFAULT_PARAMS;
+
+    // запросов дольше порога в метриках
+    private static final LongAdder SLOW = Metrics.counter(
+        "api2_db_slow_queries_total",
+        "Model queries slower than the slow-query threshold"
+    );
+
+    // запросов, не попавших в журнал из-за переполнения очереди
+    private static final LongAdder DROPPED = new LongAdder();
+
+    // поток журнала
+    private static final ThreadPoolExecutor writer = new ThreadPoolExecutor(
+        1, 1, 0, TimeUnit.MILLISECONDS,
+        new ArrayBlockingQueue<>(QueryLog.QUEUE_SIZE),
+        runnable -> {
+            final Thread thread = new Thread(runnable, "slow-query-log");
+            thread.setDaemon(true);
+            return thread;
+        },
+        (runnable, executor) -> QueryLog.DROPPED.increment()
+    );
+
+    // выполненный запрос
+    public static final class Entry {
+        public final String       caller;        // метод модели
+        public final int          shard;         // сегмент БД, в котором выполнен запрос
+        public final String       sql;           // текст запроса
+        public final List<String> params;        // значения параметров по порядку, скрытые -- "?"
+        public final long         at;            // момент завершения, мс от начала эпохи
+        public final long         acquireMicros; // получение соединения, мкс
+        public final long         executeMicros; // выполнение запроса, мкс
+        public final long         mapMicros;     // чтение результата в объекты, мкс
+        public final long         totalMicros;   // всего, мкс
+
+        // план выполнения, заполняется асинхронно для медленных запросов
+        public volatile String plan = null;
+
+        // продолжительность в нс -- для упорядочения
+        private final long total;
+
+        // конструктор
+        private Entry(
+            final String   caller,
+            final int      shard,
+            final String   sql,
+            final Object[] params,
+            final long     acquire,
+            final long     execute,
+            final long     map
+        ) {
+            this.caller        = caller;
+            this.shard         = shard;
+            this.sql           = sql;
+            this.params        = Arrays.stream(params).map(QueryLog::format).collect(Collectors.toList());
+            this.at            = System.currentTimeMillis();
+            this.acquireMicros = TimeUnit.NANOSECONDS.toMicros(acquire);
+            this.executeMicros = TimeUnit.NANOSECONDS.toMicros(execute);
+            this.mapMicros     = TimeUnit.NANOSECONDS.toMicros(map);
+            this.totalMicros   = TimeUnit.NANOSECONDS.toMicros(acquire + execute + map);
+            this.total         = acquire + execute + map;
+        }
+    }
+
+    // значение параметра для журнала -- массив поэлементно; без разрешения показывать значения -- только "?",
+    // т.к. журнал и /admin/queries могут увидеть те, кому данные запросов не предназначены
+    private static String format(final Object value) {
+        if (!QueryLog.params) {
+            return "?";
+        }
+        return value instanceof Object[] ? Arrays.toString((Object[]) value) : String.valueOf(value);
+    }
+
+    // самые медленные запросы, завершенные в пределах одного окна
+    private static final class Window {
+        final long                 start; // начало окна по System.nanoTime()
+        final PriorityQueue<Entry> heap  = new PriorityQueue<>(Comparator.comparingLong((Entry e) -> e.total));
+
+        // продолжительность самого быстрого из удерживаемых запросов, когда набор полон, иначе 0
+        volatile long floor = 0;
+
+        Window(final long start) {
+            this.start = start;
+        }
+
+        // добавление запроса с вытеснением самого быстрого
+        synchronized void offer(final Entry entry, final int size) {
+            this.heap.add(entry);
+            while (this.heap.size() > size) {
+                this.heap.poll();
+            }
+            this.floor = this.heap.size() >= size ? this.heap.peek().total : 0;
+        }
+
+        // копия содержимого
+        synchronized List<Entry> entries() {
+            return new ArrayList<>(this.heap);
+        }
+    }
+
+    // текущее и предыдущее окна
+    private static volatile Window current  = new Window(System.nanoTime()),
+                                   previous = new Window(System.nanoTime());
+
+    // сведения о самых медленных запросах
+    public static final class Statistics {
+        public final long        thresholdMillis; // порог медленного запроса, мс
+        public final long        windowSeconds;   // длительность окна, с
+        public final long        slow;            // всего запросов дольше порога
+        public final long        dropped;         // не попало в журнал из-за переполнения очереди
+        public final List<Entry> slowest;         // самые медленные запросы за текущее и предыдущее окна
+
+        // конструктор
+        public Statistics(
+            final long        thresholdMillis,
+            final long        windowSeconds,
+            final long        slow,
+            final long        dropped,
+            final List<Entry> slowest
+        ) {
+            this.thresholdMillis = thresholdMillis;
+            this.windowSeconds   = windowSeconds;
+            this.slow            = slow;
+            this.dropped         = dropped;
+            this.slowest         = slowest;
+        }
+    }
+
+    private QueryLog() {}
+
+    // настройка: порог в мс, размер набора самых медленных, окно в секундах, признаки EXPLAIN и показа параметров
+    public static synchronized void configure(
+        final long    threshold,
+        final int     topSize,
+        final long    window,
+        final boolean explain,
+        final boolean params
+    ) {
+        QueryLog.threshold = TimeUnit.MILLISECONDS.toNanos(threshold);
+        QueryLog.topSize   = topSize;
+        QueryLog.window    = TimeUnit.SECONDS.toNanos(window);
+        QueryLog.explain   = explain;
+        QueryLog.params    = params;
+
+        QueryLog.previous = new Window(System.nanoTime());
+        QueryLog.current  = new Window(System.nanoTime());
+    }
+
+    // учет выполненного запроса; время фаз в нс
+    static void record(
+        final String   caller,
+        final String   sql,
+        final Object[] params,
+        final long     acquire,
+        final long     execute,
+        final long     map
+    ) {
+        final long total = acquire + execute + map;
+        final long now   = System.nanoTime();
+
+        // смена окна
+        Window window = QueryLog.current;
+        if (now - window.start > QueryLog.window) {
+            synchronized (QueryLog.class) {
+                if (QueryLog.current == window) {
+                    QueryLog.previous = window;
+                    QueryLog.current  = new Window(now);
+                }
+                window = QueryLog.current;
+            }
+        }
+
+        final boolean slow = QueryLog.threshold > 0 && total >= QueryLog.threshold;
+        final boolean top  = QueryLog.topSize > 0 && total > window.floor;
+        if (!slow && !top) {
+            return; // обычный путь -- без выделения памяти и блокировок
+        }
+
+        final Entry entry = new Entry(caller, Shards.current(), sql, params, acquire, execute, map);
+        if (top) {
+            window.offer(entry, QueryLog.topSize);
+        }
+        if (slow) {
+            QueryLog.SLOW.increment();
+            QueryLog.writer.execute(() -> QueryLog.write(entry, params));
+        }
+    }
+
+    // запись медленного запроса в журнал -- в потоке журнала; план не запрашивается, если запрос в основном
+    // ждал соединения: план ничего не объяснит, а лишнее соединение из перегруженного пула только добавит ожидания
+    private static void write(final Entry entry, final Object[] params) {
+        if (QueryLog.explain && entry.acquireMicros < entry.executeMicros + entry.mapMicros) {
+            try {
+                entry.plan = QueryLog.explain(entry.shard, entry.sql, params);
+            } catch (Exception exc) {
+                entry.plan = "EXPLAIN failed: " + exc.getMessage();
+            }
+        }
+
+        QueryLog.LOG.warn(
+            "Slow query {} on shard {}: {} ms (acquire {} us, execute {} us, map {} us) {} {}{}",
+            entry.caller,
+            entry.shard,
+            entry.totalMicros / 1000,
+            entry.acquireMicros,
+            entry.executeMicros,
+            entry.mapMicros,
+            entry.sql,
+            entry.params,
+            entry.plan != null ? "\n" + entry.plan : ""
+        );
+    }
+
+    // план выполнения запроса с теми же параметрами -- в отдельном соединении из пула того сегмента, в котором
+    // выполнялся запрос: поток журнала своего текущего сегмента не имеет
+    private static String explain(final int shard, final String sql, final Object[] params) throws SQLException {
+        try (
+            Connection        con = Shards.dataSource(shard).getConnection();
+            PreparedStatement ps  = con.prepareStatement("EXPLAIN " + sql)
+        ) {
+            for (int i = 0; i < params.length; i++) {
+                ps.setObject(i + 1, params[i]);
+            }
+
+            final StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    plan.append(rs.getString(1)).append('\n');
+                }
+            }
+            return plan.toString().trim();
+        }
+    }
+
+    // самые медленные запросы за текущее и предыдущее окна, по убыванию продолжительности;
+    // окна, начатые раньше двух длительностей окна назад, не учитываются
+    public static Statistics statistics() {
+        final long        now     = System.nanoTime();
+        final List<Entry> slowest = new ArrayList<>();
+        for (final Window window : new Window[] {QueryLog.current, QueryLog.previous}) {
+            if (now - window.start <= 2 * QueryLog.window) {
+                slowest.addAll(window.entries());
+            }
+        }
+        slowest.sort(Comparator.comparingLong((Entry e) -> e.total).reversed());
+
+        return new Statistics(
+            TimeUnit.NANOSECONDS.toMillis(QueryLog.threshold),
+            TimeUnit.NANOSECONDS.toSeconds(QueryLog.window),
+            QueryLog.SLOW.sum(),
+            QueryLog.DROPPED.sum(),
+            slowest.subList(0, Math.min(slowest.size(), QueryLog.topSize))
+        );
+    }
+}
@@ -0,0 +1,28 @@
+package tv.lid.cinema.api2.models;
+
+// хранилища, к которым обращаются модели: по умолчанию -- SQL-таблицы в БД сегментов
+public final class Repositories {
+    // хранилище фильмов
+    private static volatile MovieRepository movies = new SqlMovieRepository();
+
+    // хранилище сеансов
+    private static volatile ScheduleRepository schedules = new SqlScheduleRepository();
+
+    private Repositories() {}
+
+    // замена хранилищ -- до начала обслуживания запросов
+    public static void use(final MovieRepository movies, final ScheduleRepository schedules) {
+        Repositories.movies    = movies;
+        Repositories.schedules = schedules;
+    }
+
+    // хранилище фильмов
+    static MovieRepository movies() {
+        return Repositories.movies;
+    }
+
+    // хранилище сеансов
+    static ScheduleRepository schedules() {
+        return Repositories.schedules;
+    }
+}
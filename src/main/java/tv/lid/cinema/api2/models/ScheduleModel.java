@@ -1,39 +1,106 @@
 package tv.lid.cinema.api2.models;
 
 import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 
-import org.sql2o.Connection;
-
 // класс модели киносеанса
 @JsonIgnoreProperties(value = "movieId", allowSetters = true)
 public class ScheduleModel extends CommonModel {
     // имя SQL-таблицы с сеансами
     private static final String TABLE_SCHEDULES = "api2_schedules";
 
+    // кэш записей по идентификатору
+    private static final EntityCache<ScheduleModel> CACHE = new EntityCache<>(ScheduleModel::load);
+
     // идентификатор фильма
     @JsonProperty(value = "movieId", required = true)
     public final int movieId;
 
     // дата и время начала
     @JsonProperty(value = "dateAndTime", required = true)
-    public final String dateAndTime;
+    public final LocalDateTime dateAndTime;
 
     // номер зала
     @JsonProperty(value = "auditorium", required = false, defaultValue = "1")
     public final byte auditorium;
 
+    // потоковая вставка записей в хранилище порциями, каждая порция -- отдельной транзакцией
+    public static final class Importer implements AutoCloseable {
+        // размер порции
+        private final int chunkSize;
+
+        // пакетная вставка в хранилище
+        private final ScheduleRepository.Batch batch;
+
+        // записей в текущей порции
+        private int pending = 0;
+
+        // всего сохранено записей
+        private int imported = 0;
+
+        // конструктор
+        private Importer(final int chunkSize) throws SQLException {
+            this.chunkSize = chunkSize;
+            this.batch     = Repositories.schedules().batch();
+        }
+
+        // добавление записи в текущую порцию
+        public void add(final ScheduleModel schedule) throws SQLException {
+            this.batch.add(schedule);
+
+            if (++this.pending == this.chunkSize) {
+                this.flush();
+            }
+        }
+
+        // сохранение текущей порции
+        public void flush() throws SQLException {
+            if (this.pending == 0) {
+                return;
+            }
+            this.pending = 0;
+
+            Counters.change(() -> {
+                this.batch.flush((int movieId, List<Integer> ids) -> {
+                    ScheduleModel.CACHE.invalidateAll(ids);
+                    Counters.schedulesAdded(movieId, ids.size());
+                    Versions.schedulesAdded(movieId);
+                    this.imported += ids.size();
+                });
+                return null;
+            });
+        }
+
+        // всего сохранено записей
+        public int imported() {
+            return this.imported;
+        }
+
+        // сохранение последней порции и освобождение ресурсов хранилища
+        @Override
+        public void close() throws SQLException {
+            try {
+                this.flush();
+            } finally {
+                this.batch.close();
+            }
+        }
+    }
+
     // конструктор #1 -- используется для создания экземпляра из входящего запроса
     @JsonCreator
     public ScheduleModel(
-        @JsonProperty("id")          final int    id,
-        @JsonProperty("movieId")     final int    movieId,
-        @JsonProperty("dateAndTime") final String dateAndTime,
-        @JsonProperty("auditorium")  final byte   auditorium
+        @JsonProperty("id")          final int           id,
+        @JsonProperty("movieId")     final int           movieId,
+        @JsonProperty("dateAndTime") final LocalDateTime dateAndTime,
+        @JsonProperty("auditorium")  final byte          auditorium
     ) {
         super(id);
 
@@ -44,33 +111,16 @@ public class ScheduleModel extends CommonModel {
 
     // конструктор #2 -- используется для создания экземпляра с нуля
     public ScheduleModel(
-        final int    movieId,
-        final String dateAndTime,
-        final byte   auditorium
+        final int           movieId,
+        final LocalDateTime dateAndTime,
+        final byte          auditorium
     ) {
         this(0, movieId, dateAndTime, auditorium);
     }
 
-    // создание таблицы в БД
-    public static void createTable() throws SQLException {
-        CommonModel.sql2o
-            .open()
-            .createQuery(
-                "CREATE TABLE IF NOT EXISTS " + ScheduleModel.TABLE_SCHEDULES + " (" +
-                "id INT NOT NULL IDENTITY, " +
-                "movie_id INT NOT NULL, " + 
-                "date_time VARCHAR(50) NOT NULL, " +
-                "auditorium TINYINT NOT NULL, " +
-                "FOREIGN KEY(movie_id) REFERENCES " + MovieModel.tableName() + "(id) ON DELETE CASCADE)"
-            )
-            .executeUpdate()
-            .close();
-    }
-
     // удаление таблицы из БД
     public static void dropTable() throws SQLException {
-        CommonModel.sql2o
-            .open()
+        CommonModel.open()
             .createQuery("DROP TABLE IF EXISTS " + ScheduleModel.TABLE_SCHEDULES)
             .executeUpdate()
             .close();
@@ -81,89 +131,141 @@ public class ScheduleModel extends CommonModel {
         return ScheduleModel.TABLE_SCHEDULES;
     }
 
-    // подсчет количества записей в БД по заданному идентификатору фильма
+    // подсчет количества записей в хранилище по заданному идентификатору фильма
     public static int count(final int movieId) throws SQLException {
-        Connection con = CommonModel.sql2o.open();
-        Integer    cnt = con.createQuery(
-            "SELECT COUNT(*) FROM " + ScheduleModel.TABLE_SCHEDULES + " WHERE movie_id = :movie_id"
-        ).addParameter("movie_id", movieId).executeScalar(Integer.class);
-        con.close();
-        return cnt.intValue();
+        return Repositories.schedules().count(movieId, null, null);
+    }
+
+    // подсчет количества записей в хранилище по заданному идентификатору фильма в заданном интервале времени
+    public static int count(
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to
+    ) throws SQLException {
+        return Repositories.schedules().count(movieId, from, to);
+    }
+
+    // подсчет количества записей в хранилище по всем фильмам сразу
+    public static Map<Integer, Integer> countAll() throws SQLException {
+        return Repositories.schedules().countAll();
     }
 
-    // проверка существования в БД записи с заданным идентификатором
+    // количество записей по заданному идентификатору фильма по счетчику в памяти, а до его заполнения -- по хранилищу
+    public static int total(final int movieId) throws SQLException {
+        return Counters.seeded() ? Counters.schedules(movieId) : ScheduleModel.count(movieId);
+    }
+
+    // проверка существования записи с заданным идентификатором
     public static boolean exists(final int id) throws SQLException {
-        Connection con = CommonModel.sql2o.open();
-        Integer    cnt = con.createQuery(
-            "SELECT COUNT(*) FROM " + ScheduleModel.TABLE_SCHEDULES + " WHERE id = :id"
-        ).addParameter("id", id).executeScalar(Integer.class);
-        con.close();
-        return cnt.intValue() != 0;
+        return ScheduleModel.find(id) != null;
     }
 
-    // чтение записи из БД по заданному идентификатору
+    // чтение записи по заданному идентификатору из кэша либо из хранилища
     public static ScheduleModel find(final int id) throws SQLException {
-        Connection    con    = CommonModel.sql2o.open();
-        ScheduleModel result = con.createQuery(
-            "SELECT id, movie_id AS movieId, date_time AS dateAndTime, auditorium FROM " +
-            ScheduleModel.TABLE_SCHEDULES + " WHERE id = :id"
-        ).addParameter("id", id).executeAndFetchFirst(ScheduleModel.class);
-        con.close();
-        return result;
+        return ScheduleModel.CACHE.get(id);
+    }
+
+    // чтение записей по заданным идентификаторам из кэша либо из хранилища одним обращением,
+    // отсутствующих в результате нет
+    public static Map<Integer, ScheduleModel> findAll(final Collection<Integer> ids) throws SQLException {
+        return ScheduleModel.CACHE.getAll(ids, ScheduleModel::loadAll);
+    }
+
+    // кэш записей по идентификатору
+    public static EntityCache<ScheduleModel> cache() {
+        return ScheduleModel.CACHE;
     }
 
-    // получить список записей из БД в соответствии с заданными параметрами
+    // чтение записи из хранилища по заданному идентификатору
+    private static ScheduleModel load(final int id) throws SQLException {
+        return Repositories.schedules().find(id);
+    }
+
+    // чтение записей из хранилища по заданным идентификаторам
+    private static Map<Integer, ScheduleModel> loadAll(final List<Integer> ids) throws SQLException {
+        return Repositories.schedules().findAll(ids);
+    }
+
+    // получить список записей из хранилища в соответствии с заданными параметрами
     public static List<ScheduleModel> list(
-        final int movieId,
-        final int page,
-        final int numb
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to,
+        final int           page,
+        final int           numb
     ) throws SQLException {
-        Connection          con    = CommonModel.sql2o.open();
-        List<ScheduleModel> result = con.createQuery(
-            "SELECT id, movie_id AS movieId, date_time AS dateAndTime, auditorium FROM " +
-            ScheduleModel.TABLE_SCHEDULES + " WHERE movie_id = :movie_id ORDER BY dateAndTime DESC LIMIT :limit OFFSET :offset"
-        )
-        .addParameter("movie_id", movieId)
-        .addParameter("limit",    numb)
-        .addParameter("offset",   (page - 1) * numb)
-        .executeAndFetch(ScheduleModel.class);
-        con.close();
-        return result;
-    }
-
-    // удаление записи из БД по заданному идентификатору
-    public static void kill(final int id) throws SQLException {
-        CommonModel.sql2o
-            .open()
-            .createQuery("DELETE FROM " + ScheduleModel.TABLE_SCHEDULES + " WHERE id = :id")
-            .addParameter("id", id)
-            .executeUpdate()
-            .close();
+        return Repositories.schedules().list(movieId, from, to, (page - 1) * numb, numb);
+    }
+
+    // получить список записей из хранилища, следующих за заданной парой (дата и время, идентификатор)
+    public static List<ScheduleModel> list(
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to,
+        final LocalDateTime dateAndTime,
+        final int           id,
+        final int           numb
+    ) throws SQLException {
+        return Repositories.schedules().list(movieId, from, to, dateAndTime, id, numb);
     }
 
-    // сохранение данной записи в БД
-    public void save() throws SQLException {
-        Connection con = CommonModel.sql2o.open();
+    // потоковая вставка записей в хранилище порциями заданного размера
+    public static Importer importer(final int chunkSize) throws SQLException {
+        return new Importer(chunkSize);
+    }
+
+    // удаление записи из хранилища по заданному идентификатору, false -- если записи не было
+    public static boolean kill(final int id) throws SQLException {
+        final Integer movieId = Counters.change(() -> {
+            final Integer deleted = Repositories.schedules().delete(id);
+            if (deleted != null) {
+                Counters.scheduleRemoved(deleted);
+            }
+            return deleted;
+        });
+        if (movieId == null) {
+            return false;
+        }
+        ScheduleModel.CACHE.invalidate(id);
+        Versions.scheduleChanged(id, movieId);
+        return true;
+    }
+
+    // сохранение данной записи в хранилище, возвращает ее идентификатор либо 0 -- если изменяемой записи не было;
+    // ссылка на несуществующий фильм приводит к ошибке, распознаваемой через isMissingParent(), перенос на фильм
+    // другого сегмента -- к ошибке, распознаваемой через isCrossShard()
+    public int save() throws SQLException {
         if (this.id == 0) { // создание новой
-            con.createQuery(
-                "INSERT INTO " + ScheduleModel.TABLE_SCHEDULES +
-                " (movie_id, date_time, auditorium) VALUES (:movie_id, :date_time, :auditorium)"
-            )
-            .addParameter("movie_id",   this.movieId)
-            .addParameter("date_time",  this.dateAndTime)
-            .addParameter("auditorium", this.auditorium)
-            .executeUpdate();
-        } else { // изменение ранее созданной
-            con.createQuery(
-                "UPDATE " + ScheduleModel.TABLE_SCHEDULES +
-                " SET movie_id = :movie_id, date_time = :date_time, auditorium = :auditorium WHERE id = :id"
-            )
-            .addParameter("movie_id",   this.movieId)
-            .addParameter("date_time",  this.dateAndTime)
-            .addParameter("auditorium", this.auditorium)
-            .addParameter("id", id)
-            .executeUpdate();
-        };
-        con.close();
+            final int id = Counters.change(() -> {
+                final int inserted = Repositories.schedules().insert(this);
+                Counters.scheduleAdded(this.movieId);
+                return inserted;
+            });
+            ScheduleModel.CACHE.invalidate(id);
+            Versions.schedulesAdded(this.movieId);
+            return id;
+        }
+
+        // изменение ранее созданной без смены фильма
+        if (Repositories.schedules().update(this)) {
+            ScheduleModel.CACHE.invalidate(this.id);
+            Versions.scheduleChanged(this.id, this.movieId);
+            return this.id;
+        }
+
+        // перенос на другой фильм
+        final Integer oldMovieId = Counters.change(() -> {
+            final Integer moved = Repositories.schedules().move(this);
+            if (moved != null) {
+                Counters.scheduleMoved(moved, this.movieId);
+            }
+            return moved;
+        });
+        ScheduleModel.CACHE.invalidate(this.id);
+        if (oldMovieId == null) {
+            return 0;
+        }
+        Versions.scheduleMoved(this.id, oldMovieId, this.movieId);
+        return this.id;
     }
 }
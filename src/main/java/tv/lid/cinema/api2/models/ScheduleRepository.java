@@ -0,0 +1,78 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+
+// хранилище сеансов: только чтение и запись данных, кэш, счетчики и версии ведет модель;
+// ссылка на несуществующий фильм -- ошибка, распознаваемая через CommonModel.isMissingParent()
+public interface ScheduleRepository {
+    // пакетная вставка записей порциями
+    public static interface Batch extends AutoCloseable {
+        // получатель идентификаторов сохраненных записей фильма
+        @FunctionalInterface
+        public static interface Listener {
+            void saved(int movieId, List<Integer> ids);
+        }
+
+        // добавление записи в текущую порцию
+        void add(ScheduleModel schedule) throws SQLException;
+
+        // сохранение текущей порции с сообщением о сохраненных записях -- в т.ч. до ошибки, если порция
+        // сохраняется по частям
+        void flush(Listener listener) throws SQLException;
+
+        // освобождение ресурсов без сохранения
+        @Override
+        void close() throws SQLException;
+    }
+
+    // количество записей фильма в интервале времени [from, to), незаданная граница не ограничивает выборку
+    int count(int movieId, LocalDateTime from, LocalDateTime to) throws SQLException;
+
+    // количество записей по идентификатору фильма для всех фильмов сразу
+    Map<Integer, Integer> countAll() throws SQLException;
+
+    // запись по идентификатору, null -- если ее нет
+    ScheduleModel find(int id) throws SQLException;
+
+    // записи по идентификаторам, отсутствующих в результате нет
+    Map<Integer, ScheduleModel> findAll(List<Integer> ids) throws SQLException;
+
+    // не более limit записей фильма в интервале времени по дате и времени от поздних к ранним, начиная с offset
+    List<ScheduleModel> list(
+        int           movieId,
+        LocalDateTime from,
+        LocalDateTime to,
+        int           offset,
+        int           limit
+    ) throws SQLException;
+
+    // не более limit записей в том же порядке, следующих за парой (дата и время, идентификатор)
+    List<ScheduleModel> list(
+        int           movieId,
+        LocalDateTime from,
+        LocalDateTime to,
+        LocalDateTime dateAndTime,
+        int           id,
+        int           limit
+    ) throws SQLException;
+
+    // пакетная вставка записей порциями
+    Batch batch() throws SQLException;
+
+    // вставка записи, возвращает ее идентификатор
+    int insert(ScheduleModel schedule) throws SQLException;
+
+    // изменение записи без смены фильма, false -- если записи этого фильма нет
+    boolean update(ScheduleModel schedule) throws SQLException;
+
+    // изменение записи с переносом на другой фильм с сохранением ее идентификатора, возвращает идентификатор
+    // прежнего фильма либо null -- если записи нет; перенос, требующий смены идентификатора, -- ошибка,
+    // распознаваемая через CommonModel.isCrossShard()
+    Integer move(ScheduleModel schedule) throws SQLException;
+
+    // удаление записи, возвращает идентификатор ее фильма либо null -- если записи не было
+    Integer delete(int id) throws SQLException;
+}
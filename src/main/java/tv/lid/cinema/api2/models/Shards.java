@@ -0,0 +1,162 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import org.sql2o.Connection;
+import org.sql2o.Sql2o;
+import org.sql2o.Sql2oException;
+
+// сегменты БД: фильм вместе с его сеансами хранится в одном сегменте, поэтому внешний ключ и каскадное удаление
+// работают в его пределах; номер сегмента записи -- остаток от деления ее идентификатора на число сегментов,
+// для чего счетчики идентификаторов каждого сегмента выдают только значения с его остатком;
+// модели обращаются к БД текущего сегмента потока, по умолчанию -- первого
+public final class Shards {
+    // таблицы со счетчиками идентификаторов, согласуемыми с номером сегмента
+    private static final String[] TABLES = {MovieModel.tableName(), ScheduleModel.tableName()};
+
+    // сегменты
+    private static volatile Sql2o[] sources = new Sql2o[0];
+
+    // источники соединений сегментов -- Sql2o.getDataSource() устарел
+    private static volatile DataSource[] dataSources = new DataSource[0];
+
+    // сегмент для очередного нового фильма
+    private static final AtomicInteger next = new AtomicInteger();
+
+    // текущий сегмент потока
+    private static final ThreadLocal<int[]> CURRENT = ThreadLocal.withInitial(() -> new int[] {0});
+
+    // область выполнения в сегменте: при закрытии восстанавливается прежний сегмент потока; в теле
+    // try-with-resources область не упоминается, поэтому классы, открывающие ее, подавляют предупреждение "try"
+    public static final class Scope implements AutoCloseable {
+        private final int[] current;  // текущий сегмент потока
+        private final int   previous; // прежний сегмент
+
+        private Scope(final int[] current, final int shard) {
+            this.current  = current;
+            this.previous = current[0];
+            current[0]    = shard;
+        }
+
+        @Override
+        public void close() {
+            this.current[0] = this.previous;
+        }
+    }
+
+    private Shards() {}
+
+    // подключение сегментов
+    static void initialize(final List<DataSource> sources) {
+        final Sql2o[] result = new Sql2o[sources.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = new Sql2o(sources.get(i));
+        }
+        Shards.dataSources = sources.toArray(new DataSource[0]);
+        Shards.sources     = result;
+    }
+
+    // число сегментов
+    public static int count() {
+        return Shards.sources.length;
+    }
+
+    // сегмент записи по ее идентификатору; сеанс -- по идентификатору как сеанса, так и его фильма
+    public static int of(final int id) {
+        return Math.floorMod(id, Shards.sources.length);
+    }
+
+    // сегмент для нового фильма -- по очереди
+    static int next() {
+        return Math.floorMod(Shards.next.getAndIncrement(), Shards.sources.length);
+    }
+
+    // выполнение в заданном сегменте до закрытия области
+    public static Scope on(final int shard) {
+        return new Scope(Shards.CURRENT.get(), shard);
+    }
+
+    // текущий сегмент потока
+    static int current() {
+        return Shards.CURRENT.get()[0];
+    }
+
+    // доступ к БД текущего сегмента
+    static Sql2o sql2o() {
+        return Shards.sources[Shards.current()];
+    }
+
+    // источник соединений заданного сегмента
+    static DataSource dataSource(final int shard) {
+        return Shards.dataSources[shard];
+    }
+
+    // источники соединений всех сегментов
+    static DataSource[] dataSources() {
+        return Shards.dataSources;
+    }
+
+    // идентификаторы, разложенные по сегментам, в исходном порядке внутри сегмента
+    static Map<Integer, List<Integer>> split(final Collection<Integer> ids) {
+        final Map<Integer, List<Integer>> result = new TreeMap<>();
+        for (final Integer id : ids) {
+            result.computeIfAbsent(Shards.of(id), shard -> new ArrayList<>()).add(id);
+        }
+        return result;
+    }
+
+    // согласование счетчиков идентификаторов текущего сегмента с его номером: следующее значение -- ближайшее
+    // с нужным остатком, шаг -- число сегментов; при одном сегменте счетчики не меняются
+    static void align() throws SQLException {
+        final int count = Shards.count(),
+                  shard = Shards.current();
+        if (count == 1) {
+            return;
+        }
+
+        final Connection con = CommonModel.open();
+        try {
+            for (final String table : Shards.TABLES) {
+                // записи из чужого сегмента -- данные разложены при другом числе сегментов
+                final Integer foreign = con.createQuery(
+                    "SELECT COUNT(*) FROM " + table + " WHERE MOD(id, :count) <> :shard"
+                )
+                .addParameter("count", count)
+                .addParameter("shard", shard)
+                .executeScalar(Integer.class);
+                if (foreign != null && foreign > 0) {
+                    throw new SQLException(
+                        "Table " + table + " of shard " + shard + " holds " + foreign + " rows of other shards," +
+                        " the number of shards must not change once data exists"
+                    );
+                }
+
+                final String sequence = con.createQuery(
+                    "SELECT sequence_name FROM information_schema.columns" +
+                    " WHERE table_name = UPPER(:table) AND column_name = 'ID'"
+                ).addParameter("table", table).executeScalar(String.class);
+
+                final long current = con.createQuery(
+                    "SELECT GREATEST(s.current_value, COALESCE((SELECT MAX(id) FROM " + table + "), 0))" +
+                    " FROM information_schema.sequences s WHERE s.sequence_name = :sequence"
+                ).addParameter("sequence", sequence).executeScalar(Long.class);
+
+                final long restart = current + 1 + Math.floorMod(shard - (current + 1), (long) count);
+                con.createQuery(
+                    "ALTER SEQUENCE \"" + sequence + "\" RESTART WITH " + restart + " INCREMENT BY " + count
+                ).executeUpdate();
+            }
+        } catch (Sql2oException exc) {
+            throw new SQLException(exc);
+        } finally {
+            con.close();
+        }
+    }
+}
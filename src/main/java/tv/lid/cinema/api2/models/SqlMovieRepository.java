@@ -0,0 +1,424 @@
+package tv.lid.cinema.api2.models;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2oException;
+
+import tv.lid.cinema.api2.metrics.Histogram;
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// хранилище фильмов в SQL-таблице БД сегментов
+@SuppressWarnings("try")
+final class SqlMovieRepository implements MovieRepository {
+    // имя SQL-таблицы с фильмами
+    private static final String TABLE_MOVIES = MovieModel.tableName();
+
+    // запросы к таблице, разобранные один раз
+    private static final SqlStatement
+        SQL_COUNT  = SqlStatement.of("MovieModel.count", "SELECT COUNT(*) FROM " + SqlMovieRepository.TABLE_MOVIES),
+        SQL_IDS    = SqlStatement.of("MovieModel.ids", "SELECT id FROM " + SqlMovieRepository.TABLE_MOVIES),
+        SQL_FIND   = SqlStatement.of(
+            "MovieModel.find",
+            "SELECT id, title, duration, year FROM " + SqlMovieRepository.TABLE_MOVIES + " WHERE id = :id"
+        ),
+        // массив идентификаторов -- один текст запроса при любом их числе, H2 выбирает строки по первичному ключу
+        SQL_FIND_ALL = SqlStatement.of(
+            "MovieModel.findAll",
+            "SELECT id, title, duration, year FROM " + SqlMovieRepository.TABLE_MOVIES + " WHERE id = ANY(:ids)"
+        ),
+        SQL_PAGE   = SqlStatement.of(
+            "MovieModel.list",
+            "SELECT id, title, duration, year FROM " + SqlMovieRepository.TABLE_MOVIES +
+            " ORDER BY year DESC, id DESC LIMIT :limit OFFSET :offset"
+        ),
+        SQL_AFTER  = SqlStatement.of(
+            "MovieModel.list",
+            "SELECT id, title, duration, year FROM " + SqlMovieRepository.TABLE_MOVIES +
+            " WHERE year <= :year AND (year < :year OR id < :id) ORDER BY year DESC, id DESC LIMIT :limit"
+        ),
+        SQL_INSERT = SqlStatement.withKeys(
+            "MovieModel.save",
+            "INSERT INTO " + SqlMovieRepository.TABLE_MOVIES +
+            " (title, duration, year) VALUES (:title, :duration, :year)"
+        ),
+        SQL_UPDATE = SqlStatement.of(
+            "MovieModel.save",
+            "UPDATE " + SqlMovieRepository.TABLE_MOVIES +
+            " SET title = :title, duration = :duration, year = :year WHERE id = :id"
+        ),
+        SQL_DELETE = SqlStatement.of(
+            "MovieModel.kill",
+            "DELETE FROM " + SqlMovieRepository.TABLE_MOVIES + " WHERE id = :id"
+        ),
+        SQL_EXPORT = SqlStatement.of(
+            "MovieModel.export",
+            "SELECT id, title, duration, year FROM " + SqlMovieRepository.TABLE_MOVIES + " ORDER BY id"
+        ),
+        // сеансы фильма -- по дате и времени, порядок задан явно: выгрузка должна быть воспроизводимой,
+        // а порядок соединения без ORDER BY не гарантирован
+        SQL_EXPORT_SCHEDULES = SqlStatement.of(
+            "MovieModel.export",
+            "SELECT m.id, m.title, m.duration, m.year, s.id, s.date_time, s.auditorium FROM " +
+            SqlMovieRepository.TABLE_MOVIES + " m LEFT JOIN " + ScheduleModel.tableName() +
+            " s ON s.movie_id = m.id ORDER BY m.id, s.date_time, s.id"
+        ),
+        // фильм с ближайшими сеансами одним запросом; без подсказки H2 выбирает индекс внешнего ключа
+        // и проверяет время каждого сеанса фильма, с ней -- читает только нужный диапазон составного индекса
+        SQL_FIND_SCHEDULES = SqlStatement.of(
+            "MovieModel.findWithSchedules",
+            "SELECT m.id, m.title, m.duration, m.year, s.id, s.date_time, s.auditorium FROM " +
+            SqlMovieRepository.TABLE_MOVIES + " m LEFT JOIN " + ScheduleModel.tableName() +
+            " s USE INDEX (api2_schedules_movie_date_id) ON s.movie_id = m.id AND s.date_time >= :from" +
+            " WHERE m.id = :id ORDER BY s.date_time, s.id LIMIT :limit"
+        );
+
+    // порядок списков записей -- по году выхода и идентификатору, от новых к старым
+    private static final Comparator<MovieModel> ORDER =
+        Comparator.comparingInt((MovieModel movie) -> movie.year).thenComparingInt(movie -> movie.id).reversed();
+
+    // время пакетной вставки в метриках
+    private static final Histogram SAVE_ALL_TIMER = Metrics.DB_CALLS.series("MovieModel.saveAll");
+
+    // очередная запись списка сегмента при слиянии
+    private static final class Head {
+        private final Iterator<MovieModel> rest;  // остальные записи сегмента
+        private MovieModel                 movie; // очередная запись
+
+        // конструктор -- по непустому списку
+        private Head(final Iterator<MovieModel> rest) {
+            this.rest  = rest;
+            this.movie = rest.next();
+        }
+
+        // переход к следующей записи, false -- если записи сегмента кончились
+        private boolean advance() {
+            if (!this.rest.hasNext()) {
+                return false;
+            }
+            this.movie = this.rest.next();
+            return true;
+        }
+    }
+
+    // чтение записи из строки результата запроса
+    private static final SqlStatement.Mapper<MovieModel> MAPPER = (ResultSet rs) -> new MovieModel(
+        rs.getInt(1),
+        rs.getString(2),
+        rs.getShort(3),
+        rs.getShort(4)
+    );
+
+    // подсчет количества записей в БД -- сумма по сегментам
+    @Override
+    public int count() throws SQLException {
+        int count = 0;
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard); SqlStatement.Call call = SqlMovieRepository.SQL_COUNT.call()) {
+                count += call.integer();
+            }
+        }
+        return count;
+    }
+
+    // множество идентификаторов всех записей в БД
+    @Override
+    public Set<Integer> ids() throws SQLException {
+        final Set<Integer> ids = new HashSet<>();
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard); SqlStatement.Call call = SqlMovieRepository.SQL_IDS.call()) {
+                ids.addAll(call.list(rs -> rs.getInt(1)));
+            }
+        }
+        return ids;
+    }
+
+    // чтение записи из БД по заданному идентификатору
+    @Override
+    public MovieModel find(final int id) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(id));
+            SqlStatement.Call call  = SqlMovieRepository.SQL_FIND.call()
+        ) {
+            return call.set("id", id).first(SqlMovieRepository.MAPPER);
+        }
+    }
+
+    // чтение записей из БД по заданным идентификаторам -- одним запросом к каждому сегменту
+    @Override
+    public Map<Integer, MovieModel> findAll(final List<Integer> ids) throws SQLException {
+        final Map<Integer, MovieModel> result = new HashMap<>();
+        for (final Map.Entry<Integer, List<Integer>> part : Shards.split(ids).entrySet()) {
+            try (
+                Shards.Scope      scope = Shards.on(part.getKey());
+                SqlStatement.Call call  = SqlMovieRepository.SQL_FIND_ALL.call()
+            ) {
+                final Integer[] shardIds = part.getValue().toArray(new Integer[0]);
+                for (final MovieModel movie : call.set("ids", shardIds).list(SqlMovieRepository.MAPPER)) {
+                    result.put(movie.id, movie);
+                }
+            }
+        }
+        return result;
+    }
+
+    // чтение записи вместе с не более чем limit сеансами, начинающимися не раньше from, null -- если записи нет
+    @Override
+    public MovieModel.WithSchedules findWithSchedules(
+        final int           id,
+        final LocalDateTime from,
+        final int           limit
+    ) throws SQLException {
+        final List<ScheduleModel> schedules = new ArrayList<>();
+        final MovieModel          movie;
+
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(id));
+            SqlStatement.Call call  = SqlMovieRepository.SQL_FIND_SCHEDULES.call()
+        ) {
+            movie = call
+                .set("id",    id)
+                .set("from",  from)
+                .set("limit", limit)
+                .first(rs -> {
+                    final MovieModel found = SqlMovieRepository.MAPPER.map(rs);
+                    do {
+                        final int scheduleId = rs.getInt(5);
+                        if (!rs.wasNull()) { // у фильма без сеансов -- одна строка с пустыми столбцами сеанса
+                            schedules.add(new ScheduleModel(
+                                scheduleId,
+                                id,
+                                rs.getTimestamp(6).toLocalDateTime(),
+                                rs.getByte(7)
+                            ));
+                        }
+                    } while (rs.next());
+                    return found;
+                });
+        }
+        return movie != null ? new MovieModel.WithSchedules(movie, schedules) : null;
+    }
+
+    // получить список записей из БД с постраничным выводом; при нескольких сегментах из каждого читаются
+    // все записи до конца страницы, т.к. заранее неизвестно, на какие сегменты придется страница, --
+    // поэтому смещение страницы ограничивает контроллер, а глубже список читается по курсору
+    @Override
+    public List<MovieModel> list(final int offset, final int limit) throws SQLException {
+        if (Shards.count() == 1) {
+            return SqlMovieRepository.page(limit, offset);
+        }
+
+        final List<List<MovieModel>> lists = new ArrayList<>(Shards.count());
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard)) {
+                lists.add(SqlMovieRepository.page(offset + limit, 0));
+            }
+        }
+        return SqlMovieRepository.merge(lists, offset, limit);
+    }
+
+    // получить список записей из БД, следующих за заданной парой (год, идентификатор)
+    @Override
+    public List<MovieModel> list(final short year, final int id, final int limit) throws SQLException {
+        if (Shards.count() == 1) {
+            return SqlMovieRepository.after(year, id, limit);
+        }
+
+        final List<List<MovieModel>> lists = new ArrayList<>(Shards.count());
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (Shards.Scope scope = Shards.on(shard)) {
+                lists.add(SqlMovieRepository.after(year, id, limit));
+            }
+        }
+        return SqlMovieRepository.merge(lists, 0, limit);
+    }
+
+    // страница записей текущего сегмента
+    private static List<MovieModel> page(final int limit, final int offset) throws SQLException {
+        try (SqlStatement.Call call = SqlMovieRepository.SQL_PAGE.call()) {
+            return call
+                .set("limit",  limit)
+                .set("offset", offset)
+                .list(SqlMovieRepository.MAPPER);
+        }
+    }
+
+    // записи текущего сегмента, следующие за заданной парой (год, идентификатор)
+    private static List<MovieModel> after(final short year, final int id, final int limit) throws SQLException {
+        try (SqlStatement.Call call = SqlMovieRepository.SQL_AFTER.call()) {
+            return call
+                .set("year",  year)
+                .set("id",    id)
+                .set("limit", limit)
+                .list(SqlMovieRepository.MAPPER);
+        }
+    }
+
+    // слияние упорядоченных списков сегментов с пропуском skip записей и не более take: в куче -- по очередной
+    // записи каждого сегмента, просматриваются только skip + take первых записей
+    private static List<MovieModel> merge(
+        final List<List<MovieModel>> lists,
+        final int                    skip,
+        final int                    take
+    ) {
+        final PriorityQueue<Head> heads = new PriorityQueue<>(
+            Math.max(1, lists.size()),
+            (a, b) -> SqlMovieRepository.ORDER.compare(a.movie, b.movie)
+        );
+        for (final List<MovieModel> list : lists) {
+            if (!list.isEmpty()) {
+                heads.add(new Head(list.iterator()));
+            }
+        }
+
+        final List<MovieModel> result = new ArrayList<>(Math.max(0, take));
+        for (int position = 0; !heads.isEmpty() && result.size() < take; position++) {
+            final Head head = heads.poll();
+            if (position >= skip) {
+                result.add(head.movie);
+            }
+            if (head.advance()) {
+                heads.add(head);
+            }
+        }
+        return result;
+    }
+
+    // потоковое чтение всех записей из БД без накопления списка: сегмент за сегментом, в каждом --
+    // в порядке идентификаторов
+    @Override
+    public void export(final int fetchSize, final CommonModel.Sink<MovieModel> sink) throws SQLException, IOException {
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (
+                Shards.Scope      scope = Shards.on(shard);
+                SqlStatement.Call call  = SqlMovieRepository.SQL_EXPORT.call()
+            ) {
+                call.stream(fetchSize, rs -> sink.accept(SqlMovieRepository.MAPPER.map(rs)));
+            }
+        }
+    }
+
+    // то же вместе с сеансами каждого фильма; в памяти удерживаются только сеансы текущего фильма
+    @Override
+    public void exportWithSchedules(
+        final int                                        fetchSize,
+        final CommonModel.Sink<MovieModel.WithSchedules> sink
+    ) throws SQLException, IOException {
+        final List<ScheduleModel> schedules = new ArrayList<>();
+        final MovieModel[]        current   = {null};
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (
+                Shards.Scope      scope = Shards.on(shard);
+                SqlStatement.Call call  = SqlMovieRepository.SQL_EXPORT_SCHEDULES.call()
+            ) {
+                call.stream(fetchSize, rs -> {
+                    final int id = rs.getInt(1);
+                    if (current[0] == null || current[0].id != id) {
+                        if (current[0] != null) {
+                            sink.accept(new MovieModel.WithSchedules(current[0], new ArrayList<>(schedules)));
+                            schedules.clear();
+                        }
+                        current[0] = SqlMovieRepository.MAPPER.map(rs);
+                    }
+
+                    final int scheduleId = rs.getInt(5);
+                    if (!rs.wasNull()) { // у фильма без сеансов -- одна строка с пустыми столбцами сеанса
+                        final LocalDateTime dateAndTime = rs.getTimestamp(6).toLocalDateTime();
+                        schedules.add(new ScheduleModel(scheduleId, id, dateAndTime, rs.getByte(7)));
+                    }
+                });
+            }
+        }
+        if (current[0] != null) {
+            sink.accept(new MovieModel.WithSchedules(current[0], schedules));
+        }
+    }
+
+    // вставка записи в очередной сегмент
+    @Override
+    public int insert(final MovieModel movie) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.next());
+            SqlStatement.Call call  = SqlMovieRepository.SQL_INSERT.call()
+        ) {
+            return call
+                .set("title",    movie.title)
+                .set("duration", movie.duration)
+                .set("year",     movie.year)
+                .key();
+        }
+    }
+
+    // вставка списка записей одной транзакцией; весь список попадает в один сегмент, чтобы транзакция оставалась одна
+    @Override
+    public List<Integer> insertAll(final List<MovieModel> movies) throws SQLException {
+        final long start = System.nanoTime();
+        try (Shards.Scope scope = Shards.on(Shards.next())) {
+            Connection con = CommonModel.begin();
+            try {
+                Query query = con.createQuery(
+                    "INSERT INTO " + SqlMovieRepository.TABLE_MOVIES +
+                    " (title, duration, year) VALUES (:title, :duration, :year)",
+                    true
+                );
+                for (final MovieModel movie : movies) {
+                    query
+                        .addParameter("title",    movie.title)
+                        .addParameter("duration", movie.duration)
+                        .addParameter("year",     movie.year)
+                        .addToBatch();
+                }
+                query.executeBatch();
+                final List<Integer> ids = con.getKeys(Integer.class);
+                con.commit();
+                return ids;
+            } catch (Sql2oException exc) {
+                con.rollback();
+                throw new SQLException(exc);
+            }
+        } finally {
+            SqlMovieRepository.SAVE_ALL_TIMER.recordSince(start);
+        }
+    }
+
+    // изменение записи в ее сегменте
+    @Override
+    public boolean update(final MovieModel movie) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(movie.id));
+            SqlStatement.Call call  = SqlMovieRepository.SQL_UPDATE.call()
+        ) {
+            return call
+                .set("title",    movie.title)
+                .set("duration", movie.duration)
+                .set("year",     movie.year)
+                .set("id",       movie.id)
+                .update() != 0;
+        }
+    }
+
+    // удаление записи из ее сегмента, сеансы удаляются каскадно
+    @Override
+    public boolean delete(final int id) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(id));
+            SqlStatement.Call call  = SqlMovieRepository.SQL_DELETE.call()
+        ) {
+            return call.set("id", id).update() != 0;
+        }
+    }
+}
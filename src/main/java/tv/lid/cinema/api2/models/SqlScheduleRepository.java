@@ -0,0 +1,432 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.sql2o.Connection;
+import org.sql2o.Query;
+import org.sql2o.Sql2oException;
+
+import tv.lid.cinema.api2.metrics.Histogram;
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// хранилище сеансов в SQL-таблице БД сегментов: сеанс хранится в сегменте своего фильма
+@SuppressWarnings("try")
+final class SqlScheduleRepository implements ScheduleRepository {
+    // имя SQL-таблицы с сеансами
+    private static final String TABLE_SCHEDULES = ScheduleModel.tableName();
+
+    // столбцы таблицы в порядке чтения
+    private static final String COLUMNS = "id, movie_id, date_time, auditorium";
+
+    // запросы к таблице, разобранные один раз; запросы с интервалом времени -- во всех вариантах границ
+    private static final SqlStatement
+        SQL_GROUPS = SqlStatement.of(
+            "ScheduleModel.countAll",
+            "SELECT movie_id, COUNT(*) FROM " + SqlScheduleRepository.TABLE_SCHEDULES + " GROUP BY movie_id"
+        ),
+        SQL_FIND   = SqlStatement.of(
+            "ScheduleModel.find",
+            "SELECT " + SqlScheduleRepository.COLUMNS + " FROM " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " WHERE id = :id"
+        ),
+        SQL_FIND_ALL = SqlStatement.of(
+            "ScheduleModel.findAll",
+            "SELECT " + SqlScheduleRepository.COLUMNS + " FROM " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " WHERE id = ANY(:ids)"
+        ),
+        SQL_INSERT = SqlStatement.withKeys(
+            "ScheduleModel.save",
+            "INSERT INTO " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " (movie_id, date_time, auditorium) VALUES (:movie_id, :date_time, :auditorium)"
+        ),
+        SQL_UPDATE = SqlStatement.of(
+            "ScheduleModel.save",
+            "UPDATE " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " SET date_time = :date_time, auditorium = :auditorium WHERE id = :id AND movie_id = :movie_id"
+        ),
+        SQL_DELETE = SqlStatement.of(
+            "ScheduleModel.kill",
+            "SELECT movie_id FROM OLD TABLE (DELETE FROM " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " WHERE id = :id)"
+        );
+
+    private static final SqlStatement[]
+        SQL_WINDOW_COUNT = SqlScheduleRepository.windowed(
+            "ScheduleModel.count",
+            "SELECT COUNT(*) FROM " + SqlScheduleRepository.TABLE_SCHEDULES + " WHERE movie_id = :movie_id",
+            ""
+        ),
+        SQL_WINDOW_PAGE  = SqlScheduleRepository.windowed(
+            "ScheduleModel.list",
+            "SELECT " + SqlScheduleRepository.COLUMNS + " FROM " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " WHERE movie_id = :movie_id",
+            " ORDER BY movie_id DESC, date_time DESC, id DESC LIMIT :limit OFFSET :offset"
+        ),
+        SQL_WINDOW_AFTER = SqlScheduleRepository.windowed(
+            "ScheduleModel.list",
+            "SELECT " + SqlScheduleRepository.COLUMNS + " FROM " + SqlScheduleRepository.TABLE_SCHEDULES +
+            " WHERE movie_id = :movie_id",
+            " AND date_time <= :date_time AND (date_time < :date_time OR id < :id)" +
+            " ORDER BY movie_id DESC, date_time DESC, id DESC LIMIT :limit"
+        );
+
+    // время запросов вне SqlStatement в метриках
+    private static final Histogram IMPORT_TIMER = Metrics.DB_CALLS.series("ScheduleModel.import"),
+                                   MOVE_TIMER   = Metrics.DB_CALLS.series("ScheduleModel.move");
+
+    // чтение записи из строки результата запроса
+    private static final SqlStatement.Mapper<ScheduleModel> MAPPER = (ResultSet rs) -> new ScheduleModel(
+        rs.getInt(1),
+        rs.getInt(2),
+        rs.getTimestamp(3).toLocalDateTime(),
+        rs.getByte(4)
+    );
+
+    // пакетная вставка порциями: каждая порция -- отдельной транзакцией в каждом сегменте;
+    // сегменты фиксируются по очереди, так что при ошибке в одном из них части порции в прежних уже сохранены
+    private static final class SqlBatch implements Batch {
+        // часть порции для одного сегмента
+        private static final class Part {
+            final Connection    con;                       // соединение с открытой транзакцией
+            final Query         query;                     // пакетный запрос вставки
+            final List<Integer> movies = new ArrayList<>(); // идентификаторы фильмов записей в порядке вставки
+
+            Part(final Connection con) {
+                this.con   = con;
+                this.query = con.createQuery(
+                    "INSERT INTO " + SqlScheduleRepository.TABLE_SCHEDULES +
+                    " (movie_id, date_time, auditorium) VALUES (:movie_id, :date_time, :auditorium)",
+                    true
+                );
+            }
+        }
+
+        // части порции по сегментам, создаются при первой записи в сегмент
+        private final Part[] parts = new Part[Shards.count()];
+
+        // добавление записи в часть порции ее сегмента
+        @Override
+        public void add(final ScheduleModel schedule) throws SQLException {
+            final int shard = Shards.of(schedule.movieId);
+            if (this.parts[shard] == null) {
+                try (Shards.Scope scope = Shards.on(shard)) {
+                    this.parts[shard] = new Part(CommonModel.begin());
+                }
+            }
+
+            final Part part = this.parts[shard];
+            part.query
+                .addParameter("movie_id",   schedule.movieId)
+                .addParameter("date_time",  Timestamp.valueOf(schedule.dateAndTime))
+                .addParameter("auditorium", schedule.auditorium)
+                .addToBatch();
+            part.movies.add(schedule.movieId);
+        }
+
+        // сохранение текущей порции по частям; при ошибке откатываются части, еще не зафиксированные
+        @Override
+        public void flush(final Listener listener) throws SQLException {
+            final long start = System.nanoTime();
+            try {
+                for (final Part part : this.parts) {
+                    if (part == null || part.movies.isEmpty()) {
+                        continue;
+                    }
+
+                    final List<Integer> keys;
+                    try {
+                        part.query.executeBatch();
+                        keys = part.con.getKeys(Integer.class);
+                        part.con.commit(false);
+                    } catch (Sql2oException exc) {
+                        for (final Part other : this.parts) {
+                            if (other != null && (other == part || !other.movies.isEmpty())) {
+                                other.movies.clear();
+                                other.con.rollback(false);
+                            }
+                        }
+                        throw new SQLException(exc);
+                    }
+
+                    // идентификаторы новых записей -- в порядке вставки, группируются по фильмам
+                    final Map<Integer, List<Integer>> added = new LinkedHashMap<>();
+                    for (int i = 0; i < keys.size(); i++) {
+                        added.computeIfAbsent(part.movies.get(i), key -> new ArrayList<>()).add(keys.get(i));
+                    }
+                    for (final Map.Entry<Integer, List<Integer>> entry : added.entrySet()) {
+                        listener.saved(entry.getKey(), entry.getValue());
+                    }
+                    part.movies.clear();
+                }
+            } finally {
+                SqlScheduleRepository.IMPORT_TIMER.recordSince(start);
+            }
+        }
+
+        // освобождение соединений
+        @Override
+        public void close() throws SQLException {
+            for (final Part part : this.parts) {
+                if (part != null) {
+                    part.con.close();
+                }
+            }
+        }
+    }
+
+    // подсчет количества записей в БД по заданному идентификатору фильма в заданном интервале времени
+    @Override
+    public int count(
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to
+    ) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(movieId));
+            SqlStatement.Call call  = SqlScheduleRepository.window(SqlScheduleRepository.SQL_WINDOW_COUNT, from, to)
+        ) {
+            return call.set("movie_id", movieId).integer();
+        }
+    }
+
+    // подсчет количества записей в БД по всем фильмам сразу -- фильмы разных сегментов не пересекаются
+    @Override
+    public Map<Integer, Integer> countAll() throws SQLException {
+        final Map<Integer, Integer> result = new HashMap<>();
+
+        for (int shard = 0; shard < Shards.count(); shard++) {
+            try (
+                Shards.Scope      scope = Shards.on(shard);
+                SqlStatement.Call call  = SqlScheduleRepository.SQL_GROUPS.call()
+            ) {
+                call.list(rs -> result.put(rs.getInt(1), rs.getInt(2)));
+            }
+        }
+        return result;
+    }
+
+    // чтение записи из БД по заданному идентификатору
+    @Override
+    public ScheduleModel find(final int id) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(id));
+            SqlStatement.Call call  = SqlScheduleRepository.SQL_FIND.call()
+        ) {
+            return call.set("id", id).first(SqlScheduleRepository.MAPPER);
+        }
+    }
+
+    // чтение записей из БД по заданным идентификаторам -- одним запросом к каждому сегменту
+    @Override
+    public Map<Integer, ScheduleModel> findAll(final List<Integer> ids) throws SQLException {
+        final Map<Integer, ScheduleModel> result = new HashMap<>();
+        for (final Map.Entry<Integer, List<Integer>> part : Shards.split(ids).entrySet()) {
+            try (
+                Shards.Scope      scope = Shards.on(part.getKey());
+                SqlStatement.Call call  = SqlScheduleRepository.SQL_FIND_ALL.call()
+            ) {
+                final Integer[] shardIds = part.getValue().toArray(new Integer[0]);
+                for (final ScheduleModel schedule : call.set("ids", shardIds).list(SqlScheduleRepository.MAPPER)) {
+                    result.put(schedule.id, schedule);
+                }
+            }
+        }
+        return result;
+    }
+
+    // получить список записей из БД в соответствии с заданными параметрами
+    @Override
+    public List<ScheduleModel> list(
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to,
+        final int           offset,
+        final int           limit
+    ) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(movieId));
+            SqlStatement.Call call  = SqlScheduleRepository.window(SqlScheduleRepository.SQL_WINDOW_PAGE, from, to)
+        ) {
+            return call
+                .set("movie_id", movieId)
+                .set("limit",    limit)
+                .set("offset",   offset)
+                .list(SqlScheduleRepository.MAPPER);
+        }
+    }
+
+    // получить список записей из БД, следующих за заданной парой (дата и время, идентификатор)
+    @Override
+    public List<ScheduleModel> list(
+        final int           movieId,
+        final LocalDateTime from,
+        final LocalDateTime to,
+        final LocalDateTime dateAndTime,
+        final int           id,
+        final int           limit
+    ) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(movieId));
+            SqlStatement.Call call  = SqlScheduleRepository.window(SqlScheduleRepository.SQL_WINDOW_AFTER, from, to)
+        ) {
+            return call
+                .set("movie_id",  movieId)
+                .set("date_time", dateAndTime)
+                .set("id",        id)
+                .set("limit",     limit)
+                .list(SqlScheduleRepository.MAPPER);
+        }
+    }
+
+    // запрос во всех вариантах условия на интервал времени [from, to): без границ, с from, с to, с обеими
+    private static SqlStatement[] windowed(final String caller, final String head, final String tail) {
+        final SqlStatement[] result = new SqlStatement[4];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = SqlStatement.of(
+                caller,
+                head +
+                ((i & 1) != 0 ? " AND date_time >= :from" : "") +
+                ((i & 2) != 0 ? " AND date_time < :to" : "") +
+                tail
+            );
+        }
+        return result;
+    }
+
+    // подготовка варианта запроса для заданных границ интервала времени, незаданная граница не ограничивает выборку
+    private static SqlStatement.Call window(
+        final SqlStatement[] variants,
+        final LocalDateTime  from,
+        final LocalDateTime  to
+    ) throws SQLException {
+        final SqlStatement.Call call = variants[(from != null ? 1 : 0) | (to != null ? 2 : 0)].call();
+        try {
+            if (from != null) {
+                call.set("from", from);
+            }
+            if (to != null) {
+                call.set("to", to);
+            }
+        } catch (SQLException | RuntimeException exc) {
+            call.close();
+            throw exc;
+        }
+        return call;
+    }
+
+    // пакетная вставка записей порциями
+    @Override
+    public Batch batch() {
+        return new SqlBatch();
+    }
+
+    // вставка записи в сегмент ее фильма
+    @Override
+    public int insert(final ScheduleModel schedule) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(schedule.movieId));
+            SqlStatement.Call call  = SqlScheduleRepository.SQL_INSERT.call()
+        ) {
+            return call
+                .set("movie_id",   schedule.movieId)
+                .set("date_time",  schedule.dateAndTime)
+                .set("auditorium", schedule.auditorium)
+                .key();
+        }
+    }
+
+    // изменение записи без смены фильма -- одним запросом
+    @Override
+    public boolean update(final ScheduleModel schedule) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(schedule.id));
+            SqlStatement.Call call  = SqlScheduleRepository.SQL_UPDATE.call()
+        ) {
+            return call
+                .set("date_time",  schedule.dateAndTime)
+                .set("auditorium", schedule.auditorium)
+                .set("id",         schedule.id)
+                .set("movie_id",   schedule.movieId)
+                .update() != 0;
+        }
+    }
+
+    // перенос записи на другой фильм в пределах сегмента изменением строки; фильм другого сегмента -- ошибка:
+    // запись в нем получила бы другой идентификатор; отсутствие записи проверяется раньше, в ее сегменте
+    @Override
+    public Integer move(final ScheduleModel schedule) throws SQLException {
+        final long start = System.nanoTime();
+        try {
+            if (Shards.of(schedule.id) != Shards.of(schedule.movieId)) {
+                if (this.find(schedule.id) == null) {
+                    return null;
+                }
+                throw new SQLException(
+                    "Schedule " + schedule.id + " cannot move to movie " + schedule.movieId + " of another shard",
+                    CommonModel.SQLSTATE_CROSS_SHARD
+                );
+            }
+            try (Shards.Scope scope = Shards.on(Shards.of(schedule.id))) {
+                return SqlScheduleRepository.reassign(schedule);
+            }
+        } finally {
+            SqlScheduleRepository.MOVE_TIMER.recordSince(start);
+        }
+    }
+
+    // перенос записи на другой фильм того же сегмента; прежний фильм читается под блокировкой строки,
+    // т.к. OLD TABLE (UPDATE ...) в H2 не сообщает о нарушении внешнего ключа
+    private static Integer reassign(final ScheduleModel schedule) throws SQLException {
+        Connection con = CommonModel.open();
+        try {
+            Integer oldMovieId;
+            con.getJdbcConnection().setAutoCommit(false);
+            try {
+                oldMovieId = con.createQuery(
+                    "SELECT movie_id FROM " + SqlScheduleRepository.TABLE_SCHEDULES + " WHERE id = :id FOR UPDATE"
+                ).addParameter("id", schedule.id).executeScalar(Integer.class);
+                if (oldMovieId != null) {
+                    con.createQuery(
+                        "UPDATE " + SqlScheduleRepository.TABLE_SCHEDULES +
+                        " SET movie_id = :movie_id, date_time = :date_time, auditorium = :auditorium WHERE id = :id"
+                    )
+                    .addParameter("movie_id",   schedule.movieId)
+                    .addParameter("date_time",  Timestamp.valueOf(schedule.dateAndTime))
+                    .addParameter("auditorium", schedule.auditorium)
+                    .addParameter("id",         schedule.id)
+                    .executeUpdate();
+                }
+                con.getJdbcConnection().commit();
+            } catch (Sql2oException exc) {
+                con.getJdbcConnection().rollback();
+                throw exc;
+            } finally {
+                con.getJdbcConnection().setAutoCommit(true);
+            }
+            return oldMovieId;
+        } catch (Sql2oException exc) {
+            throw CommonModel.unwrap(exc);
+        } finally {
+            con.close();
+        }
+    }
+
+    // удаление записи из ее сегмента
+    @Override
+    public Integer delete(final int id) throws SQLException {
+        try (
+            Shards.Scope      scope = Shards.on(Shards.of(id));
+            SqlStatement.Call call  = SqlScheduleRepository.SQL_DELETE.call()
+        ) {
+            return call.set("id", id).first(rs -> rs.getInt(1));
+        }
+    }
+}
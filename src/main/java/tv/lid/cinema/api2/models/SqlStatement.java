@@ -0,0 +1,260 @@
+package tv.lid.cinema.api2.models;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import tv.lid.cinema.api2.metrics.Histogram;
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// SQL-запрос модели с именованными параметрами вида :name, разобранный один раз при загрузке класса модели;
+// подготовленные запросы переиспользуются пулом соединений по тексту запроса;
+// время от подготовки до закрытия запроса учитывается в метриках под именем вызывающего метода модели,
+// а время по фазам с параметрами -- в журнале медленных запросов QueryLog
+public final class SqlStatement {
+    // чтение значения из текущей строки результата запроса
+    @FunctionalInterface
+    public static interface Mapper<T> {
+        T map(ResultSet rs) throws SQLException;
+    }
+
+    // обработка текущей строки результата при потоковом чтении
+    @FunctionalInterface
+    public static interface RowHandler {
+        void handle(ResultSet rs) throws SQLException, IOException;
+    }
+
+    // текст запроса с позиционными параметрами
+    public final String sql;
+
+    // позиции именованных параметров, начиная с 1
+    private final Map<String, int[]> params;
+
+    // число позиционных параметров
+    private final int positions;
+
+    // метод модели
+    private final String caller;
+
+    // запрос возвращает сгенерированные ключи
+    private final boolean keys;
+
+    // время выполнения в метриках
+    private final Histogram timer;
+
+    // конструктор
+    private SqlStatement(final String caller, final String named, final boolean keys) {
+        final StringBuilder              sql    = new StringBuilder(named.length());
+        final Map<String, List<Integer>> params = new HashMap<>();
+        final int                        length = named.length();
+
+        int     position = 0;
+        boolean quoted   = false;
+
+        for (int i = 0; i < length; i++) {
+            final char c = named.charAt(i);
+
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (!quoted && c == ':' && i + 1 < length && Character.isJavaIdentifierStart(named.charAt(i + 1))) {
+                int end = i + 1;
+                while (end < length && Character.isJavaIdentifierPart(named.charAt(end))) {
+                    end++;
+                }
+                params.computeIfAbsent(named.substring(i + 1, end), name -> new ArrayList<>()).add(++position);
+                sql.append('?');
+                i = end - 1;
+                continue;
+            }
+            sql.append(c);
+        }
+
+        final Map<String, int[]> indexes = new HashMap<>();
+        for (final Map.Entry<String, List<Integer>> entry : params.entrySet()) {
+            indexes.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+
+        this.sql       = sql.toString();
+        this.params    = Collections.unmodifiableMap(indexes);
+        this.positions = position;
+        this.caller    = caller;
+        this.keys      = keys;
+        this.timer     = Metrics.DB_CALLS.series(caller);
+    }
+
+    // запрос без сгенерированных ключей, caller -- метод модели вида "MovieModel.list"
+    public static SqlStatement of(final String caller, final String named) {
+        return new SqlStatement(caller, named, false);
+    }
+
+    // запрос вставки, возвращающий сгенерированный ключ
+    public static SqlStatement withKeys(final String caller, final String named) {
+        return new SqlStatement(caller, named, true);
+    }
+
+    // подготовка запроса в соединении текущей единицы работы либо в отдельном соединении из пула
+    public Call call() throws SQLException {
+        final long       acquire = System.nanoTime();
+        final Connection con     = CommonModel.connection();
+        final long       start   = System.nanoTime();
+        try {
+            return new Call(
+                con,
+                start - acquire,
+                start,
+                this.keys
+                    ? con.prepareStatement(this.sql, Statement.RETURN_GENERATED_KEYS)
+                    : con.prepareStatement(this.sql)
+            );
+        } catch (SQLException | RuntimeException exc) {
+            con.close();
+            throw exc;
+        }
+    }
+
+    // однократное выполнение подготовленного запроса, закрытие возвращает запрос и соединение в пул
+    public final class Call implements AutoCloseable {
+        private final Connection        con;     // соединение
+        private final long              acquire; // время получения соединения в нс
+        private final long              start;   // начало выполнения по System.nanoTime()
+        private final PreparedStatement ps;      // подготовленный запрос
+        private final Object[]          values;  // значения параметров по позициям
+
+        // время чтения результата в объекты в нс
+        private long map = 0;
+
+        // результат читался потоком -- время включает передачу клиенту и в журнал медленных запросов не идет
+        private boolean streamed = false;
+
+        // конструктор
+        private Call(final Connection con, final long acquire, final long start, final PreparedStatement ps) {
+            this.con     = con;
+            this.acquire = acquire;
+            this.start   = start;
+            this.ps      = ps;
+            this.values  = new Object[SqlStatement.this.positions];
+        }
+
+        // значение именованного параметра
+        public Call set(final String name, final Object value) throws SQLException {
+            final int[] indexes = SqlStatement.this.params.get(name);
+            if (indexes == null) {
+                throw new IllegalArgumentException("No parameter :" + name + " in " + SqlStatement.this.sql);
+            }
+
+            final Object bound = value instanceof LocalDateTime ? Timestamp.valueOf((LocalDateTime) value) : value;
+            for (final int index : indexes) {
+                this.ps.setObject(index, bound);
+                this.values[index - 1] = bound;
+            }
+            return this;
+        }
+
+        // выполнение изменения, возвращает количество измененных записей
+        public int update() throws SQLException {
+            return this.ps.executeUpdate();
+        }
+
+        // выполнение вставки, возвращает сгенерированный ключ либо 0 -- если запись не вставлена
+        public int key() throws SQLException {
+            this.ps.executeUpdate();
+            final long mapped = System.nanoTime();
+            try (ResultSet rs = this.ps.getGeneratedKeys()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            } finally {
+                this.map += System.nanoTime() - mapped;
+            }
+        }
+
+        // первая строка результата, null -- если результат пуст
+        public <T> T first(final Mapper<T> mapper) throws SQLException {
+            try (ResultSet rs = this.ps.executeQuery()) {
+                final long mapped = System.nanoTime();
+                try {
+                    return rs.next() ? mapper.map(rs) : null;
+                } finally {
+                    this.map += System.nanoTime() - mapped;
+                }
+            }
+        }
+
+        // все строки результата
+        public <T> List<T> list(final Mapper<T> mapper) throws SQLException {
+            final List<T> result = new ArrayList<>();
+            try (ResultSet rs = this.ps.executeQuery()) {
+                final long mapped = System.nanoTime();
+                try {
+                    while (rs.next()) {
+                        result.add(mapper.map(rs));
+                    }
+                } finally {
+                    this.map += System.nanoTime() - mapped;
+                }
+            }
+            return result;
+        }
+
+        // потоковое чтение результата однонаправленным курсором порциями по fetchSize строк; H2 выполняет запрос
+        // лениво, не собирая результат целиком, -- на время чтения этот режим включается в соединении
+        public void stream(final int fetchSize, final RowHandler handler) throws SQLException, IOException {
+            this.ps.setFetchSize(fetchSize);
+            this.streamed = true;
+
+            try (Statement st = this.con.createStatement()) {
+                st.execute("SET LAZY_QUERY_EXECUTION 1");
+            }
+            try (ResultSet rs = this.ps.executeQuery()) {
+                final long mapped = System.nanoTime();
+                try {
+                    while (rs.next()) {
+                        handler.handle(rs);
+                    }
+                } finally {
+                    this.map += System.nanoTime() - mapped;
+                }
+            } finally {
+                try (Statement st = this.con.createStatement()) {
+                    st.execute("SET LAZY_QUERY_EXECUTION 0");
+                }
+            }
+        }
+
+        // целое число из первого столбца первой строки, 0 -- если результат пуст
+        public int integer() throws SQLException {
+            final Integer result = this.first(rs -> rs.getInt(1));
+            return result != null ? result.intValue() : 0;
+        }
+
+        // закрытие запроса и соединения; выполнение -- все время после получения соединения, кроме чтения результата
+        @Override
+        public void close() throws SQLException {
+            try {
+                this.ps.close();
+            } finally {
+                final long elapsed = System.nanoTime() - this.start;
+                SqlStatement.this.timer.record(elapsed);
+                if (!this.streamed) {
+                    QueryLog.record(
+                        SqlStatement.this.caller,
+                        SqlStatement.this.sql,
+                        this.values,
+                        this.acquire,
+                        elapsed - this.map,
+                        this.map
+                    );
+                }
+                this.con.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package tv.lid.cinema.api2.models;
+
+import java.util.Arrays;
+
+// отображение положительных целых ключей на значения, разбитое на полосы -- отображения IntMap; предназначено
+// для публикации копированием при записи: опубликованный экземпляр не меняется, изменения вносятся в черновик,
+// который разделяет с исходным экземпляром полосы и копирует только те, что меняет; черновик меняет один поток
+// до публикации, после нее -- никто
+final class StripedIntMap<V> {
+    // число полос -- степень двойки
+    private static final int STRIPES = 64;
+
+    // сдвиг хэша ключа, оставляющий номер полосы
+    private static final int SHIFT = Integer.SIZE - Integer.numberOfTrailingZeros(StripedIntMap.STRIPES);
+
+    // полосы
+    private final IntMap<V>[] stripes;
+
+    // полосы, принадлежащие только этому экземпляру и допускающие изменение
+    private final boolean[] owned;
+
+    // число записей
+    private int size;
+
+    // конструктор
+    StripedIntMap(final int capacity) {
+        this(StripedIntMap.stripes(), new boolean[StripedIntMap.STRIPES], 0);
+        for (int i = 0; i < StripedIntMap.STRIPES; i++) {
+            this.stripes[i] = new IntMap<>(capacity / StripedIntMap.STRIPES);
+            this.owned[i]   = true;
+        }
+    }
+
+    // конструктор черновика
+    private StripedIntMap(final IntMap<V>[] stripes, final boolean[] owned, final int size) {
+        this.stripes = stripes;
+        this.owned   = owned;
+        this.size    = size;
+    }
+
+    // массив полос
+    @SuppressWarnings("unchecked")
+    private static <V> IntMap<V>[] stripes() {
+        return (IntMap<V>[]) new IntMap<?>[StripedIntMap.STRIPES];
+    }
+
+    // полоса ключа -- по старшим битам мультипликативного хэша, последовательные ключи расходятся по полосам
+    private static int stripe(final int key) {
+        return (key * 0x9E3779B9) >>> StripedIntMap.SHIFT;
+    }
+
+    // черновик для изменения: полосы общие с этим экземпляром до первого изменения каждой из них
+    StripedIntMap<V> draft() {
+        return new StripedIntMap<>(this.stripes.clone(), new boolean[StripedIntMap.STRIPES], this.size);
+    }
+
+    // полоса ключа, готовая к изменению
+    private IntMap<V> writable(final int key) {
+        final int stripe = StripedIntMap.stripe(key);
+        if (!this.owned[stripe]) {
+            this.stripes[stripe] = this.stripes[stripe].copy();
+            this.owned[stripe]   = true;
+        }
+        return this.stripes[stripe];
+    }
+
+    // число записей
+    int size() {
+        return this.size;
+    }
+
+    // значение по ключу, null -- если записи нет
+    V get(final int key) {
+        return key > 0 ? this.stripes[StripedIntMap.stripe(key)].get(key) : null;
+    }
+
+    // запись значения по ключу, возвращает прежнее значение либо null
+    V put(final int key, final V value) {
+        if (key <= 0) {
+            throw new IllegalArgumentException("Key must be positive: " + key);
+        }
+
+        final V previous = this.writable(key).put(key, value);
+        if (previous == null) {
+            this.size++;
+        }
+        return previous;
+    }
+
+    // удаление записи по ключу, возвращает ее значение либо null
+    V remove(final int key) {
+        if (this.get(key) == null) {
+            return null; // полоса без этого ключа не копируется
+        }
+
+        this.size--;
+        return this.writable(key).remove(key);
+    }
+
+    // обход всех записей -- по полосам
+    void forEach(final IntMap.Visitor<V> visitor) {
+        for (final IntMap<V> stripe : this.stripes) {
+            stripe.forEach(visitor);
+        }
+    }
+
+    // все ключи по возрастанию
+    int[] keys() {
+        final int[] result = new int[this.size];
+        int         n      = 0;
+        for (final IntMap<V> stripe : this.stripes) {
+            final int[] keys = stripe.keys();
+            System.arraycopy(keys, 0, result, n, keys.length);
+            n += keys.length;
+        }
+        Arrays.sort(result);
+        return result;
+    }
+}
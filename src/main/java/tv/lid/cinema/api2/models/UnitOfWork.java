@@ -0,0 +1,305 @@
+package tv.lid.cinema.api2.models;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import javax.sql.DataSource;
+
+// единица работы: все обращения моделей к БД в пределах потока выполняются через одно соединение
+// с каждым затронутым сегментом в одной транзакции, которая фиксируется либо откатывается один раз в конце;
+// транзакции разных сегментов фиксируются по очереди, поэтому атомарна лишь работа в пределах одного сегмента
+public final class UnitOfWork implements AutoCloseable {
+    // единица работы, привязанная к текущему потоку
+    private static final ThreadLocal<UnitOfWork> CURRENT = new ThreadLocal<>();
+
+    // источники соединений по сегментам
+    private final DataSource[] sources;
+
+    // соединения по сегментам, получаемые при первом обращении к БД сегмента
+    private final Connection[] cons;
+
+    // те же соединения для моделей -- без возможности закрыть их либо завершить транзакцию
+    private final Connection[] shared;
+
+    // транзакция может быть только откачена
+    private boolean rollbackOnly = false;
+
+    // транзакция завершена
+    private boolean completed = false;
+
+    // сброс кэшей сразу по завершении транзакции -- как фиксации, так и отката, -- раньше всех прочих действий
+    private final List<Runnable> onCompletion = new ArrayList<>();
+
+    // действия после фиксации транзакции хотя бы в одном сегменте -- раньше действий после фиксации
+    private final List<Runnable> afterChange = new ArrayList<>();
+
+    // действия после фиксации транзакции
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    // действия после завершения транзакции -- как фиксации, так и отката
+    private final List<Runnable> afterCompletion = new ArrayList<>();
+
+    // обработчик вызовов разделяемого соединения
+    private final class Shared implements InvocationHandler {
+        private final Connection con; // соединение с сегментом
+
+        Shared(final Connection con) {
+            this.con = con;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                case "commit":
+                case "setAutoCommit":
+                case "setTransactionIsolation":
+                    return null; // транзакцией управляет единица работы
+                case "getAutoCommit":
+                    return true; // sql2o не должен откатывать транзакцию при закрытии соединения
+                case "rollback": // откат моделью либо sql2o при ошибке запроса -- вся транзакция будет откачена
+                    if (args == null) {
+                        UnitOfWork.this.rollbackOnly = true;
+                        return null;
+                    }
+                    break;
+                default:
+                    break;
+            }
+
+            try {
+                return method.invoke(this.con, args);
+            } catch (InvocationTargetException exc) {
+                throw exc.getCause();
+            }
+        }
+    }
+
+    // конструктор
+    private UnitOfWork(final DataSource[] sources) {
+        this.sources = sources;
+        this.cons    = new Connection[sources.length];
+        this.shared  = new Connection[sources.length];
+    }
+
+    // создание единицы работы и привязка ее к текущему потоку
+    public static UnitOfWork begin() {
+        if (UnitOfWork.CURRENT.get() != null) {
+            throw new IllegalStateException("Unit of work is already bound to the current thread");
+        }
+
+        final UnitOfWork unit = new UnitOfWork(Shards.dataSources());
+        UnitOfWork.CURRENT.set(unit);
+        return unit;
+    }
+
+    // единица работы текущего потока, null -- если не привязана
+    static UnitOfWork current() {
+        return UnitOfWork.CURRENT.get();
+    }
+
+    // сброс кэша по завершении транзакции текущего потока -- вне единицы работы ничего не делает; выполняется
+    // раньше действий после изменения, чтобы новую отметку версии нельзя было получить вместе с прежней записью
+    // из кэша, загруженной между первым сбросом и фиксацией
+    static void onCompletion(final Runnable action) {
+        final UnitOfWork unit = UnitOfWork.CURRENT.get();
+        if (unit != null) {
+            unit.onCompletion.add(action);
+        }
+    }
+
+    // выполнение действия после фиксации транзакции текущего потока хотя бы в одном сегменте либо сразу -- вне
+    // единицы работы; для действий, которые безопасно выполнить и без изменений, -- обновления отметок версий,
+    // которые при частичной фиксации должны отразить изменения уже зафиксированных сегментов
+    static void afterChange(final Runnable action) {
+        final UnitOfWork unit = UnitOfWork.CURRENT.get();
+        if (unit != null) {
+            unit.afterChange.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    // выполнение действия после фиксации транзакции текущего потока либо сразу -- вне единицы работы
+    static void afterCommit(final Runnable action) {
+        final UnitOfWork unit = UnitOfWork.CURRENT.get();
+        if (unit != null) {
+            unit.afterCommit.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    // повтор действия после завершения транзакции текущего потока -- вне единицы работы ничего не делает
+    static void afterCompletion(final Runnable action) {
+        final UnitOfWork unit = UnitOfWork.CURRENT.get();
+        if (unit != null) {
+            unit.afterCompletion.add(action);
+        }
+    }
+
+    // разделяемое соединение с сегментом, открывает транзакцию в нем при первом обращении
+    Connection connection(final int shard) throws SQLException {
+        if (this.completed) {
+            throw new SQLException("Unit of work is already completed");
+        }
+
+        if (this.cons[shard] == null) {
+            final Connection con = this.sources[shard].getConnection();
+            try {
+                con.setAutoCommit(false);
+            } catch (SQLException exc) {
+                con.close();
+                throw exc;
+            }
+            this.cons[shard]   = con;
+            this.shared[shard] = (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[] {Connection.class},
+                new Shared(con)
+            );
+        }
+        return this.shared[shard];
+    }
+
+    // открытие соединений со всеми сегментами заранее, до первого обращения к БД
+    void connectAll() throws SQLException {
+        for (int shard = 0; shard < this.cons.length; shard++) {
+            this.connection(shard);
+        }
+    }
+
+    // пометка транзакции для отката
+    public void setRollbackOnly() {
+        this.rollbackOnly = true;
+    }
+
+    // фиксация транзакции; помеченная для отката транзакция откатывается, и фиксация завершается ошибкой
+    public void commit() throws SQLException {
+        if (this.completed) {
+            return;
+        }
+        if (this.rollbackOnly) {
+            this.rollback();
+            throw new SQLException("Transaction is marked for rollback and has been rolled back");
+        }
+        this.completed = true;
+
+        // сверка счетчиков не выполняется, пока изменения уже зафиксированы, но еще не учтены
+        final Lock guard = Counters.guard();
+        guard.lock();
+        try {
+            boolean changed = false; // зафиксирован хотя бы один сегмент
+            try {
+                for (final Connection con : this.cons) {
+                    if (con != null) {
+                        con.commit(); // при ошибке ранее зафиксированные сегменты уже не откатить
+                        changed = true;
+                    }
+                }
+            } catch (SQLException exc) {
+                this.rollbackQuietly();
+                UnitOfWork.run(this.onCompletion);
+                if (changed) {
+                    UnitOfWork.run(this.afterChange);
+                }
+                UnitOfWork.run(this.afterCompletion);
+                throw exc;
+            }
+
+            UnitOfWork.run(this.onCompletion);
+            UnitOfWork.run(this.afterChange);
+            UnitOfWork.run(this.afterCommit);
+        } finally {
+            guard.unlock();
+        }
+        UnitOfWork.run(this.afterCompletion);
+    }
+
+    // откат транзакции
+    public void rollback() throws SQLException {
+        if (this.completed) {
+            return;
+        }
+        this.completed = true;
+
+        try {
+            SQLException error = null;
+            for (final Connection con : this.cons) {
+                if (con != null) {
+                    try {
+                        con.rollback();
+                    } catch (SQLException exc) {
+                        error = error != null ? error : exc;
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+        } finally {
+            UnitOfWork.run(this.onCompletion);
+            UnitOfWork.run(this.afterCompletion);
+        }
+    }
+
+    // откат незавершенной транзакции, возврат соединения в пул и отвязка от потока
+    @Override
+    public void close() throws SQLException {
+        try {
+            if (!this.completed) {
+                this.rollback();
+            }
+        } finally {
+            UnitOfWork.CURRENT.remove();
+            this.release();
+        }
+    }
+
+    // возврат соединений в пул: при ошибке с одним сегментом остальные соединения все равно возвращаются
+    private void release() throws SQLException {
+        SQLException error = null;
+        for (final Connection con : this.cons) {
+            if (con == null) {
+                continue;
+            }
+            try {
+                try {
+                    con.setAutoCommit(true);
+                } finally {
+                    con.close();
+                }
+            } catch (SQLException exc) {
+                error = error != null ? error : exc;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // откат транзакций без исключений -- после ошибки фиксации
+    private void rollbackQuietly() {
+        for (final Connection con : this.cons) {
+            if (con != null) {
+                try {
+                    con.rollback();
+                } catch (SQLException exc) {}
+            }
+        }
+    }
+
+    // выполнение списка действий
+    private static void run(final List<Runnable> actions) {
+        for (final Runnable action : actions) {
+            action.run();
+        }
+        actions.clear();
+    }
+}
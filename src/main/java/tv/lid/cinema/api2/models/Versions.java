@@ -0,0 +1,172 @@
+package tv.lid.cinema.api2.models;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// версии данных в памяти для условных запросов: по записям фильмов и сеансов, по спискам сеансов фильмов
+// и по таблицам; версия увеличивается после фиксации изменения, поэтому проверка свежести не обращается к БД;
+// при частичной фиксации единицы работы с несколькими сегментами увеличиваются все ее версии
+public final class Versions {
+    // сквозной номер версии -- общий для всех отметок, так что из двух отметок большая всегда новее
+    private static final AtomicLong sequence = new AtomicLong();
+
+    // отметки считаются заново при каждом запуске приложения
+    private static final String EPOCH = Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, 36);
+
+    // отметка версии
+    public static final class Stamp {
+        public final long version;  // номер версии
+        public final long modified; // время изменения, мс от начала эпохи
+
+        // конструктор
+        private Stamp(final long version, final long modified) {
+            this.version  = version;
+            this.modified = modified;
+        }
+
+        // новая версия
+        private static Stamp next() {
+            return new Stamp(Versions.sequence.incrementAndGet(), System.currentTimeMillis());
+        }
+
+        // более новая из двух отметок
+        private static Stamp max(final Stamp a, final Stamp b) {
+            return a == null || b != null && b.version > a.version ? b : a;
+        }
+
+        // значение заголовка ETag
+        public String etag() {
+            return "\"" + Versions.EPOCH + "-" + this.version + "\"";
+        }
+    }
+
+    // версия таблицы: любое изменение -- для списков; вставка либо каскадное удаление -- для записей,
+    // версия которых еще не отмечалась, т.к. с их прошлого чтения запись могла появиться либо исчезнуть
+    private static final class Table {
+        volatile Stamp any   = Stamp.next();
+        volatile Stamp floor = this.any;
+
+        // отметки отдельных записей
+        final ConcurrentHashMap<Integer, Stamp> rows = new ConcurrentHashMap<>();
+
+        // изменена запись
+        void changed(final int id, final Stamp stamp) {
+            this.rows.put(id, stamp);
+            this.any = stamp;
+        }
+
+        // вставлены либо каскадно удалены записи
+        void structure(final Stamp stamp) {
+            this.any   = stamp;
+            this.floor = stamp;
+        }
+
+        // версия записи
+        Stamp row(final int id) {
+            return Stamp.max(this.rows.get(id), this.floor);
+        }
+
+        // версия набора записей
+        Stamp rows(final Collection<Integer> ids) {
+            Stamp stamp = this.floor;
+            for (final Integer id : ids) {
+                stamp = Stamp.max(stamp, this.rows.get(id));
+            }
+            return stamp;
+        }
+    }
+
+    // фильмы и сеансы
+    private static final Table movies    = new Table(),
+                               schedules = new Table();
+
+    // отметки списков сеансов по идентификатору фильма
+    private static final ConcurrentHashMap<Integer, Stamp> lists = new ConcurrentHashMap<>();
+
+    private Versions() {}
+
+    // версия таблицы фильмов -- для списков фильмов
+    public static Stamp movies() {
+        return Versions.movies.any;
+    }
+
+    // версия всего каталога -- фильмов вместе с сеансами
+    public static Stamp catalogue() {
+        return Stamp.max(Versions.movies.any, Versions.schedules.any);
+    }
+
+    // версия фильма
+    public static Stamp movie(final int id) {
+        return Versions.movies.row(id);
+    }
+
+    // версия набора фильмов -- самая новая из версий фильмов
+    public static Stamp movie(final Collection<Integer> ids) {
+        return Versions.movies.rows(ids);
+    }
+
+    // версия сеанса
+    public static Stamp schedule(final int id) {
+        return Versions.schedules.row(id);
+    }
+
+    // версия набора сеансов -- самая новая из версий сеансов
+    public static Stamp schedule(final Collection<Integer> ids) {
+        return Versions.schedules.rows(ids);
+    }
+
+    // версия списка сеансов фильма -- включает версию самого фильма, без которого список недоступен
+    public static Stamp schedules(final int movieId) {
+        return Stamp.max(Stamp.max(Versions.lists.get(movieId), Versions.schedules.floor), Versions.movie(movieId));
+    }
+
+    // добавлены фильмы
+    static void moviesAdded() {
+        UnitOfWork.afterChange(() -> Versions.movies.structure(Stamp.next()));
+    }
+
+    // изменен фильм
+    static void movieChanged(final int id) {
+        UnitOfWork.afterChange(() -> Versions.movies.changed(id, Stamp.next()));
+    }
+
+    // удален фильм -- вместе с ним каскадно удалены и его сеансы
+    static void movieRemoved(final int id) {
+        UnitOfWork.afterChange(() -> {
+            final Stamp stamp = Stamp.next();
+            Versions.movies.changed(id, stamp);
+            Versions.schedules.structure(stamp);
+            Versions.lists.put(id, stamp);
+        });
+    }
+
+    // добавлены сеансы фильма
+    static void schedulesAdded(final int movieId) {
+        UnitOfWork.afterChange(() -> {
+            final Stamp stamp = Stamp.next();
+            Versions.schedules.structure(stamp);
+            Versions.lists.put(movieId, stamp);
+        });
+    }
+
+    // изменен сеанс фильма
+    static void scheduleChanged(final int id, final int movieId) {
+        UnitOfWork.afterChange(() -> {
+            final Stamp stamp = Stamp.next();
+            Versions.schedules.changed(id, stamp);
+            Versions.lists.put(movieId, stamp);
+        });
+    }
+
+    // сеанс перенесен с одного фильма на другой
+    static void scheduleMoved(final int id, final int fromMovieId, final int toMovieId) {
+        UnitOfWork.afterChange(() -> {
+            final Stamp stamp = Stamp.next();
+            Versions.schedules.changed(id, stamp);
+            Versions.lists.put(fromMovieId, stamp);
+            Versions.lists.put(toMovieId, stamp);
+        });
+    }
+}
@@ -0,0 +1,710 @@
+package tv.lid.cinema.api2.storages;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTimeoutException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Logger;
+import javax.sql.DataSource;
+
+import org.slf4j.LoggerFactory;
+
+import tv.lid.cinema.api2.metrics.Metrics;
+
+// ограниченный пул соединений с базой данных
+public final class ConnectionPool implements DataSource {
+    // журнал пула
+    private static final org.slf4j.Logger LOG = LoggerFactory.getLogger(ConnectionPool.class);
+
+    // период фоновой проверки пула в миллисекундах
+    private static final long HOUSEKEEPING_PERIOD = 5000;
+
+    // соединение, простоявшее меньше этого времени в мс, не проверяется перед выдачей
+    private static final long VALIDATION_INTERVAL = 1000;
+
+    // параметры пула
+    public static final class Settings {
+        // дефолтные параметры пула
+        private static final int  DEFAULT_MIN_SIZE             = 2,      // минимальное число соединений
+                                  DEFAULT_MAX_SIZE             = 16,     // максимальное число соединений
+                                  DEFAULT_VALIDATION_TIMEOUT   = 2,      // таймаут проверки соединения в секундах
+                                  DEFAULT_STATEMENT_CACHE_SIZE = 64;     // подготовленных запросов в кэше соединения
+
+        private static final long DEFAULT_ACQUIRE_TIMEOUT      = 5000,   // таймаут ожидания соединения в мс
+                                  DEFAULT_IDLE_TIMEOUT         = 600000, // время простоя до закрытия в мс
+                                  DEFAULT_LEAK_THRESHOLD       = 60000;  // время удержания до предупреждения об утечке в мс
+
+        public final int  minSize;            // минимальное число соединений
+        public final int  maxSize;            // максимальное число соединений
+        public final long acquireTimeout;     // таймаут ожидания свободного соединения в мс
+        public final long idleTimeout;        // время простоя, после которого лишнее соединение закрывается, в мс
+        public final int  validationTimeout;  // таймаут проверки соединения в секундах, 0 -- без проверки
+        public final long leakThreshold;      // время удержания соединения до предупреждения об утечке в мс, 0 -- отключено
+        public final int  statementCacheSize; // подготовленных запросов в кэше каждого соединения, 0 -- без кэша
+
+        // конструктор #1
+        public Settings(
+            final int  minSize,
+            final int  maxSize,
+            final long acquireTimeout,
+            final long idleTimeout,
+            final int  validationTimeout,
+            final long leakThreshold,
+            final int  statementCacheSize
+        ) {
+            if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+                throw new IllegalArgumentException("Incorrect connection pool size: " + minSize + ".." + maxSize);
+            }
+            if (statementCacheSize < 0) {
+                throw new IllegalArgumentException("Incorrect statement cache size: " + statementCacheSize);
+            }
+
+            this.minSize            = minSize;
+            this.maxSize            = maxSize;
+            this.acquireTimeout     = acquireTimeout;
+            this.idleTimeout        = idleTimeout;
+            this.validationTimeout  = validationTimeout;
+            this.leakThreshold      = leakThreshold;
+            this.statementCacheSize = statementCacheSize;
+        }
+
+        // конструктор #2
+        public Settings() {
+            this(
+                Settings.DEFAULT_MIN_SIZE,
+                Settings.DEFAULT_MAX_SIZE,
+                Settings.DEFAULT_ACQUIRE_TIMEOUT,
+                Settings.DEFAULT_IDLE_TIMEOUT,
+                Settings.DEFAULT_VALIDATION_TIMEOUT,
+                Settings.DEFAULT_LEAK_THRESHOLD,
+                Settings.DEFAULT_STATEMENT_CACHE_SIZE
+            );
+        }
+    }
+
+    // статистика пула
+    public static final class Statistics {
+        public final int  minSize;            // минимальное число соединений
+        public final int  maxSize;            // максимальное число соединений
+        public final int  total;              // всего открыто физических соединений
+        public final int  idle;               // свободных соединений
+        public final int  active;             // выданных соединений
+        public final int  waiting;            // потоков в ожидании соединения
+        public final long acquired;           // всего выдано соединений
+        public final long created;            // всего создано физических соединений
+        public final long destroyed;          // всего закрыто физических соединений
+        public final long timeouts;           // отказов по таймауту ожидания
+        public final long validationFailures; // соединений, не прошедших проверку
+        public final long leaks;              // обнаруженных утечек
+        public final long acquireMicros;      // среднее время получения соединения в мкс
+        public final long statementHits;      // подготовленных запросов, взятых из кэша
+        public final long statementMisses;    // подготовленных запросов, созданных заново
+
+        // конструктор
+        public Statistics(
+            final int  minSize,
+            final int  maxSize,
+            final int  total,
+            final int  idle,
+            final int  active,
+            final int  waiting,
+            final long acquired,
+            final long created,
+            final long destroyed,
+            final long timeouts,
+            final long validationFailures,
+            final long leaks,
+            final long acquireMicros,
+            final long statementHits,
+            final long statementMisses
+        ) {
+            this.minSize            = minSize;
+            this.maxSize            = maxSize;
+            this.total              = total;
+            this.idle               = idle;
+            this.active             = active;
+            this.waiting            = waiting;
+            this.acquired           = acquired;
+            this.created            = created;
+            this.destroyed          = destroyed;
+            this.timeouts           = timeouts;
+            this.validationFailures = validationFailures;
+            this.leaks              = leaks;
+            this.acquireMicros      = acquireMicros;
+            this.statementHits      = statementHits;
+            this.statementMisses    = statementMisses;
+        }
+    }
+
+    // подготовленный запрос в кэше соединения
+    private static final class Cached {
+        final PreparedStatement statement; // подготовленный запрос
+
+        boolean inUse   = false; // выдан и еще не закрыт
+        boolean evicted = false; // вытеснен из кэша либо выполнен с ошибкой, закрывается после возврата
+
+        Cached(final PreparedStatement statement) {
+            this.statement = statement;
+        }
+
+        // закрытие подготовленного запроса
+        void close() {
+            try {
+                this.statement.close();
+            } catch (SQLException exc) {}
+        }
+    }
+
+    // кэш подготовленных запросов соединения по тексту запроса, давно не использованные вытесняются;
+    // соединением в каждый момент пользуется один поток, поэтому синхронизация не требуется
+    private static final class StatementCache extends LinkedHashMap<String, Cached> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity; // наибольшее число запросов
+
+        StatementCache(final int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Cached> eldest) {
+            if (this.size() <= this.capacity) {
+                return false;
+            }
+
+            final Cached cached = eldest.getValue();
+            cached.evicted = true;
+            if (!cached.inUse) {
+                cached.close();
+            }
+            return true;
+        }
+    }
+
+    // физическое соединение, находящееся под управлением пула
+    private static final class Entry {
+        final Connection     connection; // физическое соединение
+        final StatementCache statements; // подготовленные запросы
+
+        volatile long      lastUsed;  // момент последнего возврата в пул, мс
+        volatile long      leasedAt;  // момент выдачи, мс
+        volatile Throwable leasedBy;  // место выдачи для диагностики утечек
+        volatile boolean   leaked;    // об утечке уже сообщено
+        volatile boolean   broken;    // соединение непригодно к повторному использованию
+
+        Entry(final Connection connection, final int statementCacheSize) {
+            this.connection = connection;
+            this.statements = new StatementCache(statementCacheSize);
+            this.lastUsed   = System.currentTimeMillis();
+        }
+    }
+
+    // обработчик вызовов выданного соединения
+    private final class Lease implements InvocationHandler {
+        private final Entry entry;
+
+        private volatile boolean closed = false;
+
+        Lease(final Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!this.closed) {
+                        this.closed = true;
+                        ConnectionPool.this.release(this.entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return this.closed || this.entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Pooled[" + this.entry.connection + "]";
+                default:
+                    break;
+            }
+
+            if (this.closed) {
+                throw new SQLException("Connection is already returned to the pool");
+            }
+
+            // запросы без дополнительных параметров либо с признаком возврата ключей берутся из кэша
+            if (method.getName().equals("prepareStatement") &&
+                ConnectionPool.this.settings.statementCacheSize > 0 &&
+                (args.length == 1 || args.length == 2 && args[1] instanceof Integer)) {
+                return this.prepare(proxy, method, args);
+            }
+
+            return this.delegate(method, args);
+        }
+
+        // подготовленный запрос из кэша соединения либо новый, помещаемый в кэш
+        private Object prepare(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final String key    = args.length == 1 ? (String) args[0] : args[0] + "\0" + args[1];
+            Cached       cached = this.entry.statements.get(key);
+
+            if (cached != null && cached.inUse) { // тот же запрос уже выполняется в этом соединении
+                ConnectionPool.this.statementMisses.increment();
+                return this.delegate(method, args);
+            }
+            if (cached != null && cached.evicted) { // запрос завершился ошибкой и уже закрыт
+                this.entry.statements.remove(key);
+                cached = null;
+            }
+
+            if (cached == null) {
+                ConnectionPool.this.statementMisses.increment();
+                cached = new Cached((PreparedStatement) this.delegate(method, args));
+                this.entry.statements.put(key, cached);
+            } else {
+                ConnectionPool.this.statementHits.increment();
+            }
+
+            cached.inUse = true;
+            return Proxy.newProxyInstance(
+                PreparedStatement.class.getClassLoader(),
+                new Class<?>[] { PreparedStatement.class },
+                new Borrowed(proxy, cached)
+            );
+        }
+
+        // вызов метода физического соединения
+        private Object delegate(final Method method, final Object[] args) throws Throwable {
+            try {
+                return method.invoke(this.entry.connection, args);
+            } catch (InvocationTargetException exc) {
+                final Throwable cause = exc.getCause();
+                if (cause instanceof SQLException) {
+                    final String state = ((SQLException) cause).getSQLState();
+                    if (state != null && state.startsWith("08")) { // ошибки соединения
+                        this.entry.broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+    }
+
+    // обработчик вызовов подготовленного запроса, выданного из кэша
+    private static final class Borrowed implements InvocationHandler {
+        private final Object connection; // выданное соединение
+        private final Cached cached;     // запрос в кэше
+
+        private boolean closed = false;
+
+        Borrowed(final Object connection, final Cached cached) {
+            this.connection = connection;
+            this.cached     = cached;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close": // запрос возвращается в кэш
+                    if (!this.closed) {
+                        this.closed = true;
+                        this.giveBack();
+                    }
+                    return null;
+                case "isClosed":
+                    return this.closed;
+                case "getConnection":
+                    return this.connection;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "Cached[" + this.cached.statement + "]";
+                default:
+                    break;
+            }
+
+            if (this.closed) {
+                throw new SQLException("Statement is already closed");
+            }
+
+            try {
+                return method.invoke(this.cached.statement, args);
+            } catch (InvocationTargetException exc) {
+                // запрос, выполнение которого завершилось ошибкой, повторно не выдается: H2 1.4.200 может
+                // молча не применять такой запрос UPDATE при следующем выполнении
+                if (exc.getCause() instanceof SQLException) {
+                    this.cached.evicted = true;
+                }
+                throw exc.getCause();
+            }
+        }
+
+        // возврат запроса в кэш в исходном состоянии
+        private void giveBack() {
+            this.cached.inUse = false;
+            if (this.cached.evicted) {
+                this.cached.close();
+                return;
+            }
+
+            try {
+                this.cached.statement.clearParameters();
+                this.cached.statement.clearBatch();
+                this.cached.statement.clearWarnings();
+            } catch (SQLException exc) {
+                this.cached.evicted = true;
+                this.cached.close();
+            }
+        }
+    }
+
+    // источник физических соединений
+    private final DataSource source;
+
+    // параметры пула
+    private final Settings settings;
+
+    // свободные соединения, последние возвращенные -- в начале
+    private final LinkedBlockingDeque<Entry> idle = new LinkedBlockingDeque<>();
+
+    // выданные соединения
+    private final Set<Entry> leased = ConcurrentHashMap.newKeySet();
+
+    // разрешения на выдачу соединений
+    private final Semaphore permits;
+
+    // всего открыто физических соединений
+    private final AtomicInteger total = new AtomicInteger();
+
+    // счетчики статистики
+    private final LongAdder acquired           = new LongAdder(),
+                            created            = new LongAdder(),
+                            destroyed          = new LongAdder(),
+                            timeouts           = new LongAdder(),
+                            validationFailures = new LongAdder(),
+                            leaks              = new LongAdder(),
+                            acquireNanos       = new LongAdder(),
+                            statementHits      = new LongAdder(),
+                            statementMisses    = new LongAdder();
+
+    // фоновое обслуживание пула
+    private final ScheduledExecutorService housekeeper;
+
+    // пул закрыт
+    private volatile boolean closed = false;
+
+    // конструктор
+    public ConnectionPool(final DataSource source, final Settings settings) throws SQLException {
+        this.source   = source;
+        this.settings = settings;
+        this.permits  = new Semaphore(settings.maxSize, true);
+
+        // предварительное открытие минимального числа соединений
+        this.fill();
+
+        this.housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.housekeeper.scheduleWithFixedDelay(
+            this::housekeep,
+            ConnectionPool.HOUSEKEEPING_PERIOD,
+            ConnectionPool.HOUSEKEEPING_PERIOD,
+            TimeUnit.MILLISECONDS
+        );
+    }
+
+    // получить соединение из пула
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+
+        final long start = System.nanoTime();
+
+        try {
+            if (!this.permits.tryAcquire(this.settings.acquireTimeout, TimeUnit.MILLISECONDS)) {
+                this.timeouts.increment();
+                throw new SQLTimeoutException(
+                    "Unable to acquire a connection in " + this.settings.acquireTimeout + " ms"
+                );
+            }
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a connection", exc);
+        }
+
+        final Entry entry;
+        try {
+            entry = this.take();
+        } catch (SQLException | RuntimeException exc) {
+            this.permits.release();
+            throw exc;
+        }
+
+        entry.leasedAt = System.currentTimeMillis();
+        entry.leasedBy = this.settings.leakThreshold > 0 ? new Throwable("Connection leased here") : null;
+        entry.leaked   = false;
+        this.leased.add(entry);
+
+        final long elapsed = System.nanoTime() - start;
+        this.acquired.increment();
+        this.acquireNanos.add(elapsed);
+        Metrics.POOL_ACQUIRE.record(elapsed);
+
+        return (Connection) Proxy.newProxyInstance(
+            Connection.class.getClassLoader(),
+            new Class<?>[] { Connection.class },
+            new Lease(entry)
+        );
+    }
+
+    @Override
+    public Connection getConnection(final String username, final String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException("Pooled connections always use the configured credentials");
+    }
+
+    // статистика пула
+    public Statistics statistics() {
+        final long acquired = this.acquired.sum();
+
+        return new Statistics(
+            this.settings.minSize,
+            this.settings.maxSize,
+            this.total.get(),
+            this.idle.size(),
+            this.leased.size(),
+            this.permits.getQueueLength(),
+            acquired,
+            this.created.sum(),
+            this.destroyed.sum(),
+            this.timeouts.sum(),
+            this.validationFailures.sum(),
+            this.leaks.sum(),
+            acquired != 0 ? this.acquireNanos.sum() / acquired / 1000 : 0,
+            this.statementHits.sum(),
+            this.statementMisses.sum()
+        );
+    }
+
+    // закрытие пула и всех свободных соединений
+    public void close() {
+        this.closed = true;
+        this.housekeeper.shutdownNow();
+
+        Entry entry;
+        while ((entry = this.idle.pollFirst()) != null) {
+            this.destroy(entry);
+        }
+    }
+
+    // взять свободное проверенное соединение либо открыть новое
+    private Entry take() throws SQLException {
+        Entry entry;
+        while ((entry = this.idle.pollFirst()) != null) {
+            if (this.validate(entry)) {
+                return entry;
+            }
+            this.destroy(entry);
+        }
+        return this.create();
+    }
+
+    // возврат соединения в пул
+    private void release(final Entry entry) {
+        if (!this.leased.remove(entry)) {
+            return;
+        }
+
+        try {
+            if (!entry.broken) {
+                final Connection con = entry.connection;
+                if (!con.getAutoCommit()) { // незавершенная транзакция откатывается
+                    con.rollback();
+                    con.setAutoCommit(true);
+                }
+                con.clearWarnings();
+
+                // незакрытые пользователем запросы закрываются и удаляются из кэша
+                entry.statements.values().removeIf(cached -> {
+                    if (cached.inUse || cached.evicted) {
+                        cached.close();
+                        return true;
+                    }
+                    return false;
+                });
+            }
+        } catch (SQLException exc) {
+            entry.broken = true;
+        }
+
+        if (entry.broken || this.closed) {
+            this.destroy(entry);
+        } else {
+            entry.lastUsed = System.currentTimeMillis();
+            entry.leasedBy = null;
+            this.idle.offerFirst(entry);
+        }
+
+        this.permits.release();
+    }
+
+    // проверка пригодности свободного соединения
+    private boolean validate(final Entry entry) {
+        if (this.settings.validationTimeout <= 0 ||
+            System.currentTimeMillis() - entry.lastUsed < ConnectionPool.VALIDATION_INTERVAL) {
+            return true;
+        }
+
+        try {
+            if (entry.connection.isValid(this.settings.validationTimeout)) {
+                return true;
+            }
+        } catch (SQLException exc) {}
+
+        this.validationFailures.increment();
+        return false;
+    }
+
+    // открытие нового физического соединения
+    private Entry create() throws SQLException {
+        this.total.incrementAndGet();
+        try {
+            final Entry entry = new Entry(this.source.getConnection(), this.settings.statementCacheSize);
+            this.created.increment();
+            return entry;
+        } catch (SQLException | RuntimeException exc) {
+            this.total.decrementAndGet();
+            throw exc;
+        }
+    }
+
+    // закрытие физического соединения
+    private void destroy(final Entry entry) {
+        this.total.decrementAndGet();
+        this.destroyed.increment();
+        try {
+            entry.connection.close();
+        } catch (SQLException exc) {}
+    }
+
+    // пополнение пула до минимального размера
+    private void fill() throws SQLException {
+        int current;
+        while ((current = this.total.get()) < this.settings.minSize) {
+            if (this.total.compareAndSet(current, current + 1)) {
+                final Entry entry;
+                try {
+                    entry = new Entry(this.source.getConnection(), this.settings.statementCacheSize);
+                } catch (SQLException | RuntimeException exc) {
+                    this.total.decrementAndGet();
+                    throw exc;
+                }
+                this.created.increment();
+                this.idle.offerLast(entry);
+            }
+        }
+    }
+
+    // фоновое обслуживание: вытеснение простаивающих, пополнение, поиск утечек;
+    // доступно в пакете для проверки без ожидания периода обслуживания
+    void housekeep() {
+        final long now = System.currentTimeMillis();
+
+        // вытеснение соединений, простаивающих дольше допустимого, начиная с самых старых
+        if (this.settings.idleTimeout > 0) {
+            Entry entry;
+            while (this.total.get() > this.settings.minSize && (entry = this.idle.pollLast()) != null) {
+                if (now - entry.lastUsed < this.settings.idleTimeout) {
+                    this.idle.offerLast(entry);
+                    break;
+                }
+                this.destroy(entry);
+            }
+        }
+
+        // пополнение до минимального размера
+        try {
+            this.fill();
+        } catch (SQLException | RuntimeException exc) {
+            ConnectionPool.LOG.warn("Unable to open a database connection: {}", exc.getMessage());
+        }
+
+        // поиск соединений, удерживаемых слишком долго
+        if (this.settings.leakThreshold > 0) {
+            for (final Entry entry : this.leased) {
+                if (!entry.leaked && now - entry.leasedAt > this.settings.leakThreshold) {
+                    entry.leaked = true;
+                    this.leaks.increment();
+                    ConnectionPool.LOG.warn(
+                        "Connection is held for more than " + this.settings.leakThreshold + " ms, possible leak",
+                        entry.leasedBy
+                    );
+                }
+            }
+        }
+    }
+
+    // служебные методы DataSource
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return this.source.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(final PrintWriter out) throws SQLException {
+        this.source.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(final int seconds) throws SQLException {
+        this.source.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return this.source.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return this.source.getParentLogger();
+    }
+
+    @Override
+    public <T> T unwrap(final Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return iface.cast(this);
+        }
+        return this.source.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || this.source.isWrapperFor(iface);
+    }
+}
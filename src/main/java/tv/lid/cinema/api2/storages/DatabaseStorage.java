@@ -1,6 +1,8 @@
 package tv.lid.cinema.api2.storages;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import javax.sql.DataSource;
 
 // базовый абстрактный класс базы данных
@@ -13,4 +15,12 @@ public abstract class DatabaseStorage {
 
     // получить data source
     public abstract DataSource dataSource() throws SQLException;
+
+    // получить data source всех сегментов БД, по умолчанию сегмент один
+    public List<DataSource> dataSources() throws SQLException {
+        return Collections.singletonList(this.dataSource());
+    }
+
+    // получить статистику пула соединений
+    public abstract ConnectionPool.Statistics statistics() throws SQLException;
 }
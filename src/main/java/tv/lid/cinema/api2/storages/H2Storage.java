@@ -8,75 +8,106 @@ import org.h2.jdbcx.JdbcDataSource;
 
 // класс доступа к базе данных H2
 public final class H2Storage extends DatabaseStorage {
+    // режим работы с базой данных
+    public static enum Mode {
+        SERVER,   // через TCP-сервер H2
+        EMBEDDED, // в процессе приложения, с хранением в файле
+        MEMORY;   // в процессе приложения, в оперативной памяти
+
+        // режим по его названию в конфигурации
+        public static Mode of(final String name) {
+            return Mode.valueOf(name.trim().toUpperCase());
+        }
+    }
+
     // дефолтные параметры подключения к базе данных
-    private static final int    DEFAULT_DB_PORT     = 7799;        // дефолтный порт для подключения к серверу БД
+    private static final Mode    DEFAULT_DB_MODE     = Mode.EMBEDDED; // дефолтный режим работы с БД
+
+    private static final boolean DEFAULT_DB_TCP      = false;         // дефолтный признак запуска TCP-сервера для внешних инструментов
 
-    private static final String DEFAULT_DB_HOME     = "data",      // дефолтный каталог для хранения файла БД
-                                DEFAULT_DB_FILE     = "cinema",    // дефолтный файл БД
-                                DEFAULT_DB_USERNAME = "sa",        // дефолтное имя пользователя БД
-                                DEFAULT_DB_PASSWORD = "sa@cinema"; // дефолтный пароль пользователя БД
+    private static final int     DEFAULT_DB_PORT     = 7799;          // дефолтный порт для подключения к серверу БД
+
+    private static final String  DEFAULT_DB_HOME     = "data",        // дефолтный каталог для хранения файла БД
+                                 DEFAULT_DB_FILE     = "cinema",      // дефолтный файл БД
+                                 DEFAULT_DB_USERNAME = "sa",          // дефолтное имя пользователя БД
+                                 DEFAULT_DB_PASSWORD = "sa@cinema";   // дефолтный пароль пользователя БД
 
     // параметры подключения к базе данных
-    private final int    dbPort;
-    private final String dbHome;
-    private final String dbFile;
-    private final String dbUsername;
-    private final String dbPassword;
+    private final Mode    dbMode;
+    private final boolean dbTcp;
+    private final int     dbPort;
+    private final String  dbHome;
+    private final String  dbFile;
+    private final String  dbUsername;
+    private final String  dbPassword;
+
+    // параметры пула соединений
+    private final ConnectionPool.Settings poolSettings;
 
     // экземпляр сервера БД
     private Server srv = null;
 
-    // data source
-    private JdbcDataSource ds = null;
+    // пул соединений
+    private ConnectionPool ds = null;
 
     // конструктор #1
     public H2Storage(
-        int    dbPort,
-        String dbHome,
-        String dbFile,
-        String dbUsername,
-        String dbPassword
+        Mode                    dbMode,
+        boolean                 dbTcp,
+        int                     dbPort,
+        String                  dbHome,
+        String                  dbFile,
+        String                  dbUsername,
+        String                  dbPassword,
+        ConnectionPool.Settings poolSettings
     ) {
-        this.dbPort     = dbPort;
-        this.dbHome     = dbHome;
-        this.dbFile     = dbFile;
-        this.dbUsername = dbUsername;
-        this.dbPassword = dbPassword;
+        this.dbMode       = dbMode;
+        this.dbTcp        = dbTcp;
+        this.dbPort       = dbPort;
+        this.dbHome       = dbHome;
+        this.dbFile       = dbFile;
+        this.dbUsername   = dbUsername;
+        this.dbPassword   = dbPassword;
+        this.poolSettings = poolSettings;
     }
 
     // конструктор #2
     public H2Storage() {
         this(
+            H2Storage.DEFAULT_DB_MODE,
+            H2Storage.DEFAULT_DB_TCP,
             H2Storage.DEFAULT_DB_PORT,
             H2Storage.DEFAULT_DB_HOME,
             H2Storage.DEFAULT_DB_FILE,
             H2Storage.DEFAULT_DB_USERNAME,
-            H2Storage.DEFAULT_DB_PASSWORD
+            H2Storage.DEFAULT_DB_PASSWORD,
+            new ConnectionPool.Settings()
         );
     }
 
     // установление соединения с базой данных
     public void connect() throws SQLException {
         try {
-            // запуск сервера H2
+            // запуск сервера H2 -- обязателен для работы через TCP, иначе нужен только внешним инструментам
             Class.forName("org.h2.Driver");
-            this.srv = Server.createTcpServer(
-                "-ifNotExists",
-                "-tcpDaemon",
-                "-tcpAllowOthers",
-                "-tcpPort",
-                String.valueOf(this.dbPort)
-            ).start();
+            if (this.dbMode == Mode.SERVER || this.dbTcp) {
+                this.srv = Server.createTcpServer(
+                    "-ifNotExists",
+                    "-tcpDaemon",
+                    "-tcpAllowOthers",
+                    "-tcpPort",
+                    String.valueOf(this.dbPort)
+                ).start();
+            }
 
             // создание data source
-            this.ds = new JdbcDataSource();
-            this.ds.setURL(
-                "jdbc:h2:tcp://localhost:" + this.dbPort + "/." + (this.dbHome.startsWith("/")
-                    ? this.dbHome
-                    : "/" + this.dbHome) + "/" + this.dbFile
-            );
-            this.ds.setUser(this.dbUsername);
-            this.ds.setPassword(this.dbPassword);
+            final JdbcDataSource jds = new JdbcDataSource();
+            jds.setURL(this.url());
+            jds.setUser(this.dbUsername);
+            jds.setPassword(this.dbPassword);
+
+            // создание пула соединений поверх data source
+            this.ds = new ConnectionPool(jds, this.poolSettings);
         } catch (Exception exc) {
             throw new SQLException();
         }
@@ -85,12 +116,33 @@ public final class H2Storage extends DatabaseStorage {
     // разрыв соединения с базой данных
     public void disconnect() throws SQLException {
         try {
-            this.srv.stop();
+            if (this.ds != null) {
+                this.ds.close();
+            }
+            if (this.srv != null) {
+                this.srv.stop();
+            }
         } catch (Exception exc) {
             throw new SQLException();
         }
     }
 
+    // адрес базы данных в соответствии с режимом работы
+    private String url() {
+        switch (this.dbMode) {
+            case EMBEDDED:
+                return "jdbc:h2:file:" + (this.dbHome.startsWith("/")
+                    ? this.dbHome
+                    : "./" + this.dbHome) + "/" + this.dbFile;
+            case MEMORY:
+                return "jdbc:h2:mem:" + this.dbFile + ";DB_CLOSE_DELAY=-1";
+            default:
+                return "jdbc:h2:tcp://localhost:" + this.dbPort + "/." + (this.dbHome.startsWith("/")
+                    ? this.dbHome
+                    : "/" + this.dbHome) + "/" + this.dbFile;
+        }
+    }
+
     // получить data source
     public DataSource dataSource() throws SQLException {
         if (this.ds != null) {
@@ -99,4 +151,13 @@ public final class H2Storage extends DatabaseStorage {
             throw new SQLException();
         }
     }
+
+    // получить статистику пула соединений
+    public ConnectionPool.Statistics statistics() throws SQLException {
+        if (this.ds != null) {
+            return this.ds.statistics();
+        } else {
+            throw new SQLException();
+        }
+    }
 }
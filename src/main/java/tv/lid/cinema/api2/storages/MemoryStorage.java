@@ -0,0 +1,74 @@
+package tv.lid.cinema.api2.storages;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+
+import tv.lid.cinema.api2.models.MemoryRepository;
+import tv.lid.cinema.api2.models.Repositories;
+
+// класс хранения данных в памяти процесса без БД: модели переключаются на хранилища в памяти,
+// данные при необходимости переживают перезапуск через снимок в файле
+public final class MemoryStorage extends DatabaseStorage {
+    // файл снимка данных, null -- без снимка
+    private final Path snapshot;
+
+    // хранилище данных
+    private MemoryRepository repository = null;
+
+    // конструктор: пустой путь -- без снимка
+    public MemoryStorage(final String snapshot) {
+        this.snapshot = snapshot.isEmpty() ? null : Paths.get(snapshot);
+    }
+
+    // создание хранилища с загрузкой снимка, если он есть, и переключение моделей на него
+    @Override
+    public void connect() throws SQLException {
+        final MemoryRepository repository = new MemoryRepository();
+        if (this.snapshot != null && Files.exists(this.snapshot)) {
+            try {
+                repository.restore(this.snapshot);
+            } catch (IOException exc) {
+                throw new SQLException("Unable to restore snapshot " + this.snapshot, exc);
+            }
+        }
+
+        Repositories.use(repository.movies(), repository.schedules());
+        this.repository = repository;
+    }
+
+    // сохранение снимка данных
+    @Override
+    public void disconnect() throws SQLException {
+        if (this.repository != null && this.snapshot != null) {
+            try {
+                this.repository.save(this.snapshot);
+            } catch (IOException exc) {
+                throw new SQLException("Unable to save snapshot " + this.snapshot, exc);
+            }
+        }
+    }
+
+    // получить data source -- БД нет
+    @Override
+    public DataSource dataSource() throws SQLException {
+        throw new SQLException("In-memory storage has no data source");
+    }
+
+    // получить data source всех сегментов БД -- сегментов нет
+    @Override
+    public List<DataSource> dataSources() {
+        return Collections.emptyList();
+    }
+
+    // получить статистику пула соединений -- пула нет
+    @Override
+    public ConnectionPool.Statistics statistics() throws SQLException {
+        throw new SQLException("In-memory storage has no connection pool");
+    }
+}
@@ -0,0 +1,166 @@
+package tv.lid.cinema.api2.storages;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+
+// класс доступа к нескольким базам данных H2 -- сегментам, по которым модели распределяют записи
+public final class ShardedH2Storage extends DatabaseStorage {
+    // базы данных сегментов
+    private final List<H2Storage> shards;
+
+    // конструктор #1
+    public ShardedH2Storage(final List<H2Storage> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+
+        this.shards = Collections.unmodifiableList(new ArrayList<>(shards));
+    }
+
+    // конструктор #2 -- сегменты с общими параметрами: файл БД сегмента получает суффикс с его номером,
+    // TCP-сервер сегмента -- следующий по порядку порт
+    public ShardedH2Storage(
+        final int                     count,
+        final H2Storage.Mode          dbMode,
+        final boolean                 dbTcp,
+        final int                     dbPort,
+        final String                  dbHome,
+        final String                  dbFile,
+        final String                  dbUsername,
+        final String                  dbPassword,
+        final ConnectionPool.Settings poolSettings
+    ) {
+        this(ShardedH2Storage.shards(
+            count,
+            dbMode,
+            dbTcp,
+            dbPort,
+            dbHome,
+            dbFile,
+            dbUsername,
+            dbPassword,
+            poolSettings
+        ));
+    }
+
+    // базы данных сегментов с общими параметрами
+    private static List<H2Storage> shards(
+        final int                     count,
+        final H2Storage.Mode          dbMode,
+        final boolean                 dbTcp,
+        final int                     dbPort,
+        final String                  dbHome,
+        final String                  dbFile,
+        final String                  dbUsername,
+        final String                  dbPassword,
+        final ConnectionPool.Settings poolSettings
+    ) {
+        final List<H2Storage> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            result.add(new H2Storage(
+                dbMode,
+                dbTcp,
+                dbPort + i,
+                dbHome,
+                dbFile + "-" + i,
+                dbUsername,
+                dbPassword,
+                poolSettings
+            ));
+        }
+        return result;
+    }
+
+    // установление соединения со всеми базами данных; при ошибке уже открытые соединения разрываются
+    public void connect() throws SQLException {
+        for (int i = 0; i < this.shards.size(); i++) {
+            try {
+                this.shards.get(i).connect();
+            } catch (SQLException exc) {
+                for (int j = 0; j < i; j++) {
+                    try {
+                        this.shards.get(j).disconnect();
+                    } catch (SQLException ignored) {}
+                }
+                throw exc;
+            }
+        }
+    }
+
+    // разрыв соединения со всеми базами данных
+    public void disconnect() throws SQLException {
+        SQLException error = null;
+        for (final H2Storage shard : this.shards) {
+            try {
+                shard.disconnect();
+            } catch (SQLException exc) {
+                error = error != null ? error : exc;
+            }
+        }
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    // получить data source первого сегмента
+    public DataSource dataSource() throws SQLException {
+        return this.shards.get(0).dataSource();
+    }
+
+    // получить data source всех сегментов
+    @Override
+    public List<DataSource> dataSources() throws SQLException {
+        final List<DataSource> result = new ArrayList<>(this.shards.size());
+        for (final H2Storage shard : this.shards) {
+            result.add(shard.dataSource());
+        }
+        return result;
+    }
+
+    // получить суммарную статистику пулов соединений; среднее время получения соединения -- взвешенное по числу выдач
+    public ConnectionPool.Statistics statistics() throws SQLException {
+        int  minSize = 0, maxSize = 0, total = 0, idle = 0, active = 0, waiting = 0;
+        long acquired = 0, created = 0, destroyed = 0, timeouts = 0, validationFailures = 0, leaks = 0,
+             acquireMicros = 0, statementHits = 0, statementMisses = 0;
+
+        for (final H2Storage shard : this.shards) {
+            final ConnectionPool.Statistics stats = shard.statistics();
+            minSize            += stats.minSize;
+            maxSize            += stats.maxSize;
+            total              += stats.total;
+            idle               += stats.idle;
+            active             += stats.active;
+            waiting            += stats.waiting;
+            acquired           += stats.acquired;
+            created            += stats.created;
+            destroyed          += stats.destroyed;
+            timeouts           += stats.timeouts;
+            validationFailures += stats.validationFailures;
+            leaks              += stats.leaks;
+            acquireMicros      += stats.acquireMicros * stats.acquired;
+            statementHits      += stats.statementHits;
+            statementMisses    += stats.statementMisses;
+        }
+
+        return new ConnectionPool.Statistics(
+            minSize,
+            maxSize,
+            total,
+            idle,
+            active,
+            waiting,
+            acquired,
+            created,
+            destroyed,
+            timeouts,
+            validationFailures,
+            leaks,
+            acquired != 0 ? acquireMicros / acquired : 0,
+            statementHits,
+            statementMisses
+        );
+    }
+}
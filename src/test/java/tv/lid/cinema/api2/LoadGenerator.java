@@ -0,0 +1,419 @@
+package tv.lid.cinema.api2;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import io.jooby.Server;
+import io.jooby.ServerOptions;
+import io.jooby.jetty.Jetty;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import tv.lid.cinema.api2.models.Counters;
+import tv.lid.cinema.api2.models.Migrations;
+import tv.lid.cinema.api2.models.MovieModel;
+import tv.lid.cinema.api2.models.ScheduleModel;
+import tv.lid.cinema.api2.storages.DatabaseStorage;
+
+// нагрузочный тест: приложение на локальном порту с заполненной БД и генератор запросов заданной смеси
+// по постоянным соединениям, с гистограммами задержек по маршрутам с поправкой на координированное упущение;
+// параметры -- системные свойства load.*, см. Settings
+public final class LoadGenerator {
+    // тип тела запросов
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    // начало сеансов, создаваемых при заполнении и под нагрузкой
+    private static final LocalDateTime START = LocalDateTime.of(2020, 9, 1, 10, 0);
+
+    // параметры нагрузки
+    private static final class Settings {
+        final String  db          = System.getProperty("load.db",          "memory"); // режим работы с БД
+        final int     port        = Integer.getInteger("load.port",        8181);     // порт приложения
+        final String  mode        = System.getProperty("load.mode",        "rate");   // rate -- постоянный темп, closed -- замкнутый цикл
+        final int     rate        = Integer.getInteger("load.rate",        2000);     // запросов в секунду в режиме rate
+        final int     concurrency = Integer.getInteger("load.concurrency", 32);       // потоков и соединений
+        final int     warmup      = Integer.getInteger("load.warmup",      10);       // прогрев, с
+        final int     duration    = Integer.getInteger("load.duration",    30);       // измерение, с
+        final int     movies      = Integer.getInteger("load.movies",      1000);     // фильмов в БД
+        final int     schedules   = Integer.getInteger("load.schedules",   20);       // сеансов каждого фильма
+        final String  mix         = System.getProperty(                               // доли запросов по маршрутам
+            "load.mix",
+            "movies=25,movie=30,schedules=25,create=8,modify=7,kill=5"
+        );
+        final String  reports     = System.getProperty("load.reports",     "build/reports/load");
+
+        boolean closed() {
+            return this.mode.equalsIgnoreCase("closed");
+        }
+    }
+
+    // маршрут нагрузки
+    private static enum Route {
+        MOVIES    ("GET    /api2/movies/{page}"),
+        MOVIE     ("GET    /api2/movie/{id}"),
+        SCHEDULES ("GET    /api2/schedules/{movieId}?from&to"),
+        CREATE    ("POST   /api2/schedule"),
+        MODIFY    ("PUT    /api2/movie"),
+        KILL      ("DELETE /api2/schedule/{id}");
+
+        final String title;
+
+        Route(final String title) {
+            this.title = title;
+        }
+    }
+
+    // статистика маршрута
+    private static final class Stats {
+        final Histogram histogram = new ConcurrentHistogram(3); // задержки в мкс
+        final LongAdder errors    = new LongAdder();            // ошибки транспорта и ответы с кодом, отличным от 200
+    }
+
+    private final Settings       settings;
+    private final String         base;
+    private final OkHttpClient   client;
+    private final ObjectMapper   mapper = new ObjectMapper();
+    private final Route[]        routes = new Route[100];            // маршрут по случайному проценту
+    private final Map<Route, Stats> stats = new EnumMap<>(Route.class);
+
+    // идентификаторы фильмов в БД
+    private int[] movieIds;
+
+    // идентификаторы сеансов, созданных под нагрузкой, -- кандидаты на удаление
+    private final ConcurrentLinkedQueue<Integer> created = new ConcurrentLinkedQueue<>();
+
+    // ожидаемый интервал между запросами одного потока в мкс для поправки в режиме closed, 0 -- без поправки
+    private volatile long expectedInterval = 0;
+
+    // конструктор
+    private LoadGenerator(final Settings settings) {
+        this.settings = settings;
+        this.base     = "http://localhost:" + settings.port;
+        this.client   = new OkHttpClient.Builder()
+            .connectionPool(new ConnectionPool(settings.concurrency, 5, TimeUnit.MINUTES))
+            .dispatcher(LoadGenerator.dispatcher(settings.concurrency))
+            .retryOnConnectionFailure(false)
+            .build();
+
+        // смесь запросов
+        int filled = 0;
+        for (final String part : settings.mix.split(",")) {
+            final String[] pair  = part.trim().split("=");
+            final Route    route = Route.valueOf(pair[0].trim().toUpperCase());
+            final int      share = Integer.parseInt(pair[1].trim());
+            for (int i = 0; i < share && filled < this.routes.length; i++) {
+                this.routes[filled++] = route;
+            }
+        }
+        if (filled != this.routes.length) {
+            throw new IllegalArgumentException("Shares in load.mix must add up to 100: " + settings.mix);
+        }
+
+        this.reset();
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final Settings settings = new Settings();
+
+        // хранилище с отдельным каталогом, остальные параметры -- из конфигурации приложения
+        final Map<String, Object> overrides = new HashMap<>();
+        overrides.put("db.mode", settings.db);
+        overrides.put("db.tcp",  false);
+        overrides.put("db.home", "build/load/h2");
+
+        final Config          conf = ConfigFactory.parseMap(overrides).withFallback(App.settings()).resolve();
+        final DatabaseStorage h2s  = App.storage(conf);
+
+        App.connect(h2s);
+        try {
+            Migrations.reset();
+            App.prepare(conf);
+
+            final LoadGenerator generator = new LoadGenerator(settings);
+            generator.seed();
+
+            final Server server = new Jetty()
+                .setOptions(new ServerOptions().setPort(settings.port))
+                .start(new App());
+            try {
+                generator.run();
+            } finally {
+                server.stop();
+            }
+        } finally {
+            Counters.stop();
+            h2s.disconnect();
+        }
+    }
+
+    // диспетчер асинхронных вызовов -- ограничен числом потоков нагрузки
+    private static Dispatcher dispatcher(final int concurrency) {
+        final Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(concurrency);
+        dispatcher.setMaxRequestsPerHost(concurrency);
+        return dispatcher;
+    }
+
+    // заполнение БД
+    private void seed() throws SQLException {
+        final List<MovieModel> movies = new ArrayList<>(this.settings.movies);
+        for (int i = 0; i < this.settings.movies; i++) {
+            movies.add(new MovieModel("Movie #" + i, (short) (90 + i % 60), (short) (1950 + i % 70)));
+        }
+        this.movieIds = MovieModel.saveAll(movies).stream().mapToInt(Integer::intValue).toArray();
+
+        try (ScheduleModel.Importer importer = ScheduleModel.importer(1000)) {
+            for (final int movieId : this.movieIds) {
+                for (int i = 0; i < this.settings.schedules; i++) {
+                    importer.add(new ScheduleModel(movieId, LoadGenerator.START.plusHours(i * 3), (byte) (1 + i % 5)));
+                }
+            }
+        }
+    }
+
+    // прогрев, измерение и отчет
+    private void run() throws Exception {
+        System.out.println(String.format(
+            "Load: %s, %s, %d threads, %d s warm-up, %d s measurement, db %s, mix %s",
+            this.settings.closed() ? "closed loop" : this.settings.rate + " req/s",
+            this.base,
+            this.settings.concurrency,
+            this.settings.warmup,
+            this.settings.duration,
+            this.settings.db,
+            this.settings.mix
+        ));
+
+        this.phase(this.settings.warmup);
+
+        // в замкнутом цикле поправка делается на среднюю задержку, измеренную при прогреве
+        if (this.settings.closed()) {
+            final Histogram total = this.total();
+            this.expectedInterval = total.getTotalCount() != 0 ? (long) total.getMean() : 0;
+        }
+        this.reset();
+
+        final long start = System.nanoTime();
+        this.phase(this.settings.duration);
+        final double seconds = (System.nanoTime() - start) / 1e9;
+
+        this.report(seconds);
+    }
+
+    // одна фаза нагрузки заданной длительности
+    private void phase(final int seconds) throws InterruptedException {
+        final ExecutorService workers = Executors.newFixedThreadPool(this.settings.concurrency);
+        final long            start   = System.nanoTime();
+        final long            end     = start + TimeUnit.SECONDS.toNanos(seconds);
+
+        // интервал между запросами одного потока в режиме постоянного темпа
+        final long interval = this.settings.closed()
+            ? 0
+            : TimeUnit.SECONDS.toNanos(1) * this.settings.concurrency / Math.max(1, this.settings.rate);
+
+        for (int w = 0; w < this.settings.concurrency; w++) {
+            final long offset = interval * w / this.settings.concurrency; // потоки равномерно сдвинуты
+            workers.execute(() -> this.work(start + offset, end, interval));
+        }
+
+        workers.shutdown();
+        workers.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    }
+
+    // цикл одного потока: в режиме rate задержка отсчитывается от запланированного момента отправки,
+    // поэтому отставание от расписания из-за медленных ответов попадает в гистограмму
+    private void work(final long first, final long end, final long interval) {
+        long intended = first;
+
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0) {
+                if (intended - now > 0) {
+                    LockSupport.parkNanos(intended - now);
+                }
+            } else {
+                intended = now;
+            }
+            if (intended - end >= 0) {
+                break;
+            }
+
+            Route   route = this.routes[ThreadLocalRandom.current().nextInt(this.routes.length)];
+            boolean ok;
+            if (route == Route.KILL && this.created.isEmpty()) { // удалять пока нечего
+                route = Route.CREATE;
+            }
+            try {
+                ok = this.call(route);
+            } catch (IOException exc) {
+                ok = false;
+            }
+
+            final long  latency = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intended);
+            final Stats stats   = this.stats.get(route);
+            if (this.expectedInterval > 0) {
+                stats.histogram.recordValueWithExpectedInterval(latency, this.expectedInterval);
+            } else {
+                stats.histogram.recordValue(latency);
+            }
+            if (!ok) {
+                stats.errors.increment();
+            }
+
+            intended += interval;
+        }
+    }
+
+    // выполнение запроса маршрута, false -- если ответ неуспешен
+    private boolean call(final Route route) throws IOException {
+        final ThreadLocalRandom random  = ThreadLocalRandom.current();
+        final int               movieId = this.movieIds[random.nextInt(this.movieIds.length)];
+        final Request.Builder   request = new Request.Builder();
+
+        switch (route) {
+            case MOVIES:
+                request.url(this.base + "/api2/movies/" + (1 + random.nextInt(Math.max(1, this.movieIds.length / 10))));
+                break;
+            case MOVIE:
+                request.url(this.base + "/api2/movie/" + movieId);
+                break;
+            case SCHEDULES:
+                request.url(
+                    this.base + "/api2/schedules/" + movieId +
+                    "?from=" + LoadGenerator.START + "&to=" + LoadGenerator.START.plusDays(2)
+                );
+                break;
+            case CREATE:
+                request.url(this.base + "/api2/schedule").post(RequestBody.create(
+                    LoadGenerator.JSON,
+                    "{\"movieId\":" + movieId + ",\"dateAndTime\":\"" + LoadGenerator.START.plusDays(30) +
+                    "\",\"auditorium\":" + (1 + random.nextInt(5)) + "}"
+                ));
+                break;
+            case MODIFY:
+                request.url(this.base + "/api2/movie").put(RequestBody.create(
+                    LoadGenerator.JSON,
+                    "{\"id\":" + movieId + ",\"title\":\"Movie " + movieId + "\",\"duration\":" +
+                    (90 + random.nextInt(60)) + ",\"year\":" + (1950 + random.nextInt(70)) + "}"
+                ));
+                break;
+            case KILL:
+                final Integer id = this.created.poll();
+                request.url(this.base + "/api2/schedule/" + (id != null ? id : 0)).delete();
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        try (Response response = this.client.newCall(request.build()).execute()) {
+            if (response.code() != 200) {
+                return false;
+            }
+            if (route != Route.CREATE) {
+                response.body().source().skip(Long.MAX_VALUE); // тело дочитывается, соединение возвращается в пул
+                return true;
+            }
+
+            // идентификатор нового сеанса -- для последующего удаления
+            final JsonNode result = this.mapper.readTree(response.body().byteStream());
+            if (result.path("code").asInt() != 200) {
+                return false;
+            }
+            this.created.add(result.path("data").asInt());
+            return true;
+        }
+    }
+
+    // сброс статистики
+    private void reset() {
+        for (final Route route : Route.values()) {
+            this.stats.put(route, new Stats());
+        }
+    }
+
+    // сводная гистограмма по всем маршрутам
+    private Histogram total() {
+        final Histogram total = new Histogram(3);
+        for (final Stats stats : this.stats.values()) {
+            total.add(stats.histogram);
+        }
+        return total;
+    }
+
+    // отчет: пропускная способность и перцентили задержки по маршрутам, распределения -- в файлы .hgrm
+    private void report(final double seconds) throws IOException {
+        final File dir = new File(this.settings.reports);
+        dir.mkdirs();
+
+        System.out.println(String.format(
+            "%-42s %9s %9s %9s %9s %9s %9s %7s",
+            "route", "count", "req/s", "p50, ms", "p99, ms", "p99.9, ms", "max, ms", "errors"
+        ));
+
+        long errors = 0;
+        for (final Route route : Route.values()) {
+            final Stats stats = this.stats.get(route);
+            errors += stats.errors.sum();
+            LoadGenerator.line(route.title, stats.histogram, stats.errors.sum(), seconds);
+
+            try (PrintStream out = new PrintStream(new File(dir, route.name().toLowerCase() + ".hgrm"))) {
+                stats.histogram.outputPercentileDistribution(out, 1000.0);
+            }
+        }
+
+        final Histogram total = this.total();
+        LoadGenerator.line("total", total, errors, seconds);
+        try (PrintStream out = new PrintStream(new File(dir, "total.hgrm"))) {
+            total.outputPercentileDistribution(out, 1000.0);
+        }
+
+        if (!this.settings.closed() && total.getTotalCount() < 0.95 * this.settings.rate * seconds) {
+            System.out.println("Target rate was not reached, latencies include time queued behind slow responses.");
+        }
+        System.out.println("Percentile distributions are written to " + dir.getPath() + "/*.hgrm");
+    }
+
+    // строка отчета
+    private static void line(final String title, final Histogram histogram, final long errors, final double seconds) {
+        System.out.println(String.format(
+            "%-42s %9d %9.1f %9.2f %9.2f %9.2f %9.2f %7d",
+            title,
+            histogram.getTotalCount(),
+            histogram.getTotalCount() / seconds,
+            histogram.getValueAtPercentile(50.0) / 1000.0,
+            histogram.getValueAtPercentile(99.0) / 1000.0,
+            histogram.getValueAtPercentile(99.9) / 1000.0,
+            histogram.getMaxValue() / 1000.0,
+            errors
+        ));
+    }
+}
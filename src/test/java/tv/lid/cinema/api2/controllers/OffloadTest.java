@@ -0,0 +1,111 @@
+package tv.lid.cinema.api2.controllers;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.jooby.Jooby;
+import io.jooby.JoobyTest;
+import io.jooby.MediaType;
+import io.jooby.StatusCode;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+
+import tv.lid.cinema.api2.codecs.JsonCodec;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка выполнения маршрутов в исполнителе обращений к БД через HTTP
+@JoobyTest(OffloadTest.Server.class)
+public class OffloadTest {
+    // исполнитель на один запрос без очереди ожидания
+    private static final BlockingExecutor EXECUTOR = new BlockingExecutor(
+        new BlockingExecutor.Settings(1, 0, 0, false)
+    );
+
+    // запрос к /blocked выполняется до этого сигнала
+    private static final CountDownLatch RELEASE = new CountDownLatch(1);
+
+    // значение заголовка Retry-After
+    private static final long RETRY_AFTER = 7;
+
+    private static final OkHttpClient client = new OkHttpClient();
+
+    // приложение с маршрутами в исполнителе
+    public static final class Server extends Jooby {
+        {
+            encoder(MediaType.json, new JsonCodec(1024));
+
+            decorator(CommonController.offload(OffloadTest.EXECUTOR, OffloadTest.RETRY_AFTER));
+
+            get("/hello", ctx -> new CommonController.Result(CommonController.Code.OK, "hello"))
+                .setReturnType(CompletionStage.class);
+            get("/blocked", ctx -> {
+                OffloadTest.RELEASE.await();
+                return new CommonController.Result(CommonController.Code.OK, "released");
+            }).setReturnType(CompletionStage.class);
+        }
+    }
+
+    @AfterAll
+    public static void close() {
+        OffloadTest.RELEASE.countDown();
+        OffloadTest.EXECUTOR.close();
+    }
+
+    @Test
+    public void resultIsRenderedAndSaturationAnsweredWith503(final int serverPort) throws Exception {
+        // значение CompletableFuture, а не сам объект
+        try (Response rsp = OffloadTest.get(serverPort, "/hello")) {
+            assertEquals(StatusCode.OK.value(), rsp.code());
+            assertEquals("{\"code\":200,\"info\":\"hello\"}", rsp.body().string());
+        }
+
+        // единственный поток исполнителя занят
+        final CompletableFuture<String> blocked = CompletableFuture.supplyAsync(() -> {
+            try (Response rsp = OffloadTest.get(serverPort, "/blocked")) {
+                return rsp.code() + " " + rsp.body().string();
+            } catch (IOException exc) {
+                throw new IllegalStateException(exc);
+            }
+        });
+        final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (OffloadTest.EXECUTOR.statistics().active == 0) {
+            assertTrue(System.nanoTime() < deadline, "Blocked request did not start");
+            Thread.sleep(10);
+        }
+
+        // очереди нет -- отказ сразу
+        try (Response rsp = OffloadTest.get(serverPort, "/hello")) {
+            assertEquals(StatusCode.SERVICE_UNAVAILABLE.value(), rsp.code());
+            assertEquals(String.valueOf(OffloadTest.RETRY_AFTER), rsp.header("Retry-After"));
+            assertTrue(rsp.body().string().contains("\"code\":503"));
+        }
+
+        // после освобождения исполнителя оба маршрута снова отвечают
+        OffloadTest.RELEASE.countDown();
+        assertEquals("200 {\"code\":200,\"info\":\"released\"}", blocked.get(5, TimeUnit.SECONDS));
+
+        try (Response rsp = OffloadTest.get(serverPort, "/hello")) {
+            assertEquals(StatusCode.OK.value(), rsp.code());
+        }
+    }
+
+    // запрос GET с ответом в JSON
+    private static Response get(final int port, final String path) throws IOException {
+        final Request request = new Request.Builder()
+            .url("http://localhost:" + port + path)
+            .header("Accept", "application/json")
+            .build();
+
+        return OffloadTest.client.newCall(request).execute();
+    }
+}
@@ -0,0 +1,140 @@
+package tv.lid.cinema.api2.models;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+// проверка отображения целых ключей с открытой адресацией
+public class IntMapTest {
+    // длина таблицы отображения, созданного с емкостью 8
+    private static final int LENGTH = 16;
+
+    @Test
+    public void removeShiftsChainBackAcrossWraparound() {
+        final IntMap<String> map = new IntMap<>(8);
+
+        // ключ с начальной ячейкой 14, за ним три ключа с начальной ячейкой 15 -- в ячейках 15, 0 и 1,
+        // и ключ с начальной ячейкой 0 -- в ячейке 2
+        final int           before = IntMapTest.keysWithSlot(IntMapTest.LENGTH - 2, 1).get(0);
+        final List<Integer> last   = IntMapTest.keysWithSlot(IntMapTest.LENGTH - 1, 3);
+        final int           first  = IntMapTest.keysWithSlot(0, 1).get(0);
+        map.put(before, "k" + before);
+        for (final int key : last) {
+            map.put(key, "k" + key);
+        }
+        map.put(first, "k" + first);
+        assertEquals(5, map.size());
+
+        // за освобожденной ячейкой 14 нет ключей, которые можно сдвинуть, не поставив их раньше начальной ячейки
+        assertEquals("k" + before, map.remove(before));
+        IntMapTest.assertFound(map, last.get(0), last.get(1), last.get(2), first);
+
+        // удаление головы цепочки сдвигает хвост назад через границу таблицы
+        assertEquals("k" + last.get(0), map.remove(last.get(0)));
+        assertNull(map.get(last.get(0)));
+        IntMapTest.assertFound(map, last.get(1), last.get(2), first);
+
+        // удаление из середины цепочки после переноса
+        assertEquals("k" + last.get(2), map.remove(last.get(2)));
+        IntMapTest.assertFound(map, last.get(1), first);
+        assertEquals(2, map.size());
+
+        // повторное удаление ничего не меняет
+        assertNull(map.remove(last.get(2)));
+        assertEquals(2, map.size());
+    }
+
+    @Test
+    public void resizeKeepsAllEntries() {
+        final IntMap<Integer> map = new IntMap<>(1);
+
+        for (int key = 1; key <= 1000; key++) {
+            assertNull(map.put(key, key * 10));
+        }
+        assertEquals(1000, map.size());
+        for (int key = 1; key <= 1000; key++) {
+            assertEquals(key * 10, map.get(key));
+        }
+
+        // замена значения не меняет размер
+        assertEquals(70, map.put(7, 77));
+        assertEquals(1000, map.size());
+
+        // удаление каждого второго ключа не теряет остальные
+        for (int key = 2; key <= 1000; key += 2) {
+            assertEquals(key * 10, map.remove(key));
+        }
+        assertEquals(500, map.size());
+        for (int key = 1; key <= 1000; key++) {
+            assertEquals(key % 2 == 0 ? null : key == 7 ? 77 : key * 10, map.get(key));
+        }
+
+        final int[] keys = new int[500];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = 2 * i + 1;
+        }
+        assertArrayEquals(keys, map.keys());
+    }
+
+    @Test
+    public void copyIsIndependent() {
+        final IntMap<String> map = new IntMap<>(8);
+        map.put(1, "a");
+
+        final IntMap<String> copy = map.copy();
+        copy.put(2, "b");
+        copy.remove(1);
+        map.put(3, "c");
+
+        assertArrayEquals(new int[] {1, 3}, map.keys());
+        assertArrayEquals(new int[] {2}, copy.keys());
+    }
+
+    @Test
+    public void stripedDraftDoesNotChangePublishedMap() {
+        final StripedIntMap<String> published = new StripedIntMap<>(16);
+        for (int key = 1; key <= 100; key++) {
+            published.put(key, "v" + key);
+        }
+
+        final StripedIntMap<String> draft = published.draft();
+        draft.put(1, "changed");
+        draft.put(101, "added");
+        draft.remove(50);
+        draft.remove(1000); // отсутствующий ключ
+
+        assertEquals(100, published.size());
+        assertEquals("v1", published.get(1));
+        assertNull(published.get(101));
+        assertEquals("v50", published.get(50));
+
+        assertEquals(100, draft.size());
+        assertEquals("changed", draft.get(1));
+        assertEquals("added", draft.get(101));
+        assertNull(draft.get(50));
+        assertEquals(100, draft.keys().length);
+    }
+
+    // все ключи находятся со своими значениями
+    private static void assertFound(final IntMap<String> map, final int... keys) {
+        for (final int key : keys) {
+            assertEquals("k" + key, map.get(key));
+        }
+    }
+
+    // первые count положительных ключей с заданной начальной ячейкой в таблице длины LENGTH
+    private static List<Integer> keysWithSlot(final int slot, final int count) {
+        final List<Integer> result = new ArrayList<>();
+        for (int key = 1; result.size() < count; key++) {
+            if (IntMap.slot(key, IntMapTest.LENGTH - 1) == slot) {
+                result.add(key);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package tv.lid.cinema.api2.models;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка хранилищ в памяти процесса
+public class MemoryRepositoryTest extends RepositoryContractTest {
+    private final MemoryRepository store = new MemoryRepository();
+
+    @TempDir
+    Path directory;
+
+    @Override
+    protected MovieRepository movies() {
+        return this.store.movies();
+    }
+
+    @Override
+    protected ScheduleRepository schedules() {
+        return this.store.schedules();
+    }
+
+    @Test
+    public void snapshotRoundTripKeepsDataAndIds() throws IOException, SQLException {
+        final List<Integer> movieIds = this.movies().insertAll(Arrays.asList(
+            RepositoryContractTest.movie(2001),
+            RepositoryContractTest.movie(2002)
+        ));
+        final int first  = this.schedules().insert(RepositoryContractTest.schedule(movieIds.get(0), 10)),
+                  second = this.schedules().insert(RepositoryContractTest.schedule(movieIds.get(1), 11));
+
+        // удаленные записи не попадают в снимок, но их идентификаторы не используются повторно
+        this.schedules().delete(second);
+        final int removed = this.movies().insert(RepositoryContractTest.movie(2003));
+        this.movies().delete(removed);
+
+        final Path snapshot = this.directory.resolve("api2.snapshot");
+        this.store.save(snapshot);
+
+        final MemoryRepository restored = new MemoryRepository();
+        restored.restore(snapshot);
+
+        assertEquals(
+            RepositoryContractTest.ids(this.movies().list(0, 100)),
+            RepositoryContractTest.ids(restored.movies().list(0, 100))
+        );
+        assertEquals(this.schedules().countAll(), restored.schedules().countAll());
+
+        final MovieModel    movie    = restored.movies().find(movieIds.get(1));
+        final ScheduleModel schedule = restored.schedules().find(first);
+        assertEquals("Movie 2002", movie.title);
+        assertEquals(90, movie.duration);
+        assertEquals(movieIds.get(0), (Integer) schedule.movieId);
+        assertEquals(RepositoryContractTest.at(10), schedule.dateAndTime);
+        assertEquals(1, schedule.auditorium);
+
+        // нумерация продолжается после наибольших выданных идентификаторов
+        assertTrue(restored.movies().insert(RepositoryContractTest.movie(2004)) > removed);
+        assertTrue(restored.schedules().insert(RepositoryContractTest.schedule(movieIds.get(0), 12)) > second);
+    }
+
+    @Test
+    public void unsupportedSnapshotKeepsData() throws IOException, SQLException {
+        final int id = this.movies().insert(RepositoryContractTest.movie(2020));
+
+        final Path snapshot = this.directory.resolve("other.snapshot");
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(snapshot))) {
+            out.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8});
+        }
+
+        assertThrows(IOException.class, () -> this.store.restore(snapshot));
+        assertEquals(1, this.movies().count());
+        assertEquals("Movie 2020", this.movies().find(id).title);
+    }
+}
@@ -0,0 +1,145 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tv.lid.cinema.api2.storages.ConnectionPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка миграций схемы на БД H2 в памяти с таблицами в том виде, в каком их создавали до появления миграций
+public class MigrationsTest {
+    // счетчик имен баз данных, у каждой проверки -- своя
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    // сеансов больше, чем строк в одном проходе миграции
+    private static final int SCHEDULES = 2500;
+
+    // пул соединений с БД проверки
+    private ConnectionPool pool = null;
+
+    @BeforeEach
+    public void connect() throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:migrations-" + MigrationsTest.DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        this.pool = new ConnectionPool(h2, new ConnectionPool.Settings());
+        CommonModel.initialize(this.pool);
+
+        try (Connection con = this.pool.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate(
+                "CREATE TABLE api2_movies (id INT NOT NULL IDENTITY, title VARCHAR(300) NOT NULL," +
+                " duration SMALLINT NOT NULL, year SMALLINT NOT NULL)"
+            );
+            st.executeUpdate(
+                "CREATE TABLE api2_schedules (id INT NOT NULL IDENTITY, movie_id INT NOT NULL," +
+                " date_time VARCHAR(50) NOT NULL, auditorium TINYINT NOT NULL," +
+                " FOREIGN KEY(movie_id) REFERENCES api2_movies(id) ON DELETE CASCADE)"
+            );
+            st.executeUpdate("INSERT INTO api2_movies (title, duration, year) VALUES ('Legacy', 90, 2020)");
+        }
+    }
+
+    @AfterEach
+    public void close() {
+        this.pool.close();
+    }
+
+    @Test
+    public void legacyStringsAreConvertedInBatches() throws SQLException {
+        // строки во всех допустимых ранее форматах и в едином формате самой миграции -- после ее сбоя
+        final String[] formats = {
+            "2020-01-02T10:15:30",
+            "2020-01-02 10:15",
+            "02.01.2020 10:15:30",
+            "2020-01-02 10:15:30.000000000"
+        };
+        this.insert(MigrationsTest.SCHEDULES, formats);
+
+        assertEquals(Migrations.latest(), Migrations.migrate());
+
+        try (
+            Connection con = this.pool.getConnection();
+            Statement  st  = con.createStatement();
+            ResultSet  rs  = st.executeQuery("SELECT id, date_time FROM api2_schedules ORDER BY id")
+        ) {
+            int rows = 0;
+            while (rs.next()) {
+                final LocalDateTime value = rs.getTimestamp(2).toLocalDateTime();
+                final int           index = rows++ % formats.length;
+                assertEquals(LocalDateTime.of(2020, 1, 2, 10, 15, index == 1 ? 0 : 30), value);
+            }
+            assertEquals(MigrationsTest.SCHEDULES, rows);
+        }
+
+        // повторный запуск ничего не меняет
+        assertEquals(Migrations.latest(), Migrations.migrate());
+    }
+
+    @Test
+    public void unparseableRowRollsBackConversion() throws SQLException {
+        this.insert(MigrationsTest.SCHEDULES, "2020-01-02 10:15");
+        this.insert(1, "tomorrow");
+
+        final SQLException exc = assertThrows(SQLException.class, Migrations::migrate);
+        assertTrue(exc.getMessage().contains(String.valueOf(MigrationsTest.SCHEDULES + 1)));
+
+        // строки первых проходов не изменены, версия миграции не записана
+        assertEquals(Migrations.latest() - 1, Migrations.current());
+        try (
+            Connection con = this.pool.getConnection();
+            Statement  st  = con.createStatement();
+            ResultSet  rs  = st.executeQuery(
+                "SELECT COUNT(*) FROM api2_schedules WHERE date_time = '2020-01-02 10:15'"
+            )
+        ) {
+            rs.next();
+            assertEquals(MigrationsTest.SCHEDULES, rs.getInt(1));
+        }
+
+        // после исправления строки миграция завершается
+        try (Connection con = this.pool.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("UPDATE api2_schedules SET date_time = '2020-01-03 09:00' WHERE date_time = 'tomorrow'");
+        }
+        assertEquals(Migrations.latest(), Migrations.migrate());
+        try (
+            Connection        con = this.pool.getConnection();
+            PreparedStatement ps  = con.prepareStatement("SELECT COUNT(*) FROM api2_schedules WHERE date_time = ?")
+        ) {
+            ps.setTimestamp(1, Timestamp.valueOf(LocalDateTime.of(2020, 1, 3, 9, 0)));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                assertEquals(1, rs.getInt(1));
+            }
+        }
+    }
+
+    // вставка сеансов с заданными по очереди строками даты и времени
+    private void insert(final int count, final String... values) throws SQLException {
+        try (
+            Connection        con = this.pool.getConnection();
+            PreparedStatement ps  = con.prepareStatement(
+                "INSERT INTO api2_schedules (movie_id, date_time, auditorium) VALUES (1, ?, 1)"
+            )
+        ) {
+            for (int i = 0; i < count; i++) {
+                ps.setString(1, values[i % values.length]);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// одни и те же проверки хранилищ фильмов и сеансов для каждой их реализации; у каждой проверки -- пустые хранилища
+public abstract class RepositoryContractTest {
+    // хранилище фильмов
+    protected abstract MovieRepository movies();
+
+    // хранилище сеансов
+    protected abstract ScheduleRepository schedules();
+
+    @Test
+    public void moviesAreListedNewestFirstByOffsetAndByKey() throws SQLException {
+        final List<Integer> ids = this.movies().insertAll(Arrays.asList(
+            RepositoryContractTest.movie(2001),
+            RepositoryContractTest.movie(2003),
+            RepositoryContractTest.movie(2002),
+            RepositoryContractTest.movie(2003),
+            RepositoryContractTest.movie(2001)
+        ));
+        assertEquals(5, this.movies().count());
+        assertEquals(new HashSet<>(ids), this.movies().ids());
+
+        // по году выхода, затем по идентификатору -- от новых к старым
+        final List<Integer> expected = Arrays.asList(ids.get(3), ids.get(1), ids.get(2), ids.get(4), ids.get(0));
+        assertEquals(expected, RepositoryContractTest.ids(this.movies().list(0, 100)));
+
+        // страницы по смещению и по ключу последней записи дают тот же порядок
+        final List<Integer> byOffset = new ArrayList<>(),
+                            byKey    = new ArrayList<>();
+        for (int offset = 0; offset < 6; offset += 2) {
+            byOffset.addAll(RepositoryContractTest.ids(this.movies().list(offset, 2)));
+        }
+        List<MovieModel> page = this.movies().list(0, 2);
+        while (!page.isEmpty()) {
+            byKey.addAll(RepositoryContractTest.ids(page));
+            final MovieModel last = page.get(page.size() - 1);
+            page = this.movies().list(last.year, last.id, 2);
+        }
+        assertEquals(expected, byOffset);
+        assertEquals(expected, byKey);
+
+        // поиск по идентификатору
+        assertEquals(2002, this.movies().find(ids.get(2)).year);
+        assertNull(this.movies().find(Collections.max(ids) + 1));
+        assertEquals(
+            new HashSet<>(Arrays.asList(ids.get(0), ids.get(4))),
+            this.movies().findAll(Arrays.asList(ids.get(0), Collections.max(ids) + 1, ids.get(4))).keySet()
+        );
+    }
+
+    @Test
+    public void schedulesAreCountedAndListedWithinWindow() throws SQLException {
+        final int movieId = this.movies().insert(RepositoryContractTest.movie(2020)),
+                  otherId = this.movies().insert(RepositoryContractTest.movie(2020));
+
+        // сеансы с 10 до 15 часов, вставленные не по порядку, и еще один в 12 часов
+        final Map<Integer, Integer> hourById = new HashMap<>();
+        for (final int hour : new int[] {13, 10, 15, 12, 11, 14, 12}) {
+            hourById.put(this.schedules().insert(RepositoryContractTest.schedule(movieId, hour)), hour);
+        }
+        this.schedules().insert(RepositoryContractTest.schedule(otherId, 12));
+
+        final LocalDateTime from = RepositoryContractTest.at(11),
+                            to   = RepositoryContractTest.at(14);
+
+        // интервал [from, to), незаданная граница не ограничивает выборку
+        assertEquals(7, this.schedules().count(movieId, null, null));
+        assertEquals(4, this.schedules().count(movieId, from, to));
+        assertEquals(6, this.schedules().count(movieId, from, null));
+        assertEquals(4, this.schedules().count(movieId, null, RepositoryContractTest.at(13)));
+        assertEquals(0, this.schedules().count(movieId, to, from));
+
+        // от поздних к ранним, в одно время -- по убыванию идентификатора
+        final List<ScheduleModel> window = this.schedules().list(movieId, from, to, 0, 100);
+        assertEquals(4, window.size());
+        for (int i = 1; i < window.size(); i++) {
+            final ScheduleModel prev = window.get(i - 1),
+                                next = window.get(i);
+            assertTrue(
+                prev.dateAndTime.isAfter(next.dateAndTime) ||
+                prev.dateAndTime.equals(next.dateAndTime) && prev.id > next.id
+            );
+        }
+        for (final ScheduleModel schedule : window) {
+            assertEquals(movieId, schedule.movieId);
+            assertEquals((int) hourById.get(schedule.id), schedule.dateAndTime.getHour());
+        }
+        assertEquals(13, window.get(0).dateAndTime.getHour());
+        assertEquals(11, window.get(3).dateAndTime.getHour());
+
+        // страницы по смещению и по ключу последней записи дают тот же порядок
+        final List<Integer> byOffset = new ArrayList<>(),
+                            byKey    = new ArrayList<>();
+        for (int offset = 0; offset < 5; offset += 3) {
+            byOffset.addAll(RepositoryContractTest.ids(this.schedules().list(movieId, from, to, offset, 3)));
+        }
+        List<ScheduleModel> page = this.schedules().list(movieId, from, to, 0, 3);
+        while (!page.isEmpty()) {
+            byKey.addAll(RepositoryContractTest.ids(page));
+            final ScheduleModel last = page.get(page.size() - 1);
+            page = this.schedules().list(movieId, from, to, last.dateAndTime, last.id, 3);
+        }
+        assertEquals(RepositoryContractTest.ids(window), byOffset);
+        assertEquals(RepositoryContractTest.ids(window), byKey);
+
+        // количество по всем фильмам
+        final Map<Integer, Integer> counts = this.schedules().countAll();
+        assertEquals(7, (int) counts.get(movieId));
+        assertEquals(1, (int) counts.get(otherId));
+    }
+
+    @Test
+    public void scheduleOfMissingMovieIsRejected() throws SQLException {
+        final int missing = this.movies().insert(RepositoryContractTest.movie(2020)) + 1;
+
+        final SQLException exc = assertThrows(
+            SQLException.class,
+            () -> this.schedules().insert(RepositoryContractTest.schedule(missing, 10))
+        );
+        assertTrue(CommonModel.isMissingParent(exc));
+        assertEquals(0, this.schedules().count(missing, null, null));
+    }
+
+    @Test
+    public void titleIsCheckedLikeColumn() throws SQLException {
+        final char[] chars = new char[301];
+        Arrays.fill(chars, 'a');
+        final String tooLong = new String(chars),
+                     longest = tooLong.substring(1);
+
+        final SQLException empty = assertThrows(
+            SQLException.class,
+            () -> this.movies().insert(new MovieModel(null, (short) 90, (short) 2020))
+        );
+        assertEquals("23502", empty.getSQLState());
+
+        final SQLException insert = assertThrows(
+            SQLException.class,
+            () -> this.movies().insert(new MovieModel(tooLong, (short) 90, (short) 2020))
+        );
+        assertEquals("22001", insert.getSQLState());
+
+        // пакет с одной недопустимой записью не сохраняется целиком
+        assertThrows(SQLException.class, () -> this.movies().insertAll(Arrays.asList(
+            RepositoryContractTest.movie(2020),
+            new MovieModel(tooLong, (short) 90, (short) 2020)
+        )));
+        assertEquals(0, this.movies().count());
+
+        final int id = this.movies().insert(new MovieModel(longest, (short) 90, (short) 2020));
+        assertEquals(longest, this.movies().find(id).title);
+
+        final SQLException update = assertThrows(
+            SQLException.class,
+            () -> this.movies().update(new MovieModel(id, tooLong, (short) 90, (short) 2020))
+        );
+        assertEquals("22001", update.getSQLState());
+        assertEquals(longest, this.movies().find(id).title);
+    }
+
+    @Test
+    public void movieIsUpdatedAndDeletedWithSchedules() throws SQLException {
+        final int sourceId = this.movies().insert(RepositoryContractTest.movie(2019)),
+                  targetId = this.movies().insert(RepositoryContractTest.movie(2020));
+        final int moved    = this.schedules().insert(RepositoryContractTest.schedule(sourceId, 10)),
+                  kept     = this.schedules().insert(RepositoryContractTest.schedule(sourceId, 11));
+
+        // изменение фильма
+        assertTrue(this.movies().update(new MovieModel(targetId, "Changed", (short) 100, (short) 2021)));
+        assertEquals("Changed", this.movies().find(targetId).title);
+        assertFalse(this.movies().update(new MovieModel(targetId + sourceId, "None", (short) 1, (short) 2021)));
+
+        // изменение сеанса без смены фильма
+        assertTrue(this.schedules().update(new ScheduleModel(kept, sourceId, RepositoryContractTest.at(9), (byte) 3)));
+        assertEquals(3, this.schedules().find(kept).auditorium);
+        assertFalse(this.schedules().update(new ScheduleModel(kept, targetId, RepositoryContractTest.at(9), (byte) 3)));
+
+        // перенос сеанса на другой фильм сохраняет его идентификатор
+        assertEquals(
+            sourceId,
+            (int) this.schedules().move(new ScheduleModel(moved, targetId, RepositoryContractTest.at(12), (byte) 2))
+        );
+        assertEquals(targetId, this.schedules().find(moved).movieId);
+        assertEquals(1, this.schedules().count(sourceId, null, null));
+        assertEquals(1, this.schedules().count(targetId, null, null));
+        assertNull(
+            this.schedules().move(new ScheduleModel(moved + kept, targetId, RepositoryContractTest.at(12), (byte) 2))
+        );
+
+        // удаление фильма удаляет его сеансы
+        assertTrue(this.movies().delete(targetId));
+        assertFalse(this.movies().delete(targetId));
+        assertNull(this.movies().find(targetId));
+        assertNull(this.schedules().find(moved));
+        assertNull(this.schedules().countAll().get(targetId));
+        assertNotNull(this.schedules().find(kept));
+
+        // удаление сеанса возвращает идентификатор его фильма
+        assertEquals(sourceId, (int) this.schedules().delete(kept));
+        assertNull(this.schedules().delete(kept));
+        assertEquals(0, this.schedules().count(sourceId, null, null));
+    }
+
+    @Test
+    public void batchReportsSavedIdsPerMovie() throws SQLException {
+        final int firstId  = this.movies().insert(RepositoryContractTest.movie(2020)),
+                  secondId = this.movies().insert(RepositoryContractTest.movie(2020));
+
+        final Map<Integer, List<Integer>> saved = new HashMap<>();
+        try (ScheduleRepository.Batch batch = this.schedules().batch()) {
+            batch.add(RepositoryContractTest.schedule(firstId, 10));
+            batch.add(RepositoryContractTest.schedule(secondId, 11));
+            batch.add(RepositoryContractTest.schedule(firstId, 12));
+            batch.flush((movieId, ids) -> saved.computeIfAbsent(movieId, key -> new ArrayList<>()).addAll(ids));
+        }
+
+        assertEquals(new HashSet<>(Arrays.asList(firstId, secondId)), saved.keySet());
+        assertEquals(2, saved.get(firstId).size());
+        assertEquals(1, saved.get(secondId).size());
+        for (final Map.Entry<Integer, List<Integer>> entry : saved.entrySet()) {
+            for (final int id : entry.getValue()) {
+                assertEquals((int) entry.getKey(), this.schedules().find(id).movieId);
+            }
+        }
+        assertEquals(2, this.schedules().count(firstId, null, null));
+    }
+
+    // фильм с заданным годом выхода
+    protected static MovieModel movie(final int year) {
+        return new MovieModel("Movie " + year, (short) 90, (short) year);
+    }
+
+    // сеанс фильма в заданный час
+    protected static ScheduleModel schedule(final int movieId, final int hour) {
+        return new ScheduleModel(movieId, RepositoryContractTest.at(hour), (byte) 1);
+    }
+
+    // заданный час одного дня
+    protected static LocalDateTime at(final int hour) {
+        return LocalDateTime.of(2020, 1, 1, hour, 0);
+    }
+
+    // идентификаторы записей в порядке следования
+    protected static List<Integer> ids(final List<? extends CommonModel> models) {
+        final List<Integer> result = new ArrayList<>();
+        for (final CommonModel model : models) {
+            result.add(model.id);
+        }
+        return result;
+    }
+}
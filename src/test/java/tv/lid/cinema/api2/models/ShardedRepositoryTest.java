@@ -0,0 +1,130 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import tv.lid.cinema.api2.storages.ConnectionPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка хранилищ в БД H2 в памяти, разбитой на два сегмента
+public class ShardedRepositoryTest {
+    // счетчик имен баз данных, у каждой проверки -- свои
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private final MovieRepository    movies    = new SqlMovieRepository();
+    private final ScheduleRepository schedules = new SqlScheduleRepository();
+
+    // пулы соединений с сегментами
+    private final List<ConnectionPool> pools = new ArrayList<>();
+
+    @BeforeEach
+    public void connect() throws SQLException {
+        final int database = ShardedRepositoryTest.DATABASES.incrementAndGet();
+        for (int shard = 0; shard < 2; shard++) {
+            final JdbcDataSource h2 = new JdbcDataSource();
+            h2.setURL("jdbc:h2:mem:sharded-" + database + "-" + shard + ";DB_CLOSE_DELAY=-1");
+            this.pools.add(new ConnectionPool(h2, new ConnectionPool.Settings()));
+        }
+
+        CommonModel.initialize(new ArrayList<>(this.pools));
+        Migrations.migrate();
+    }
+
+    @AfterEach
+    public void close() {
+        for (final ConnectionPool pool : this.pools) {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void moviesOfAllShardsAreMergedNewestFirst() throws SQLException {
+        final List<MovieModel> inserted = new ArrayList<>();
+        for (final int year : new int[] {2001, 2005, 2003, 2005, 2002, 2001, 2004, 2003, 2005}) {
+            final MovieModel movie = RepositoryContractTest.movie(year);
+            inserted.add(new MovieModel(this.movies.insert(movie), movie.title, movie.duration, movie.year));
+        }
+
+        // новые фильмы распределены по обоим сегментам
+        final int[] perShard = new int[2];
+        for (final MovieModel movie : inserted) {
+            perShard[Shards.of(movie.id)]++;
+        }
+        assertTrue(perShard[0] > 0 && perShard[1] > 0);
+
+        assertEquals(inserted.size(), this.movies.count());
+        assertEquals(new HashSet<>(RepositoryContractTest.ids(inserted)), this.movies.ids());
+
+        // по году выхода, затем по идентификатору -- от новых к старым
+        inserted.sort(
+            Comparator.comparingInt((MovieModel movie) -> movie.year).thenComparingInt(movie -> movie.id).reversed()
+        );
+        final List<Integer> expected = RepositoryContractTest.ids(inserted);
+        assertEquals(expected, RepositoryContractTest.ids(this.movies.list(0, 100)));
+
+        // страницы по смещению и по ключу последней записи дают тот же порядок
+        final List<Integer> byOffset = new ArrayList<>(),
+                            byKey    = new ArrayList<>();
+        for (int offset = 0; offset < inserted.size(); offset += 2) {
+            byOffset.addAll(RepositoryContractTest.ids(this.movies.list(offset, 2)));
+        }
+        List<MovieModel> page = this.movies.list(0, 2);
+        while (!page.isEmpty()) {
+            byKey.addAll(RepositoryContractTest.ids(page));
+            final MovieModel last = page.get(page.size() - 1);
+            page = this.movies.list(last.year, last.id, 2);
+        }
+        assertEquals(expected, byOffset);
+        assertEquals(expected, byKey);
+    }
+
+    @Test
+    public void schedulesStayInTheShardOfTheirMovie() throws SQLException {
+        final int first  = this.movies.insert(RepositoryContractTest.movie(2020)),
+                  second = this.movies.insert(RepositoryContractTest.movie(2020)),
+                  third  = this.movies.insert(RepositoryContractTest.movie(2020));
+        assertEquals(Shards.of(first), Shards.of(third));
+        assertTrue(Shards.of(first) != Shards.of(second));
+
+        final int schedule = this.schedules.insert(RepositoryContractTest.schedule(first, 10));
+        this.schedules.insert(RepositoryContractTest.schedule(second, 11));
+        this.schedules.insert(RepositoryContractTest.schedule(second, 12));
+        assertEquals(Shards.of(first), Shards.of(schedule));
+
+        final Map<Integer, Integer> counts = this.schedules.countAll();
+        assertEquals(1, (int) counts.get(first));
+        assertEquals(2, (int) counts.get(second));
+
+        // перенос отсутствующей записи на фильм другого сегмента -- как и любой отсутствующей
+        final LocalDateTime at = RepositoryContractTest.at(13);
+        assertNull(this.schedules.move(new ScheduleModel(schedule + 2, second, at, (byte) 1)));
+
+        // перенос существующей записи на фильм другого сегмента не поддерживается
+        final SQLException exc = assertThrows(
+            SQLException.class,
+            () -> this.schedules.move(new ScheduleModel(schedule, second, at, (byte) 1))
+        );
+        assertTrue(CommonModel.isCrossShard(exc));
+
+        // в пределах сегмента перенос сохраняет идентификатор
+        assertEquals(first, (int) this.schedules.move(new ScheduleModel(schedule, third, at, (byte) 1)));
+        assertEquals(third, this.schedules.find(schedule).movieId);
+        assertEquals(1, this.schedules.count(third, null, null));
+        assertEquals(0, this.schedules.count(first, null, null));
+    }
+}
@@ -0,0 +1,47 @@
+package tv.lid.cinema.api2.models;
+
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+
+import tv.lid.cinema.api2.storages.ConnectionPool;
+
+// проверка хранилищ в БД H2 в памяти
+public class SqlRepositoryTest extends RepositoryContractTest {
+    // счетчик имен баз данных, у каждой проверки -- своя
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    private final MovieRepository    movies    = new SqlMovieRepository();
+    private final ScheduleRepository schedules = new SqlScheduleRepository();
+
+    // пул соединений с БД проверки
+    private ConnectionPool pool = null;
+
+    @BeforeEach
+    public void connect() throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:repository-" + SqlRepositoryTest.DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        this.pool = new ConnectionPool(h2, new ConnectionPool.Settings());
+        CommonModel.initialize(this.pool);
+        Migrations.migrate();
+    }
+
+    @AfterEach
+    public void close() {
+        this.pool.close();
+    }
+
+    @Override
+    protected MovieRepository movies() {
+        return this.movies;
+    }
+
+    @Override
+    protected ScheduleRepository schedules() {
+        return this.schedules;
+    }
+}
@@ -0,0 +1,265 @@
+package tv.lid.cinema.api2.models;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import javax.sql.DataSource;
+
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import tv.lid.cinema.api2.storages.ConnectionPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка единицы работы на БД H2 в памяти
+public class UnitOfWorkTest {
+    // пул соединений с БД проверки
+    private static ConnectionPool pool = null;
+
+    @BeforeAll
+    public static void connect() throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:unit-of-work;DB_CLOSE_DELAY=-1");
+
+        UnitOfWorkTest.pool = new ConnectionPool(h2, new ConnectionPool.Settings());
+        CommonModel.initialize(UnitOfWorkTest.pool);
+        Repositories.use(new SqlMovieRepository(), new SqlScheduleRepository());
+        Migrations.migrate();
+    }
+
+    @Test
+    public void commitKeepsChangesAndRunsActionsInOrder() throws SQLException {
+        final List<String> actions = new ArrayList<>();
+        final int          id;
+
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            id = UnitOfWorkTest.insert();
+            UnitOfWorkTest.record(actions);
+
+            // до фиксации изменения не видны вне единицы работы
+            assertNull(UnitOfWorkTest.findOutside(id));
+
+            unit.commit();
+            assertEquals(Arrays.asList("commit 1", "commit 2", "completion 1", "completion 2"), actions);
+
+            // повторная фиксация ничего не делает
+            unit.commit();
+            assertEquals(4, actions.size());
+        }
+
+        assertNotNull(Repositories.movies().find(id));
+        assertEquals(4, actions.size());
+    }
+
+    @Test
+    public void rollbackDiscardsChangesAndRunsCompletionOnly() throws SQLException {
+        final List<String> actions = new ArrayList<>();
+        final int          id;
+
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            id = UnitOfWorkTest.insert();
+            UnitOfWorkTest.record(actions);
+            unit.rollback();
+        }
+
+        assertNull(Repositories.movies().find(id));
+        assertEquals(Arrays.asList("completion 1", "completion 2"), actions);
+    }
+
+    @Test
+    public void closeWithoutCommitRollsBack() throws SQLException {
+        final List<String> actions = new ArrayList<>();
+        final int          id;
+
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            id = UnitOfWorkTest.insert();
+            UnitOfWorkTest.record(actions);
+            assertSame(unit, UnitOfWork.current());
+        }
+
+        assertNull(Repositories.movies().find(id));
+        assertEquals(Arrays.asList("completion 1", "completion 2"), actions);
+    }
+
+    @Test
+    public void commitOfRollbackOnlyTransactionFails() throws SQLException {
+        final List<String> actions = new ArrayList<>();
+        final int          id;
+
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            id = UnitOfWorkTest.insert();
+            UnitOfWorkTest.record(actions);
+
+            unit.setRollbackOnly();
+            assertThrows(SQLException.class, unit::commit);
+            assertEquals(Arrays.asList("completion 1", "completion 2"), actions);
+
+            // транзакция уже завершена откатом
+            unit.commit();
+        }
+
+        assertNull(Repositories.movies().find(id));
+        assertEquals(2, actions.size());
+    }
+
+    @Test
+    public void unitIsBoundToThreadOnce() throws SQLException {
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            assertSame(unit, UnitOfWork.current());
+            assertThrows(IllegalStateException.class, UnitOfWork::begin);
+        }
+        assertNull(UnitOfWork.current());
+
+        // вне единицы работы действия после фиксации выполняются сразу, после завершения -- не выполняются
+        final List<String> actions = new ArrayList<>();
+        UnitOfWorkTest.record(actions);
+        assertEquals(Arrays.asList("commit 1", "commit 2"), actions);
+    }
+
+    @Test
+    public void entityCacheIsClearedBeforeVersionChanges() throws SQLException {
+        final int              id     = new MovieModel("Before", (short) 90, (short) 2020).save();
+        final String[]         cached = new String[1];
+        final Versions.Stamp[] stamp  = new Versions.Stamp[1];
+
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            new MovieModel(id, "After", (short) 90, (short) 2020).save();
+
+            // между сбросом кэша при изменении и фиксацией другой поток снова кэширует прежнюю запись
+            assertEquals("Before", UnitOfWorkTest.findCachedOutside(id).title);
+            final Versions.Stamp before = Versions.movie(id);
+
+            // к моменту, когда видна новая версия, прежней записи в кэше уже нет
+            UnitOfWork.afterCommit(() -> {
+                stamp[0]  = Versions.movie(id);
+                cached[0] = UnitOfWorkTest.findCachedOutside(id).title;
+            });
+            unit.commit();
+
+            assertTrue(stamp[0].version > before.version);
+        }
+        assertEquals("After", cached[0]);
+    }
+
+    @Test
+    public void partialCommitChangesVersions() throws SQLException {
+        final DataSource good   = UnitOfWorkTest.pool,
+                         failed = UnitOfWorkTest.failingCommit(UnitOfWorkTest.pool);
+
+        // второй сегмент не фиксируется после фиксации первого -- версии меняются, прочие действия не выполняются
+        final List<String>   actions = new ArrayList<>();
+        final Versions.Stamp before  = Versions.movie(1);
+        Shards.initialize(Arrays.asList(good, failed));
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            unit.connectAll();
+            Versions.movieChanged(1);
+            UnitOfWorkTest.record(actions);
+            assertThrows(SQLException.class, unit::commit);
+        } finally {
+            Shards.initialize(Collections.singletonList(good));
+        }
+        assertTrue(Versions.movie(1).version > before.version);
+        assertEquals(Arrays.asList("completion 1", "completion 2"), actions);
+
+        // не зафиксирован ни один сегмент -- версии прежние
+        final Versions.Stamp after = Versions.movie(1);
+        Shards.initialize(Arrays.asList(failed, good));
+        try (UnitOfWork unit = UnitOfWork.begin()) {
+            unit.connectAll();
+            Versions.movieChanged(1);
+            assertThrows(SQLException.class, unit::commit);
+        } finally {
+            Shards.initialize(Collections.singletonList(good));
+        }
+        assertEquals(after.version, Versions.movie(1).version);
+    }
+
+    // источник соединений, фиксация транзакций которых завершается ошибкой
+    private static DataSource failingCommit(final DataSource source) {
+        return (DataSource) Proxy.newProxyInstance(
+            DataSource.class.getClassLoader(),
+            new Class<?>[] {DataSource.class},
+            (proxy, method, args) -> {
+                final Object result;
+                try {
+                    result = method.invoke(source, args);
+                } catch (InvocationTargetException exc) {
+                    throw exc.getCause();
+                }
+                if (!(result instanceof Connection)) {
+                    return result;
+                }
+
+                final Connection con = (Connection) result;
+                return Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] {Connection.class},
+                    (conProxy, conMethod, conArgs) -> {
+                        if (conMethod.getName().equals("commit")) {
+                            throw new SQLException("Commit failed");
+                        }
+                        try {
+                            return conMethod.invoke(con, conArgs);
+                        } catch (InvocationTargetException exc) {
+                            throw exc.getCause();
+                        }
+                    }
+                );
+            }
+        );
+    }
+
+    // вставка фильма, возвращает его идентификатор
+    private static int insert() throws SQLException {
+        return Repositories.movies().insert(new MovieModel("Unit of work", (short) 90, (short) 2020));
+    }
+
+    // фильм, прочитанный через отдельное соединение
+    private static MovieModel findOutside(final int id) {
+        return UnitOfWorkTest.outside(id, Repositories.movies()::find);
+    }
+
+    // фильм, прочитанный через кэш в отдельном потоке
+    private static MovieModel findCachedOutside(final int id) {
+        return UnitOfWorkTest.outside(id, MovieModel::find);
+    }
+
+    // фильм, прочитанный в отдельном потоке -- вне единицы работы
+    private static MovieModel outside(final int id, final EntityCache.Loader<MovieModel> loader) {
+        final MovieModel[] found = new MovieModel[1];
+        final Thread       other = new Thread(() -> {
+            try {
+                found[0] = loader.load(id);
+            } catch (SQLException exc) {
+                throw new IllegalStateException(exc);
+            }
+        });
+        other.start();
+        try {
+            other.join();
+        } catch (InterruptedException exc) {
+            Thread.currentThread().interrupt();
+        }
+        return found[0];
+    }
+
+    // действия после завершения, зарегистрированные вперемешку с действиями после фиксации
+    private static void record(final List<String> actions) {
+        UnitOfWork.afterCompletion(() -> actions.add("completion 1"));
+        UnitOfWork.afterCommit(() -> actions.add("commit 1"));
+        UnitOfWork.afterCommit(() -> actions.add("commit 2"));
+        UnitOfWork.afterCompletion(() -> actions.add("completion 2"));
+    }
+}
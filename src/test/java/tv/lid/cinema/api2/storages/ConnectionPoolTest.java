@@ -0,0 +1,316 @@
+package tv.lid.cinema.api2.storages;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.DataSource;
+
+import org.h2.jdbc.JdbcPreparedStatement;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// проверка пула соединений на БД H2 в памяти; часть соединений берется только для удержания
+@SuppressWarnings("try")
+public class ConnectionPoolTest {
+    // счетчик имен баз данных, у каждой проверки -- своя
+    private static final AtomicInteger DATABASES = new AtomicInteger();
+
+    // соединения источника отвечают на проверку пригодности этим признаком
+    private final AtomicBoolean valid = new AtomicBoolean(true);
+
+    // проверяемый пул
+    private ConnectionPool pool = null;
+
+    @AfterEach
+    public void close() {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+    }
+
+    @Test
+    public void acquireTimesOutWhenPoolIsExhausted() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 50, 0, 0, 0, 0));
+
+        try (Connection held = pool.getConnection()) {
+            final long start = System.nanoTime();
+            assertThrows(SQLTimeoutException.class, pool::getConnection);
+            assertTrue(System.nanoTime() - start >= 40_000_000L);
+            assertEquals(1, pool.statistics().timeouts);
+        }
+
+        // после возврата соединение снова выдается
+        try (Connection con = pool.getConnection()) {
+            assertEquals(1, pool.statistics().active);
+        }
+        assertEquals(1, pool.statistics().idle);
+    }
+
+    @Test
+    public void invalidIdleConnectionIsReplaced() throws Exception {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 2, 1000, 0, 1, 0, 0));
+
+        pool.getConnection().close();
+        assertEquals(1, pool.statistics().created);
+
+        // соединение, простоявшее меньше интервала проверки, выдается без проверки
+        this.valid.set(false);
+        pool.getConnection().close();
+        assertEquals(0, pool.statistics().validationFailures);
+
+        // после интервала проверки непригодное соединение закрывается и заменяется новым
+        Thread.sleep(1100);
+        this.valid.set(true);
+        pool.getConnection().close();
+        Thread.sleep(1100);
+        this.valid.set(false);
+        try (Connection con = pool.getConnection()) {
+            final ConnectionPool.Statistics stats = pool.statistics();
+            assertEquals(1, stats.validationFailures);
+            assertEquals(2, stats.created);
+            assertEquals(1, stats.destroyed);
+            assertEquals(1, stats.total);
+        }
+    }
+
+    @Test
+    public void idleConnectionsAreEvictedDownToMinimum() throws Exception {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(1, 3, 1000, 10, 0, 0, 0));
+
+        final Connection a = pool.getConnection(),
+                         b = pool.getConnection(),
+                         c = pool.getConnection();
+        a.close();
+        b.close();
+        c.close();
+        assertEquals(3, pool.statistics().total);
+
+        // простаивающие меньше допустимого не закрываются
+        pool.housekeep();
+        assertEquals(3, pool.statistics().total);
+
+        Thread.sleep(30);
+        pool.housekeep();
+
+        final ConnectionPool.Statistics stats = pool.statistics();
+        assertEquals(1, stats.total);
+        assertEquals(1, stats.idle);
+        assertEquals(2, stats.destroyed);
+    }
+
+    @Test
+    public void leakIsReportedOncePerLease() throws Exception {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 2, 1000, 0, 0, 10, 0));
+
+        try (Connection con = pool.getConnection()) {
+            pool.housekeep();
+            assertEquals(0, pool.statistics().leaks);
+
+            Thread.sleep(30);
+            pool.housekeep();
+            pool.housekeep();
+            assertEquals(1, pool.statistics().leaks);
+        }
+
+        // возвращенное соединение утечкой не считается
+        Thread.sleep(30);
+        pool.housekeep();
+        assertEquals(1, pool.statistics().leaks);
+    }
+
+    @Test
+    public void openTransactionIsRolledBackOnRelease() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 1000, 0, 0, 0, 4));
+
+        try (Connection con = pool.getConnection()) {
+            con.createStatement().execute("CREATE TABLE t (id INT PRIMARY KEY)");
+            con.setAutoCommit(false);
+            con.createStatement().execute("INSERT INTO t VALUES (1)");
+        }
+
+        try (Connection con = pool.getConnection()) {
+            assertTrue(con.getAutoCommit());
+            assertEquals(0, ConnectionPoolTest.count(con, "SELECT COUNT(*) FROM t"));
+        }
+    }
+
+    @Test
+    public void statementsAreReusedAndEvictedInLruOrder() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 1000, 0, 0, 0, 2));
+
+        try (Connection con = pool.getConnection()) {
+            final PreparedStatement a = con.prepareStatement("SELECT 1");
+            final JdbcPreparedStatement physical = ConnectionPoolTest.physical(a);
+            a.close();
+            assertFalse(physical.isClosed());
+
+            // тот же запрос -- из кэша
+            try (PreparedStatement again = con.prepareStatement("SELECT 1")) {
+                assertSame(physical, ConnectionPoolTest.physical(again));
+            }
+
+            // два новых запроса вытесняют давно не использованный, он закрывается
+            con.prepareStatement("SELECT 2").close();
+            con.prepareStatement("SELECT 3").close();
+            assertTrue(physical.isClosed());
+
+            try (PreparedStatement again = con.prepareStatement("SELECT 1")) {
+                assertNotSame(physical, ConnectionPoolTest.physical(again));
+            }
+        }
+
+        final ConnectionPool.Statistics stats = pool.statistics();
+        assertEquals(1, stats.statementHits);
+        assertEquals(4, stats.statementMisses);
+    }
+
+    @Test
+    public void statementInUseIsNotSharedNorClosedByEviction() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 1000, 0, 0, 0, 1));
+
+        try (Connection con = pool.getConnection()) {
+            final PreparedStatement a = con.prepareStatement("SELECT ?");
+
+            // тот же запрос, пока первый не закрыт, готовится заново и в кэш не попадает
+            final PreparedStatement b = con.prepareStatement("SELECT ?");
+            assertNotSame(ConnectionPoolTest.physical(a), ConnectionPoolTest.physical(b));
+            b.close();
+            assertTrue(b.isClosed());
+
+            // вытесненный из кэша выданный запрос продолжает работать и закрывается только при возврате
+            con.prepareStatement("SELECT 2").close();
+            final JdbcPreparedStatement physical = ConnectionPoolTest.physical(a);
+            assertFalse(physical.isClosed());
+            a.setInt(1, 7);
+            assertEquals(7, ConnectionPoolTest.count(a));
+            a.close();
+            assertTrue(physical.isClosed());
+        }
+    }
+
+    @Test
+    public void unclosedStatementsAreDroppedOnRelease() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 1000, 0, 0, 0, 4));
+
+        final JdbcPreparedStatement physical;
+        try (Connection con = pool.getConnection()) {
+            physical = ConnectionPoolTest.physical(con.prepareStatement("SELECT 1"));
+        }
+        assertTrue(physical.isClosed());
+
+        try (Connection con = pool.getConnection(); PreparedStatement st = con.prepareStatement("SELECT 1")) {
+            assertNotSame(physical, ConnectionPoolTest.physical(st));
+        }
+        assertEquals(2, pool.statistics().statementMisses);
+    }
+
+    @Test
+    public void failedStatementIsNotReused() throws SQLException {
+        final ConnectionPool pool = this.open(new ConnectionPool.Settings(0, 1, 1000, 0, 0, 0, 16));
+
+        final String move = "UPDATE schedules SET movie_id = ?, auditorium = ? WHERE id = ?";
+        try (Connection con = pool.getConnection()) {
+            con.createStatement().execute(
+                "CREATE TABLE movies (id INT NOT NULL IDENTITY, title VARCHAR(300) NOT NULL)"
+            );
+            con.createStatement().execute(
+                "CREATE TABLE schedules (id INT NOT NULL IDENTITY, movie_id INT NOT NULL, " +
+                "auditorium TINYINT NOT NULL, FOREIGN KEY(movie_id) REFERENCES movies(id) ON DELETE CASCADE)"
+            );
+            con.createStatement().execute("INSERT INTO movies (title) VALUES ('a'), ('b')");
+            con.createStatement().execute("INSERT INTO schedules (movie_id, auditorium) VALUES (1, 1), (1, 1)");
+
+            // перенос на несуществующий фильм нарушает внешний ключ
+            con.setAutoCommit(false);
+            try (PreparedStatement st = con.prepareStatement(move)) {
+                st.setInt(1, 99);
+                st.setInt(2, 2);
+                st.setInt(3, 1);
+                assertThrows(SQLException.class, st::executeUpdate);
+            }
+            con.rollback();
+            con.setAutoCommit(true);
+
+            // удаление другой записи с чтением удаленной строки
+            try (PreparedStatement st = con.prepareStatement(
+                "SELECT movie_id FROM OLD TABLE (DELETE FROM schedules WHERE id = ?)"
+            )) {
+                st.setInt(1, 2);
+                assertEquals(1, ConnectionPoolTest.count(st));
+            }
+
+            // тот же запрос переноса после ошибки должен действительно изменить запись: H2 1.4.200 при повторном
+            // выполнении запроса, завершившегося ошибкой, сообщает об изменении строки, не меняя ее
+            con.setAutoCommit(false);
+            try (PreparedStatement st = con.prepareStatement(move)) {
+                st.setInt(1, 2);
+                st.setInt(2, 3);
+                st.setInt(3, 1);
+                assertEquals(1, st.executeUpdate());
+            }
+            con.commit();
+            con.setAutoCommit(true);
+
+            assertEquals(2, ConnectionPoolTest.count(con, "SELECT movie_id FROM schedules WHERE id = 1"));
+            assertEquals(3, ConnectionPoolTest.count(con, "SELECT auditorium FROM schedules WHERE id = 1"));
+        }
+    }
+
+    // открытие пула над новой БД в памяти, соединения которой отвечают на проверку признаком valid
+    private ConnectionPool open(final ConnectionPool.Settings settings) throws SQLException {
+        final JdbcDataSource h2 = new JdbcDataSource();
+        h2.setURL("jdbc:h2:mem:pool" + ConnectionPoolTest.DATABASES.incrementAndGet() + ";DB_CLOSE_DELAY=-1");
+
+        final DataSource source = (DataSource) Proxy.newProxyInstance(
+            DataSource.class.getClassLoader(),
+            new Class<?>[] { DataSource.class },
+            (proxy, method, args) -> {
+                if (!method.getName().equals("getConnection")) {
+                    return method.invoke(h2, args);
+                }
+
+                final Connection con = h2.getConnection();
+                return Proxy.newProxyInstance(
+                    Connection.class.getClassLoader(),
+                    new Class<?>[] { Connection.class },
+                    (cp, cm, ca) -> cm.getName().equals("isValid") ? this.valid.get() : cm.invoke(con, ca)
+                );
+            }
+        );
+
+        this.pool = new ConnectionPool(source, settings);
+        return this.pool;
+    }
+
+    // физический запрос H2 за выданным пулом
+    private static JdbcPreparedStatement physical(final PreparedStatement statement) throws SQLException {
+        return statement.unwrap(JdbcPreparedStatement.class);
+    }
+
+    // первое число первой строки результата
+    private static int count(final Connection con, final String sql) throws SQLException {
+        try (PreparedStatement st = con.prepareStatement(sql)) {
+            return ConnectionPoolTest.count(st);
+        }
+    }
+
+    private static int count(final PreparedStatement st) throws SQLException {
+        try (ResultSet rs = st.executeQuery()) {
+            rs.next();
+            return rs.getInt(1);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package tv.lid.cinema.api2.storages;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import javax.sql.DataSource;
+
+// сравнение задержки одиночного запроса в разных режимах работы с H2
+public final class H2StorageBenchmark {
+    private static final int ROWS       = 1000,   // записей в тестовой таблице
+                             WARMUP     = 20000,  // запросов на прогрев
+                             ITERATIONS = 100000, // измеряемых запросов
+                             PORT       = 7798;   // порт TCP-сервера
+
+    private static final String HOME = "build/bench/h2",
+                                FILE = "bench";
+
+    public static void main(final String[] args) throws SQLException {
+        System.out.println(String.format("%-10s %10s %10s %10s %10s", "mode", "avg, us", "p50, us", "p99, us", "p99.9, us"));
+
+        for (final H2Storage.Mode mode : H2Storage.Mode.values()) {
+            final H2Storage h2s = new H2Storage(
+                mode,
+                false,
+                H2StorageBenchmark.PORT,
+                H2StorageBenchmark.HOME + "/" + mode.name().toLowerCase(),
+                H2StorageBenchmark.FILE,
+                "sa",
+                "sa",
+                new ConnectionPool.Settings()
+            );
+
+            h2s.connect();
+            try {
+                final DataSource ds = h2s.dataSource();
+                H2StorageBenchmark.prepare(ds);
+
+                // прогрев
+                for (int i = 0; i < H2StorageBenchmark.WARMUP; i++) {
+                    H2StorageBenchmark.query(ds);
+                }
+
+                // измерение
+                final long[] timings = new long[H2StorageBenchmark.ITERATIONS];
+                for (int i = 0; i < timings.length; i++) {
+                    final long start = System.nanoTime();
+                    H2StorageBenchmark.query(ds);
+                    timings[i] = System.nanoTime() - start;
+                }
+
+                H2StorageBenchmark.report(mode, timings);
+            } finally {
+                h2s.disconnect();
+            }
+        }
+    }
+
+    // создание и заполнение тестовой таблицы
+    private static void prepare(final DataSource ds) throws SQLException {
+        try (Connection con = ds.getConnection(); Statement st = con.createStatement()) {
+            st.executeUpdate("DROP TABLE IF EXISTS bench_movies");
+            st.executeUpdate(
+                "CREATE TABLE bench_movies (" +
+                "id INT NOT NULL IDENTITY, " +
+                "title VARCHAR(300) NOT NULL, " +
+                "duration SMALLINT NOT NULL, " +
+                "year SMALLINT NOT NULL)"
+            );
+            try (PreparedStatement ps = con.prepareStatement(
+                "INSERT INTO bench_movies (title, duration, year) VALUES (?, ?, ?)"
+            )) {
+                for (int i = 0; i < H2StorageBenchmark.ROWS; i++) {
+                    ps.setString(1, "Movie #" + i);
+                    ps.setShort(2, (short) 90);
+                    ps.setShort(3, (short) (1950 + i % 70));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        }
+    }
+
+    // одиночный запрос в том виде, в каком его выполняют модели: соединение из пула, запрос, возврат
+    private static void query(final DataSource ds) throws SQLException {
+        try (
+            Connection        con = ds.getConnection();
+            PreparedStatement ps  = con.prepareStatement(
+                "SELECT id, title, duration, year FROM bench_movies WHERE id = ?"
+            )
+        ) {
+            ps.setInt(1, ThreadLocalRandom.current().nextInt(H2StorageBenchmark.ROWS) + 1);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    throw new SQLException("Row not found");
+                }
+            }
+        }
+    }
+
+    // вывод результатов
+    private static void report(final H2Storage.Mode mode, final long[] timings) {
+        Arrays.sort(timings);
+
+        long sum = 0;
+        for (final long t : timings) {
+            sum += t;
+        }
+
+        System.out.println(String.format(
+            "%-10s %10.1f %10.1f %10.1f %10.1f",
+            mode.name().toLowerCase(),
+            sum / (double) timings.length / 1000,
+            timings[timings.length / 2] / 1000.0,
+            timings[(int) (timings.length * 0.99)] / 1000.0,
+            timings[(int) (timings.length * 0.999)] / 1000.0
+        ));
+    }
+}